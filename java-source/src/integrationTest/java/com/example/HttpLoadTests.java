@@ -0,0 +1,245 @@
+package com.example;
+
+import com.example.client.LatencyRecorder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.utilities.NetworkHostAndPort;
+import net.corda.testing.core.TestIdentity;
+import net.corda.testing.driver.DriverParameters;
+import net.corda.testing.driver.NodeHandle;
+import net.corda.testing.driver.NodeParameters;
+import okhttp3.*;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.corda.testing.driver.Driver.driver;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pushes a configurable mix of HTTP traffic through the full webserver -> RPC -> flow -> vault path and fails if the
+ * latency or throughput budgets are missed.
+ *
+ * Run with `./gradlew loadTest`. The rate, duration, mix and budgets can be overridden with -P properties, which the
+ * Gradle task forwards as the `load.*` system properties read below.
+ *
+ * To measure a change, run it on the revision before the change and keep its build/reports/http-load.json, then run it
+ * on the change with -Pload.baseline pointing at that report. The two runs are written side by side to
+ * build/reports/http-load-comparison.json, and the run fails if its throughput is below [MIN_THROUGHPUT_RATIO] of the
+ * baseline's. Set load.rate above what the server can sustain, so that throughput measures capacity rather than the
+ * send rate.
+ */
+public class HttpLoadTests {
+    private static final double RATE = Double.parseDouble(System.getProperty("load.rate", "20"));
+    private static final long DURATION_SECONDS = Long.getLong("load.durationSeconds", 60);
+    private static final String MIX = System.getProperty("load.mix", "create-iou:1,ious:4,my-ious:4,peers:1");
+    private static final double P99_BUDGET_MILLIS = Double.parseDouble(System.getProperty("load.p99BudgetMillis", "2000"));
+    private static final double CREATE_P99_BUDGET_MILLIS = Double.parseDouble(System.getProperty("load.createP99BudgetMillis", "10000"));
+    private static final double MAX_ERROR_RATE = Double.parseDouble(System.getProperty("load.maxErrorRate", "0.01"));
+    private static final double MIN_THROUGHPUT_RATIO = Double.parseDouble(System.getProperty("load.minThroughputRatio", "0.9"));
+    private static final String BASELINE = System.getProperty("load.baseline");
+
+    private final TestIdentity hospital = new TestIdentity(new CordaX500Name("Hospital", "London", "GB"));
+    private final TestIdentity patient = new TestIdentity(new CordaX500Name("Patient", "New York", "US"));
+
+    @Test
+    public void endpointsMeetTheirBudgetsUnderLoad() {
+        driver(new DriverParameters()
+                .withExtraCordappPackagesToScan(ImmutableList.of("com.example.contract", "com.example.flow", "com.example.schema", "com.example.service")), dsl -> {
+
+            List<CordaFuture<NodeHandle>> handleFutures = ImmutableList.of(
+                    dsl.startNode(new NodeParameters().withProvidedName(hospital.getName())),
+                    dsl.startNode(new NodeParameters().withProvidedName(patient.getName()))
+            );
+
+            try {
+                NodeHandle hospitalHandle = handleFutures.get(0).get();
+                handleFutures.get(1).get();
+                NetworkHostAndPort address = dsl.startWebserver(hospitalHandle).get().getListenAddress();
+
+                LoadRun run = new LoadRun(address, parseMix(MIX));
+                run.execute();
+                run.writeReport(new File("build/reports/http-load.json"));
+                if (BASELINE != null) {
+                    run.compareWith(new File(BASELINE), new File("build/reports/http-load-comparison.json"));
+                }
+                run.assertBudgets();
+            } catch (Exception e) {
+                throw new RuntimeException("Caught exception during load test", e);
+            }
+
+            return null;
+        });
+    }
+
+    private static Map<String, Integer> parseMix(String mix) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split(":");
+            weights.put(parts[0], Integer.parseInt(parts[1]));
+        }
+        return weights;
+    }
+
+    /**
+     * One run of the traffic mix against a single webserver.
+     *
+     * Requests are sent asynchronously at a fixed rate, and latency is measured from each request's scheduled time so
+     * that a slow server cannot hide behind a reduced send rate.
+     */
+    private class LoadRun {
+        private final NetworkHostAndPort address;
+        private final List<String> weightedEndpoints = new ArrayList<>();
+        private final Map<String, LatencyRecorder> recorders = new LinkedHashMap<>();
+        private final OkHttpClient client;
+        private final Random random = new Random(42);
+        private final AtomicLong sequence = new AtomicLong();
+        private long elapsedNanos;
+
+        private LoadRun(NetworkHostAndPort address, Map<String, Integer> mix) {
+            this.address = address;
+            mix.forEach((endpoint, weight) -> {
+                recorders.put(endpoint, new LatencyRecorder());
+                for (int i = 0; i < weight; i++) weightedEndpoints.add(endpoint);
+            });
+            Dispatcher dispatcher = new Dispatcher();
+            dispatcher.setMaxRequests(1024);
+            dispatcher.setMaxRequestsPerHost(1024);
+            this.client = new OkHttpClient.Builder()
+                    .dispatcher(dispatcher)
+                    .readTimeout(60, TimeUnit.SECONDS)
+                    .build();
+        }
+
+        private void execute() throws InterruptedException {
+            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+            long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / RATE);
+            long started = System.nanoTime();
+            scheduler.scheduleAtFixedRate(() -> {
+                long n = sequence.getAndIncrement();
+                send(weightedEndpoints.get(random.nextInt(weightedEndpoints.size())), n, started + n * periodNanos);
+            }, 0, periodNanos, TimeUnit.NANOSECONDS);
+            scheduler.awaitTermination(DURATION_SECONDS, TimeUnit.SECONDS);
+            scheduler.shutdownNow();
+            elapsedNanos = System.nanoTime() - started;
+
+            // Give outstanding requests time to complete so they are counted.
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+            while (client.dispatcher().runningCallsCount() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(100);
+            }
+        }
+
+        private void send(String endpoint, long n, long intendedStart) {
+            HttpUrl.Builder url = new HttpUrl.Builder()
+                    .scheme("http").host(address.getHost()).port(address.getPort())
+                    .addPathSegments("api/resources/" + endpoint);
+            Request.Builder request = new Request.Builder();
+            if (endpoint.equals("create-iou")) {
+                url.addQueryParameter("iouName", "Load test patient " + n)
+                        .addQueryParameter("iouAge", "40")
+                        .addQueryParameter("iouGender", "Other")
+                        .addQueryParameter("iouHeight", "170")
+                        .addQueryParameter("iouWeight", "70")
+                        .addQueryParameter("iouBloodGroup", "O(positive)")
+                        .addQueryParameter("iouDiagnosis", "Load test")
+                        .addQueryParameter("iouMedicine", "None")
+                        .addQueryParameter("partyName", patient.getName().toString());
+                request.put(RequestBody.create(null, new byte[0]));
+            }
+            LatencyRecorder recorder = recorders.get(endpoint);
+            client.newCall(request.url(url.build()).build()).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    recorder.recordError();
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) throws IOException {
+                    try (ResponseBody body = response.body()) {
+                        body.bytes();
+                        if (response.isSuccessful()) {
+                            recorder.record(System.nanoTime() - intendedStart);
+                        } else {
+                            recorder.recordError();
+                        }
+                    }
+                }
+            });
+        }
+
+        private void writeReport(File file) throws IOException {
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("targetRatePerSecond", RATE);
+            report.put("durationSeconds", DURATION_SECONDS);
+            report.put("mix", MIX);
+            recorders.forEach((endpoint, recorder) -> report.put(endpoint, recorder.summary(elapsedNanos)));
+            file.getParentFile().mkdirs();
+            new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file, report);
+        }
+
+        /**
+         * Writes each endpoint's summary next to its summary in [baselineFile], and fails if the total throughput is
+         * below [MIN_THROUGHPUT_RATIO] of the baseline's. Both runs must have used the same rate and mix.
+         */
+        @SuppressWarnings("unchecked")
+        private void compareWith(File baselineFile, File file) throws IOException {
+            ObjectMapper mapper = new ObjectMapper();
+            Map<String, Object> baseline = mapper.readValue(baselineFile, Map.class);
+            assertEquals("The baseline was run at a different rate", RATE, ((Number) baseline.get("targetRatePerSecond")).doubleValue(), 1e-9);
+            assertEquals("The baseline was run with a different mix", MIX, baseline.get("mix"));
+
+            Map<String, Object> comparison = new LinkedHashMap<>();
+            comparison.put("baseline", baselineFile.getPath());
+            double before = 0;
+            double after = 0;
+            for (Map.Entry<String, LatencyRecorder> entry : recorders.entrySet()) {
+                Map<String, Object> previous = (Map<String, Object>) baseline.get(entry.getKey());
+                Map<String, Object> current = entry.getValue().summary(elapsedNanos);
+                before += ((Number) previous.get("throughputPerSecond")).doubleValue();
+                after += ((Number) current.get("throughputPerSecond")).doubleValue();
+                Map<String, Object> endpoint = new LinkedHashMap<>();
+                endpoint.put("before", previous);
+                endpoint.put("after", current);
+                comparison.put(entry.getKey(), endpoint);
+            }
+            Map<String, Object> throughput = new LinkedHashMap<>();
+            throughput.put("before", before);
+            throughput.put("after", after);
+            comparison.put("throughputPerSecond", throughput);
+            file.getParentFile().mkdirs();
+            mapper.writerWithDefaultPrettyPrinter().writeValue(file, comparison);
+
+            assertTrue(String.format("Throughput of %.1f/s is below %.0f%% of the baseline's %.1f/s", after, MIN_THROUGHPUT_RATIO * 100, before),
+                    after >= before * MIN_THROUGHPUT_RATIO);
+        }
+
+        private void assertBudgets() {
+            long completed = 0;
+            for (Map.Entry<String, LatencyRecorder> entry : recorders.entrySet()) {
+                String endpoint = entry.getKey();
+                LatencyRecorder recorder = entry.getValue();
+                long attempts = recorder.getCount() + recorder.getErrors();
+                completed += recorder.getCount();
+                if (attempts == 0) continue;
+
+                double budget = endpoint.equals("create-iou") ? CREATE_P99_BUDGET_MILLIS : P99_BUDGET_MILLIS;
+                double p99 = recorder.percentileMillis(99);
+                assertTrue(String.format("/%s p99 of %.1fms exceeds the %.1fms budget", endpoint, p99, budget), p99 <= budget);
+                double errorRate = recorder.getErrors() / (double) attempts;
+                assertTrue(String.format("/%s error rate of %.3f exceeds %.3f", endpoint, errorRate, MAX_ERROR_RATE),
+                        errorRate <= MAX_ERROR_RATE);
+            }
+            double throughput = completed / (elapsedNanos / 1e9);
+            assertTrue(String.format("Throughput of %.1f/s is below %.0f%% of the %.1f/s target", throughput, MIN_THROUGHPUT_RATIO * 100, RATE),
+                    throughput >= RATE * MIN_THROUGHPUT_RATIO);
+        }
+    }
+}
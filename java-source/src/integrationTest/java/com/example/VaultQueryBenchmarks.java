@@ -0,0 +1,211 @@
+package com.example;
+
+import com.example.client.LatencyRecorder;
+import com.example.flow.SeedVaultFlow;
+import com.example.query.IOUQuery;
+import com.example.seed.PatientRecordGenerator;
+import com.example.state.IOUState;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
+import net.corda.core.serialization.SerializationAPIKt;
+import net.corda.core.serialization.SerializationDefaults;
+import net.corda.testing.core.TestIdentity;
+import net.corda.testing.driver.DriverParameters;
+import net.corda.testing.driver.NodeHandle;
+import net.corda.testing.driver.NodeParameters;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.function.IntFunction;
+
+import static java.util.stream.Collectors.toList;
+import static net.corda.testing.driver.Driver.driver;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the vault queries behind the read end-points as the vault grows.
+ *
+ * The hospital node is seeded directly (see [SeedVaultFlow]) up to each size in turn, and at each size every
+ * combination of query, status filter, page size, page position and sort is run [REPETITIONS] times after
+ * [WARMUP] unmeasured runs. Each combination reports latency percentiles, bytes allocated per query and the
+ * serialized size of the page the RPC call returns.
+ *
+ * Run with `./gradlew queryBenchmark`. The sizes and parameters can be overridden with -P properties, which the
+ * Gradle task forwards as the `bench.*` system properties read below. The seed and the order of the runs are fixed,
+ * so reports from different runs on the same machine can be compared line by line.
+ *
+ * Nodes run in process, so the allocation figures cover the node's work as well as the client's: they are the
+ * difference in bytes allocated by all live threads, and include whatever else the JVM did meanwhile. Every seeded
+ * state is issued by the hospital, so the hospital filter selects the whole vault and measures the cost of the
+ * custom criteria rather than any gain from selectivity.
+ */
+public class VaultQueryBenchmarks {
+    private static final List<Integer> SIZES = ints(System.getProperty("bench.sizes", "10000,100000,1000000"));
+    private static final List<Integer> PAGE_SIZES = ints(System.getProperty("bench.pageSizes", "50,200"));
+    private static final int REPETITIONS = Integer.getInteger("bench.repetitions", 10);
+    private static final int WARMUP = Integer.getInteger("bench.warmup", 3);
+    private static final long SEED = Long.getLong("bench.seed", 42);
+    private static final String REPORT = System.getProperty("bench.report", "build/reports/vault-query-benchmark.json");
+
+    static {
+        // The nodes run in this JVM, so this lets them accept SeedVaultFlow.
+        System.setProperty("carechain.seed.enabled", "true");
+    }
+
+    private final TestIdentity hospital = new TestIdentity(new CordaX500Name("Hospital", "London", "GB"));
+    private final TestIdentity patient = new TestIdentity(new CordaX500Name("Patient", "New York", "US"));
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static List<Integer> ints(String values) {
+        return Arrays.stream(values.split(",")).map(String::trim).map(Integer::parseInt).collect(toList());
+    }
+
+    @Test
+    public void vaultQueriesAtScale() {
+        driver(new DriverParameters()
+                .withStartNodesInProcess(true)
+                .withExtraCordappPackagesToScan(ImmutableList.of("com.example.contract", "com.example.flow", "com.example.schema", "com.example.service")), dsl -> {
+            try {
+                final NodeHandle hospitalHandle = dsl.startNode(new NodeParameters().withProvidedName(hospital.getName())).get();
+                final NodeHandle patientHandle = dsl.startNode(new NodeParameters().withProvidedName(patient.getName())).get();
+                final CordaRPCOps rpc = hospitalHandle.getRpc();
+                final Party patientParty = patientHandle.getNodeInfo().getLegalIdentities().get(0);
+
+                final List<Map<String, Object>> results = new ArrayList<>();
+                long seeded = 0;
+                for (int size : SIZES) {
+                    final long started = System.nanoTime();
+                    while (seeded < size) {
+                        final int chunk = (int) Math.min(SeedVaultFlow.MAX_COUNT, size - seeded);
+                        rpc.startFlowDynamic(SeedVaultFlow.class, patientParty, SEED, seeded, chunk).getReturnValue().get();
+                        seeded += chunk;
+                    }
+                    System.out.printf("Seeded %d states in %ds.%n", size, (System.nanoTime() - started) / 1000000000);
+                    results.addAll(runAt(rpc, size));
+                }
+                writeReport(results);
+            } catch (Exception e) {
+                throw new RuntimeException("Caught exception during the vault query benchmark", e);
+            }
+            return null;
+        });
+    }
+
+    private List<Map<String, Object>> runAt(CordaRPCOps rpc, int size) {
+        final String me = hospital.getName().toString();
+        final List<Map<String, Object>> results = new ArrayList<>();
+        final Map<String, Sort> sorts = new LinkedHashMap<>();
+        sorts.put("none", null);
+        sorts.put("recorded-desc", new Sort(ImmutableList.of(new Sort.SortColumn(
+                new SortAttribute.Standard(Sort.VaultStateAttribute.RECORDED_TIME), Sort.Direction.DESC))));
+
+        for (Vault.StateStatus status : ImmutableList.of(Vault.StateStatus.UNCONSUMED, Vault.StateStatus.ALL)) {
+            for (int pageSize : PAGE_SIZES) {
+                final int middlePage = Math.max(1, size / pageSize / 2);
+                for (int page : ImmutableList.of(1, middlePage)) {
+                    for (Map.Entry<String, Sort> sort : sorts.entrySet()) {
+                        for (IOUQuery query : ImmutableList.of(IOUQuery.all(status), IOUQuery.byHospital(status, me))) {
+                            final IOUQuery paged = query.withPage(page, pageSize);
+                            final Map<String, Object> result = measure(i -> sort.getValue() == null
+                                    ? rpc.vaultQueryByWithPagingSpec(IOUState.class, paged.toCriteria(), paged.toPageSpecification())
+                                    : rpc.vaultQueryBy(paged.toCriteria(), paged.toPageSpecification(), sort.getValue(), IOUState.class));
+                            result.put("query", query.getHospital() == null ? "ious" : "my-ious");
+                            result.put("status", status.name());
+                            result.put("pageSize", pageSize);
+                            result.put("page", page == 1 ? "first" : "middle");
+                            result.put("sort", sort.getKey());
+                            result.put("vaultSize", size);
+                            results.add(result);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Lookups of seeded states by linear ID, cycling through a fixed set of records spread across the vault.
+        final PatientRecordGenerator generator = new PatientRecordGenerator(SEED);
+        final Random random = new Random(SEED);
+        final long[] indexes = random.longs(REPETITIONS + WARMUP, 0, size).toArray();
+        final Map<String, Object> lookup = measure(i -> rpc.vaultQueryByWithPagingSpec(IOUState.class,
+                new QueryCriteria.LinearStateQueryCriteria(null, ImmutableList.of(generator.linearId(indexes[i]).getId()),
+                        null, Vault.StateStatus.UNCONSUMED), new PageSpecification(1, 1)));
+        lookup.put("query", "linear-id");
+        lookup.put("vaultSize", size);
+        results.add(lookup);
+        return results;
+    }
+
+    private long allocatedBytes() {
+        return Arrays.stream(threads.getThreadAllocatedBytes(threads.getAllThreadIds())).filter(bytes -> bytes > 0).sum();
+    }
+
+    private Map<String, Object> measure(IntFunction<Vault.Page<IOUState>> query) {
+        Vault.Page<IOUState> page = null;
+        for (int i = 0; i < WARMUP; i++) page = query.apply(i);
+        final LatencyRecorder latencies = new LatencyRecorder();
+        final long allocatedBefore = allocatedBytes();
+        final long started = System.nanoTime();
+        for (int i = WARMUP; i < WARMUP + REPETITIONS; i++) {
+            final long start = System.nanoTime();
+            page = query.apply(i);
+            latencies.record(System.nanoTime() - start);
+        }
+        final long elapsed = System.nanoTime() - started;
+        final long allocated = allocatedBytes() - allocatedBefore;
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("p50Millis", latencies.percentileMillis(50));
+        result.put("p99Millis", latencies.percentileMillis(99));
+        result.put("meanMillis", elapsed / 1e6 / REPETITIONS);
+        result.put("allocatedBytesPerQuery", allocated / REPETITIONS);
+        result.put("states", page.getStates().size());
+        result.put("payloadBytes", SerializationAPIKt.serialize(page, SerializationDefaults.INSTANCE.getSERIALIZATION_FACTORY(),
+                SerializationDefaults.INSTANCE.getRPC_SERVER_CONTEXT()).getSize());
+        return result;
+    }
+
+    private void writeReport(List<Map<String, Object>> results) throws Exception {
+        final Map<String, Object> environment = new LinkedHashMap<>();
+        environment.put("java", System.getProperty("java.version"));
+        environment.put("os", System.getProperty("os.name") + " " + System.getProperty("os.version"));
+        environment.put("processors", Runtime.getRuntime().availableProcessors());
+        environment.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+        final Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("sizes", SIZES);
+        parameters.put("pageSizes", PAGE_SIZES);
+        parameters.put("repetitions", REPETITIONS);
+        parameters.put("warmup", WARMUP);
+        parameters.put("seed", SEED);
+        final Map<String, Object> report = new LinkedHashMap<>();
+        report.put("environment", environment);
+        report.put("parameters", parameters);
+        report.put("results", results);
+
+        final File file = new File(REPORT);
+        file.getParentFile().mkdirs();
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file, report);
+
+        System.out.printf("%-9s %-10s %-11s %5s %-6s %-13s %9s %9s %12s %10s%n",
+                "size", "query", "status", "page", "at", "sort", "p50 ms", "p99 ms", "alloc/query", "payload");
+        for (Map<String, Object> result : results) {
+            System.out.printf("%-9s %-10s %-11s %5s %-6s %-13s %9.1f %9.1f %12d %10d%n", result.get("vaultSize"),
+                    result.get("query"), result.getOrDefault("status", "UNCONSUMED"), result.getOrDefault("pageSize", 1),
+                    result.getOrDefault("page", "first"), result.getOrDefault("sort", "none"), result.get("p50Millis"),
+                    result.get("p99Millis"), result.get("allocatedBytesPerQuery"), result.get("payloadBytes"));
+        }
+        System.out.println("Report written to " + file);
+        // Every linear ID lookup should find its seeded state.
+        results.stream().filter(result -> result.get("query").equals("linear-id"))
+                .forEach(result -> assertEquals(1, result.get("states")));
+    }
+}
@@ -1,47 +1,136 @@
 package com.example.api;
 
+import com.example.client.RpcConnectionPool;
+import com.example.contract.IOUValidator;
+import com.example.flow.CheckpointStatsFlow;
+import com.example.flow.DuplicatePatientStatsFlow;
 import com.example.flow.IssueFlow;
-import com.example.schema.IOUSchemaV1;
+import com.example.flow.VaultStatsFlow;
+import com.example.query.ColumnarIOUStore;
+import com.example.query.ConsumedStateArchive;
+import com.example.query.IOUProjection;
+import com.example.query.IOUQuery;
+import com.example.service.IOUProjectionService;
 import com.example.state.IOUState;
+import com.example.state.PatientRecord;
+import com.example.trace.SpanLog;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
 import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
 import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.FlowHandle;
 import net.corda.core.node.NodeInfo;
 import net.corda.core.node.services.Vault;
-import net.corda.core.node.services.vault.*;
+import net.corda.core.node.services.vault.QueryCriteria;
 import net.corda.core.transactions.SignedTransaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.*;
-import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.Response;
-import java.lang.reflect.Field;
+import javax.ws.rs.core.*;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
 import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
 import static javax.ws.rs.core.Response.Status.CREATED;
+import static javax.ws.rs.core.Response.Status.INTERNAL_SERVER_ERROR;
 import static javax.ws.rs.core.Response.Status.OK;
+import static javax.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE;
 
 // This API is accessible from /api/example. All paths specified below are relative to it.
 @Path("resources")
 public class Api {
+    private final RpcConnectionPool pool;
     private final CordaRPCOps rpcOps;
-    private final CordaX500Name myLegalName;
+    private final Warmup warmup;
+    private final VersionTracker versions;
+    private final VaultQueryCache queryCache;
+    private final ConsumedStateArchive archive;
+    private final ColumnarIOUStore analytics = new ColumnarIOUStore();
+    private final IssuanceCoalescer coalescer;
 
-    private final List<String> serviceNames = ImmutableList.of("Notary");
+    static final int MAX_PAGE_SIZE = 500;
+    // The page size of /ious/page, /my-ious/page and /dashboard when none is asked for.
+    static final String DEFAULT_PAGE_SIZE = "50";
+    // How long a request waits for a flow before it is answered with a 503.
+    static final long TIMEOUT_SECONDS = Long.getLong("carechain.rpc.timeoutSeconds", 60);
 
     static private final Logger logger = LoggerFactory.getLogger(Api.class);
 
     public Api(CordaRPCOps rpcOps) {
-        this.rpcOps = rpcOps;
-        this.myLegalName = rpcOps.nodeInfo().getLegalIdentities().get(0).getName();
+        this.pool = RpcConnectionPool.fromSystemProperties();
+        this.rpcOps = pool == null ? rpcOps : pool.getProxy();
+        this.versions = new VersionTracker(this.rpcOps);
+        this.queryCache = new VaultQueryCache(this.rpcOps, versions.getVaultUpdates());
+        try {
+            this.archive = new ConsumedStateArchive(ConsumedStateArchive.defaultDirectory());
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open the consumed state archive.", e);
+        }
+        // The webserver gives its APIs no stop callback, so buffered states are written out when the JVM exits.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                archive.close();
+            } catch (IOException e) {
+                logger.error("Failed to close the consumed state archive on shutdown.", e);
+            }
+        }, "consumed-state-archive-shutdown"));
+        archive.attach(this.rpcOps, versions.getVaultUpdates());
+        analytics.attach(this.rpcOps, versions.getVaultUpdates());
+        this.coalescer = IssuanceCoalescer.isEnabled() ? new IssuanceCoalescer(this.rpcOps) : null;
+        this.warmup = new Warmup(this.rpcOps, queryCache);
+        warmup.start();
+    }
+
+    /**
+     * Answers a conditional GET with 304 if the client's ETag matches [tag], otherwise builds the body.
+     *
+     * The tag is read before the body is built, so an update racing with the query can only make the client fetch
+     * again on its next poll, never make it keep stale data. Revalidation never touches the node.
+     */
+    private static Response conditional(Request request, EntityTag tag, Callable<?> body) {
+        final CacheControl cacheControl = new CacheControl();
+        cacheControl.setNoCache(true);
+        final Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+        if (notModified != null) {
+            return notModified.cacheControl(cacheControl).build();
+        }
+        return respond(() -> Response.status(OK).entity(body.call()).tag(tag).cacheControl(cacheControl).build());
+    }
+
+    /**
+     * Runs [call] and returns its result, a [Response] as-is and anything else as the entity of a 200. A call that
+     * times out waiting for the node is answered with a 503, and any other failure with a 500.
+     */
+    private static Response respond(Callable<?> call) {
+        try {
+            final Object result = call.call();
+            return result instanceof Response ? (Response) result : Response.ok(result).build();
+        } catch (TimeoutException e) {
+            return Response.status(SERVICE_UNAVAILABLE).entity("Request timed out waiting for the node.\n").build();
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            return Response.status(INTERNAL_SERVER_ERROR).entity(e.getMessage()).build();
+        }
+    }
+
+    /**
+     * Waits up to [TIMEOUT_SECONDS] for [flow] to return.
+     */
+    private static <T> T await(FlowHandle<T> flow) throws Exception {
+        return flow.getReturnValue().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
     }
 
     /**
@@ -51,33 +140,39 @@ public class Api {
     @Path("me")
     @Produces(MediaType.APPLICATION_JSON)
     public Map<String, CordaX500Name> whoami() {
-        return ImmutableMap.of("me", myLegalName);
+        return ImmutableMap.of("me", warmup.getLegalName());
     }
 
     /**
-     * Returns all parties registered with the [NetworkMapService]. These names can be used to look up identities
-     * using the [IdentityService].
+     * Returns all parties registered with the [NetworkMapService], except ourselves and the notaries. These names can
+     * be used to look up identities using the [IdentityService].
      */
     @GET
     @Path("peers")
     @Produces(MediaType.APPLICATION_JSON)
-    public Map<String, List<CordaX500Name>> getPeers() {
+    public Response getPeers(@Context Request request) {
+        return conditional(request, versions.networkMapTag(), () -> ImmutableMap.of("peers", peerNames()));
+    }
+
+    private List<CordaX500Name> peerNames() {
         List<NodeInfo> nodeInfoSnapshot = rpcOps.networkMapSnapshot();
-        return ImmutableMap.of("peers", nodeInfoSnapshot
+        Set<CordaX500Name> notaryNames = rpcOps.notaryIdentities().stream().map(Party::getName).collect(toSet());
+        return nodeInfoSnapshot
                 .stream()
                 .map(node -> node.getLegalIdentities().get(0).getName())
-                .filter(name -> !name.equals(myLegalName) && !serviceNames.contains(name.getOrganisation()))
-                .collect(toList()));
+                .filter(name -> !name.equals(warmup.getLegalName()) && !notaryNames.contains(name))
+                .collect(toList());
     }
 
     /**
-     * Displays all IOU states that exist in the node's vault.
+     * Displays all unconsumed IOU states that exist in the node's vault.
      */
     @GET
     @Path("ious")
     @Produces(MediaType.APPLICATION_JSON)
-    public List<StateAndRef<IOUState>> getIOUs() {
-        return rpcOps.vaultQuery(IOUState.class).getStates();
+    public Response getIOUs(@Context Request request) {
+        return conditional(request, versions.vaultTag(),
+                () -> queryCache.query(IOUQuery.all(Vault.StateStatus.UNCONSUMED)).getStates());
     }
 
     /**
@@ -89,7 +184,12 @@ public class Api {
      * This end-point takes a Party name parameter as part of the path. If the serving node can't find the other party
      * in its network map cache, it will return an HTTP bad request.
      *
-     * The flow is invoked asynchronously. It returns a future when the flow's call() method returns.
+     * The flow is invoked asynchronously, and the request waits for the future returned by the flow's call() method
+     * for at most [TIMEOUT_SECONDS]. The ref of the new state is returned in the X-State-Ref header. When coalescing is
+     * enabled, concurrent requests for the same counterparty may share a transaction (see [IssuanceCoalescer]).
+     *
+     * The request's X-Correlation-Id header, or a new ID if it has none, is passed to the flow and returned in the
+     * response, so the request can be followed through both nodes' logs and span logs (see [SpanLog]).
      */
     @PUT
     @Path("create-iou")
@@ -97,70 +197,393 @@ public class Api {
                               @QueryParam("iouGender") String iouGender, @QueryParam("iouHeight") int iouHeight,
                               @QueryParam("iouWeight") int iouWeight, @QueryParam("iouBloodGroup") String iouBloodGroup,
                               @QueryParam("iouDiagnosis") String iouDiagnosis, @QueryParam("iouMedicine") String iouMedicine,
-                              @QueryParam("partyName") CordaX500Name partyName) throws InterruptedException, ExecutionException {
+                              @QueryParam("partyName") CordaX500Name partyName,
+                              @HeaderParam(SpanLog.CORRELATION_ID_HEADER) String requestCorrelationId) {
 
-        if (iouName == null) {
-            return Response.status(BAD_REQUEST).entity("Query parameter 'iouName' missing or has wrong format.\n").build();
+        final Response invalid = checkIOUParameters(iouName, iouAge, iouGender, iouHeight, iouWeight, iouBloodGroup,
+                iouDiagnosis, iouMedicine, partyName);
+        if (invalid != null) {
+            return invalid;
         }
-        if (iouAge <= 0) {
-            return Response.status(BAD_REQUEST).entity("Query parameter 'iouAge' is negative.\n").build();
+
+        final Party otherParty = rpcOps.wellKnownPartyFromX500Name(partyName);
+        if (otherParty == null) {
+            return Response.status(BAD_REQUEST).entity("Party named " + partyName + "cannot be found.\n").build();
         }
-        if (iouGender == null) {
-            return Response.status(BAD_REQUEST).entity("Query parameter 'iouGender' missing or has wrong format.\n").build();
+
+        if (coalescer != null) {
+            return coalescer.submit(new PatientRecord(iouName, iouAge, iouGender, iouHeight, iouWeight, iouBloodGroup,
+                    iouDiagnosis, iouMedicine), otherParty, requestCorrelationId, TIMEOUT_SECONDS);
         }
-        if (iouHeight <= 0) {
-            return Response.status(BAD_REQUEST).entity("Query parameter 'iouHeight' is negative.\n").build();
+
+        final String correlationId = requestCorrelationId == null ? SpanLog.newCorrelationId() : requestCorrelationId;
+        final SpanLog.Span span = SpanLog.start(correlationId, "api.create-iou", "web-" + warmup.getLegalName().getOrganisation());
+        logger.info("[{}] create-iou for {} to {}.", correlationId, iouName, partyName);
+        try {
+            final SignedTransaction signedTx = await(rpcOps.startTrackedFlowDynamic(IssueFlow.Initiator.class,
+                    iouName, iouAge, iouGender, iouHeight, iouWeight, iouBloodGroup, iouDiagnosis, iouMedicine, otherParty,
+                    correlationId));
+
+            final String msg = String.format("Transaction id %s committed to ledger.\n", signedTx.getId());
+            span.end(signedTx.getId().toString());
+            logger.info("[{}] create-iou committed {}.", correlationId, signedTx.getId());
+            return Response.status(CREATED).entity(msg)
+                    .header(IssuanceCoalescer.STATE_REF_HEADER, new StateRef(signedTx.getId(), 0))
+                    .header(SpanLog.CORRELATION_ID_HEADER, correlationId).build();
+
+        } catch (TimeoutException ex) {
+            span.end("timed out");
+            return Response.status(SERVICE_UNAVAILABLE).entity("Request timed out waiting for the node.\n")
+                    .header(SpanLog.CORRELATION_ID_HEADER, correlationId).build();
+        } catch (Throwable ex) {
+            final String msg = ex.getMessage();
+            span.end("failed: " + msg);
+            logger.error("[" + correlationId + "] " + ex.getMessage(), ex);
+            return Response.status(BAD_REQUEST).entity(msg)
+                    .header(SpanLog.CORRELATION_ID_HEADER, correlationId).build();
         }
-        if (iouWeight <= 0) {
-            return Response.status(BAD_REQUEST).entity("Query parameter 'iouWeight' is negative.\n").build();
+    }
+
+    /**
+     * Initiates the same flow as /create-iou, but streams its progress back as server-sent events while it runs.
+     *
+     * See [FlowProgressStream] for the events sent. The flow carries on if the client disconnects; only the progress
+     * subscriptions are released. If too many streams are already open, no flow is started and a 503 is returned.
+     */
+    @PUT
+    @Path("create-iou/stream")
+    @Produces(FlowProgressStream.MEDIA_TYPE)
+    public Response createIOUWithProgress(@QueryParam("iouName") String iouName, @QueryParam("iouAge") int iouAge,
+                                          @QueryParam("iouGender") String iouGender, @QueryParam("iouHeight") int iouHeight,
+                                          @QueryParam("iouWeight") int iouWeight, @QueryParam("iouBloodGroup") String iouBloodGroup,
+                                          @QueryParam("iouDiagnosis") String iouDiagnosis, @QueryParam("iouMedicine") String iouMedicine,
+                                          @QueryParam("partyName") CordaX500Name partyName,
+                                          @HeaderParam(SpanLog.CORRELATION_ID_HEADER) String requestCorrelationId) {
+
+        final Response invalid = checkIOUParameters(iouName, iouAge, iouGender, iouHeight, iouWeight, iouBloodGroup,
+                iouDiagnosis, iouMedicine, partyName);
+        if (invalid != null) {
+            return invalid;
         }
-        if (iouBloodGroup == null) {
-            return Response.status(BAD_REQUEST).entity("Query parameter 'iouBloodGroup' missing or has wrong format.\n").build();
+        final Party otherParty = rpcOps.wellKnownPartyFromX500Name(partyName);
+        if (otherParty == null) {
+            return Response.status(BAD_REQUEST).entity("Party named " + partyName + "cannot be found.\n").build();
         }
-        if (iouDiagnosis == null) {
-            return Response.status(BAD_REQUEST).entity("Query parameter 'iouDiagnosis' missing or has wrong format.\n").build();
+
+        final String correlationId = requestCorrelationId == null ? SpanLog.newCorrelationId() : requestCorrelationId;
+        final FlowProgressStream stream = FlowProgressStream.open(() -> rpcOps.startTrackedFlowDynamic(IssueFlow.Initiator.class,
+                iouName, iouAge, iouGender, iouHeight, iouWeight, iouBloodGroup, iouDiagnosis, iouMedicine, otherParty,
+                correlationId));
+        if (stream == null) {
+            return Response.status(SERVICE_UNAVAILABLE).entity("Too many progress streams are open; use /create-iou instead.\n")
+                    .header(SpanLog.CORRELATION_ID_HEADER, correlationId).build();
         }
-        if (iouMedicine == null) {
-            return Response.status(BAD_REQUEST).entity("Query parameter 'iouMedicine' missing or has wrong format.\n").build();
+        logger.info("[{}] create-iou/stream for {} to {}.", correlationId, iouName, partyName);
+        final Response.ResponseBuilder response = Response.ok(stream, FlowProgressStream.MEDIA_TYPE)
+                .header(SpanLog.CORRELATION_ID_HEADER, correlationId);
+        FlowProgressStream.headers().forEach(response::header);
+        return response.build();
+    }
+
+    /**
+     * Checks the request against the same rules as IssueFlow and IssueContract, so that invalid records are turned
+     * away before any RPC call is made.
+     */
+    private static Response checkIOUParameters(String iouName, int iouAge, String iouGender, int iouHeight, int iouWeight,
+                                               String iouBloodGroup, String iouDiagnosis, String iouMedicine,
+                                               CordaX500Name partyName) {
+        final List<String> violations = IOUValidator.configured().validate(
+                iouName, iouAge, iouGender, iouHeight, iouWeight, iouBloodGroup, iouDiagnosis, iouMedicine);
+        if (!violations.isEmpty()) {
+            return Response.status(BAD_REQUEST).entity(String.join("\n", violations) + "\n").build();
         }
         if (partyName == null) {
             return Response.status(BAD_REQUEST).entity("Query parameter 'partyName' missing or has wrong format.\n").build();
         }
+        return null;
+    }
+	
+	/**
+     * Displays all unconsumed IOU states that are created by Party. Superseded states are available from /history.
+     */
+    @GET
+    @Path("my-ious")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getMyIOUs(@Context Request request) {
+        final IOUQuery query = IOUQuery.byHospital(Vault.StateStatus.UNCONSUMED, warmup.getLegalName().toString());
+        return conditional(request, versions.vaultTag(), () -> queryCache.query(query).getStates());
+    }
 
-        final Party otherParty = rpcOps.wellKnownPartyFromX500Name(partyName);
-        if (otherParty == null) {
-            return Response.status(BAD_REQUEST).entity("Party named " + partyName + "cannot be found.\n").build();
+    /**
+     * Returns one page of the unconsumed IOU states, newest first, for the web UI's scrolling tables.
+     *
+     * [filter], if given, is text the patient's name must contain; it is applied by the node, so only matching
+     * records leave it. The response includes the number of matching records, which lets the client size its table
+     * before it has loaded every page.
+     *
+     * [columns], if given, is a comma-separated subset of [IOUProjectionService.COLUMNS] to return instead of whole
+     * states. Those rows are read by [com.example.flow.ProjectionQueryFlow] straight from the IOU table. Both kinds of
+     * page are cached by [VaultQueryCache], whose stats compare how long each takes to load.
+     */
+    @GET
+    @Path("ious/page")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getIOUPage(@QueryParam("page") @DefaultValue("1") int page,
+                           @QueryParam("pageSize") @DefaultValue(DEFAULT_PAGE_SIZE) int pageSize,
+                           @QueryParam("filter") String filter,
+                           @QueryParam("columns") String columns,
+                               @Context Request request) {
+        return page(null, page, pageSize, filter, columns, request);
+    }
+
+    /**
+     * As /ious/page, for the unconsumed IOU states we issued.
+     */
+    @GET
+    @Path("my-ious/page")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getMyIOUPage(@QueryParam("page") @DefaultValue("1") int page,
+                             @QueryParam("pageSize") @DefaultValue(DEFAULT_PAGE_SIZE) int pageSize,
+                             @QueryParam("filter") String filter,
+                             @QueryParam("columns") String columns,
+                                 @Context Request request) {
+        return page(warmup.getLegalName().toString(), page, pageSize, filter, columns, request);
+    }
+
+    private Response page(String hospital, int page, int pageSize, String filter, String columns, Request request) {
+        final Response invalid = checkPageParameters(page, pageSize);
+        if (invalid != null) return invalid;
+        final List<String> selected = columns == null ? null : Arrays.asList(columns.split(","));
+        if (selected != null && !IOUProjectionService.COLUMNS.keySet().containsAll(selected)) {
+            return Response.status(BAD_REQUEST).entity("Query parameter 'columns' must be a comma-separated list of " + IOUProjectionService.COLUMNS.keySet() + ".\n").build();
+        }
+        return conditional(request, versions.vaultTag(), () -> pageOf(hospital, page, pageSize, filter, selected));
+    }
+
+    private static Response checkPageParameters(int page, int pageSize) {
+        if (page < 1 || pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            return Response.status(BAD_REQUEST).entity("Query parameter 'page' must be positive and 'pageSize' between 1 and " + MAX_PAGE_SIZE + ".\n").build();
+        }
+        return null;
+    }
+
+    /**
+     * The query behind one page of /ious/page, or of /my-ious/page if [hospital] is given.
+     */
+    static IOUQuery pageQuery(String hospital, int page, int pageSize, String filter) {
+        return (hospital == null ? IOUQuery.all(Vault.StateStatus.UNCONSUMED)
+                : IOUQuery.byHospital(Vault.StateStatus.UNCONSUMED, hospital))
+                .withNameContaining(filter).newestFirst().withPage(page, pageSize);
+    }
+
+    /**
+     * Reads one page as /ious/page returns it, of the IOUs [hospital] issued, or of every IOU if [hospital] is null.
+     * The page holds whole states unless [columns] is given.
+     */
+    private Map<String, Object> pageOf(String hospital, int page, int pageSize, String filter, List<String> columns) throws Exception {
+        final IOUQuery query = pageQuery(hospital, page, pageSize, filter);
+        final long total;
+        final List<?> ious;
+        if (columns == null) {
+            final Vault.Page<IOUState> result = queryCache.query(query);
+            total = result.getTotalStatesAvailable();
+            ious = result.getStates().stream().map(state -> state.getState().getData()).collect(toList());
+        } else {
+            final IOUProjection result = queryCache.project(query, columns);
+            total = result.getTotal();
+            ious = result.toMaps();
         }
+        return ImmutableMap.of(
+                "page", page,
+                "pageSize", pageSize,
+                "total", total,
+                "ious", ious);
+    }
 
+    /**
+     * Returns everything the UI shows on load in one response: our name, our peers, and the first page of each of
+     * its record tables, as /ious/page and /my-ious/page return them.
+     *
+     * The ETag covers both the vault and the network map.
+     */
+    @GET
+    @Path("dashboard")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getDashboard(@QueryParam("pageSize") @DefaultValue(DEFAULT_PAGE_SIZE) int pageSize, @Context Request request) {
+        final Response invalid = checkPageParameters(1, pageSize);
+        if (invalid != null) return invalid;
+        return conditional(request, versions.combinedTag(), () -> {
+            final CordaX500Name me = warmup.getLegalName();
+            return ImmutableMap.of(
+                    "me", me,
+                    "peers", peerNames(),
+                    "ious", pageOf(null, 1, pageSize, null, null),
+                    "myIous", pageOf(me.toString(), 1, pageSize, null, null));
+        });
+    }
+
+    /**
+     * Displays the history of IOU states created by Party, including consumed ones.
+     *
+     * Given a linearId, the current state is read from the vault and its consumed predecessors from the archive, so
+     * the lookup does not scan the vault's consumed states. Otherwise a page of the full history is read from the vault.
+     */
+    @GET
+    @Path("history")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getHistory(@QueryParam("linearId") String linearId,
+                               @QueryParam("page") @DefaultValue("1") int page,
+                               @QueryParam("pageSize") @DefaultValue("100") int pageSize) {
+        if (linearId == null) {
+            if (page < 1 || pageSize < 1) {
+                return Response.status(BAD_REQUEST).entity("Query parameters 'page' and 'pageSize' must be positive.\n").build();
+            }
+            final IOUQuery query = IOUQuery.byHospital(Vault.StateStatus.ALL, warmup.getLegalName().toString()).withPage(page, pageSize);
+            return respond(() -> queryCache.query(query).getStates());
+        }
+
+        final UUID id;
         try {
-            final SignedTransaction signedTx = rpcOps
-                    .startTrackedFlowDynamic(IssueFlow.Initiator.class, iouName, iouAge, iouGender, iouHeight, iouWeight, iouBloodGroup, iouDiagnosis, iouMedicine, otherParty)
-                    .getReturnValue()
-                    .get();
+            id = UUID.fromString(linearId);
+        } catch (IllegalArgumentException e) {
+            return Response.status(BAD_REQUEST).entity("Query parameter 'linearId' has wrong format.\n").build();
+        }
+        final QueryCriteria current = new QueryCriteria.LinearStateQueryCriteria(
+                null, ImmutableList.of(id), null, Vault.StateStatus.UNCONSUMED);
+        return respond(() -> ImmutableMap.of(
+                "current", rpcOps.vaultQueryByCriteria(current, IOUState.class).getStates(),
+                "archived", archive.lookup(id)));
+    }
 
-            final String msg = String.format("Transaction id %s committed to ledger.\n", signedTx.getId());
-            return Response.status(CREATED).entity(msg).build();
+    /**
+     * Reports the size and hit ratio of the vault query cache and of its projected pages, and how long each took to
+     * load from the node.
+     */
+    @GET
+    @Path("cache-stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Object> getCacheStats() {
+        return queryCache.stats();
+    }
 
-        } catch (Throwable ex) {
-            final String msg = ex.getMessage();
-            logger.error(ex.getMessage(), ex);
-            return Response.status(BAD_REQUEST).entity(msg).build();
+    /**
+     * Reports the health of each pooled RPC connection and the latency of each RPC method. Empty unless the API was
+     * started with a connection pool (see [RpcConnectionPool.fromSystemProperties]).
+     */
+    @GET
+    @Path("rpc-stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Object> getRpcStats() {
+        return pool == null ? ImmutableMap.of() : pool.metrics();
+    }
+
+    /**
+     * Counts unconsumed IOUs per bucket of `bucketWidth` values of `column` (age, height or weight), optionally
+     * restricted to one gender and/or blood group. Bucket i covers [i * bucketWidth, (i + 1) * bucketWidth).
+     */
+    @GET
+    @Path("analytics/histogram")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getHistogram(@QueryParam("column") String column,
+                                 @QueryParam("bucketWidth") @DefaultValue("10") int bucketWidth,
+                                 @QueryParam("gender") String gender,
+                                 @QueryParam("bloodGroup") String bloodGroup) {
+        final ColumnarIOUStore.Column parsed = parseColumn(column);
+        if (parsed == null || bucketWidth < 1) {
+            return Response.status(BAD_REQUEST).entity("Query parameter 'column' must be age, height or weight, and 'bucketWidth' positive.\n").build();
         }
+        return Response.ok(ImmutableMap.of("bucketWidth", bucketWidth,
+                "counts", analytics.histogram(parsed, bucketWidth, ColumnarIOUStore.Filter.by(gender, bloodGroup)))).build();
     }
-	
-	/**
-     * Displays all IOU states that are created by Party.
+
+    /**
+     * Returns the requested percentiles (`p`, repeatable, 0 to 100) of `column` over unconsumed IOUs, optionally
+     * restricted to one gender and/or blood group.
      */
     @GET
-    @Path("my-ious")
+    @Path("analytics/percentiles")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getPercentiles(@QueryParam("column") String column,
+                                   @QueryParam("p") List<Double> percentiles,
+                                   @QueryParam("gender") String gender,
+                                   @QueryParam("bloodGroup") String bloodGroup) {
+        final ColumnarIOUStore.Column parsed = parseColumn(column);
+        if (parsed == null || percentiles.isEmpty() || percentiles.stream().anyMatch(p -> p < 0 || p > 100)) {
+            return Response.status(BAD_REQUEST).entity("Query parameter 'column' must be age, height or weight, and 'p' between 0 and 100.\n").build();
+        }
+        final double[] ps = percentiles.stream().mapToDouble(Double::doubleValue).toArray();
+        return Response.ok(ImmutableMap.of("percentiles", percentiles,
+                "values", analytics.percentiles(parsed, ps, ColumnarIOUStore.Filter.by(gender, bloodGroup)))).build();
+    }
+
+    /**
+     * Returns the count and mean age, height and weight of unconsumed IOUs per blood group, optionally for one gender.
+     */
+    @GET
+    @Path("analytics/blood-groups")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Map<String, Object>> getBloodGroupSummary(@QueryParam("gender") String gender) {
+        return analytics.byBloodGroup(ColumnarIOUStore.Filter.by(gender, null));
+    }
+
+    /**
+     * Reports the size and estimated memory use of the analytics store.
+     */
+    @GET
+    @Path("analytics/stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Object> getAnalyticsStats() {
+        return analytics.stats();
+    }
+
+    private static ColumnarIOUStore.Column parseColumn(String column) {
+        try {
+            return column == null ? null : ColumnarIOUStore.Column.valueOf(column.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reports the memory use and false positive rate of the node's duplicate-patient filter.
+     */
+    @GET
+    @Path("duplicate-stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getDuplicateStats() {
+        return respond(() -> await(rpcOps.startFlowDynamic(DuplicatePatientStatsFlow.class)));
+    }
+
+    /**
+     * Reports the sizes and write times of the checkpoints the node's flows have written, by flow and suspension point.
+     * Only filled in when the node runs with `carechain.checkpoint.instrument=true`.
+     */
+    @GET
+    @Path("checkpoint-stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getCheckpointStats() {
+        return respond(() -> await(rpcOps.startFlowDynamic(CheckpointStatsFlow.class)));
+    }
+
+    /**
+     * Reports how many IOU rows the node's vault holds, how large they and their indexes are, and how fast IOUs are
+     * being issued and consumed. The node keeps these figures current, so polling this is cheap.
+     */
+    @GET
+    @Path("vault-stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getVaultStats() {
+        return respond(() -> await(rpcOps.startFlowDynamic(VaultStatsFlow.class)));
+    }
+
+    /**
+     * Reports whether the API has finished warming up: 200 once it is ready for traffic, 503 until then. The body
+     * gives the warm-up progress either way.
+     */
+    @GET
+    @Path("health")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getMyIOUs() throws NoSuchFieldException {
-        QueryCriteria generalCriteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.ALL);
-        Field hospital = IOUSchemaV1.PersistentIOU.class.getDeclaredField("hospital");
-        CriteriaExpression hospitalIndex = Builder.equal(hospital, myLegalName.toString());
-        QueryCriteria hospitalCriteria = new QueryCriteria.VaultCustomQueryCriteria(hospitalIndex);
-        QueryCriteria criteria = generalCriteria.and(hospitalCriteria);
-        List<StateAndRef<IOUState>> results = rpcOps.vaultQueryByCriteria(criteria,IOUState.class).getStates();
-        return Response.status(OK).entity(results).build();
+    public Response getHealth() {
+        return Response.status(warmup.isReady() ? OK : SERVICE_UNAVAILABLE).entity(warmup.report()).build();
     }
 }
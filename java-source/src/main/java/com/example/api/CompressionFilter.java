@@ -0,0 +1,92 @@
+package com.example.api;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses JSON responses with gzip or deflate when the client advertises support for it.
+ *
+ * Small bodies are sent as-is, since the compression headers would cost more than they save. Responses that already
+ * carry a Content-Encoding (e.g. precompressed static assets) are left alone.
+ */
+public class CompressionFilter implements ContainerRequestFilter, WriterInterceptor {
+    static final int MIN_COMPRESSED_SIZE = 1024;
+
+    private static final String ENCODING_PROPERTY = CompressionFilter.class.getName() + ".encoding";
+    private static final String GZIP = "gzip";
+    private static final String DEFLATE = "deflate";
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        final String accepted = requestContext.getHeaderString(HttpHeaders.ACCEPT_ENCODING);
+        final String encoding = preferredEncoding(accepted);
+        if (encoding != null) {
+            requestContext.setProperty(ENCODING_PROPERTY, encoding);
+        }
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        final Object encoding = context.getProperty(ENCODING_PROPERTY);
+        if (encoding == null
+                || !MediaType.APPLICATION_JSON_TYPE.isCompatible(context.getMediaType())
+                || context.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)) {
+            context.proceed();
+            return;
+        }
+
+        // Serialise into a buffer first so that we know whether the body is worth compressing.
+        final OutputStream original = context.getOutputStream();
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        context.setOutputStream(buffer);
+        context.proceed();
+
+        context.getHeaders().add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (buffer.size() < MIN_COMPRESSED_SIZE) {
+            buffer.writeTo(original);
+            return;
+        }
+
+        context.getHeaders().putSingle(HttpHeaders.CONTENT_ENCODING, encoding);
+        context.getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+        final DeflaterOutputStream compressed = GZIP.equals(encoding)
+                ? new GZIPOutputStream(original)
+                : new DeflaterOutputStream(original);
+        buffer.writeTo(compressed);
+        compressed.finish();
+    }
+
+    /**
+     * Picks gzip over deflate from an Accept-Encoding header, ignoring codings the client has refused with q=0.
+     */
+    static String preferredEncoding(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        boolean deflate = false;
+        for (String part : acceptEncoding.toLowerCase(Locale.ROOT).split(",")) {
+            final String[] tokens = part.trim().split(";");
+            final String coding = tokens[0].trim();
+            if (tokens.length > 1 && tokens[1].trim().matches("q=0(\\.0*)?")) {
+                continue;
+            }
+            if (coding.equals(GZIP) || coding.equals("*")) {
+                return GZIP;
+            }
+            if (coding.equals(DEFLATE)) {
+                deflate = true;
+            }
+        }
+        return deflate ? DEFLATE : null;
+    }
+}
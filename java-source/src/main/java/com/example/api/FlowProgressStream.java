@@ -0,0 +1,152 @@
+package com.example.api;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import kotlin.Pair;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.messaging.FlowProgressHandle;
+import net.corda.core.transactions.SignedTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Subscription;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Streams the progress of a tracked IssueFlow to an HTTP client as server-sent events.
+ *
+ * The client first receives a `steps` event with the full step tree, including the child trackers of
+ * CollectSignaturesFlow and FinalityFlow, then a `step` event each time the flow moves, and finally a `done` or
+ * `error` event. Comment lines are sent while the flow is idle so that a client that has gone away is noticed by a
+ * failed write, at which point all of the RPC-side observables are released.
+ *
+ * Each open stream holds a webserver thread until its flow ends or its client is found to have gone, so at most
+ * [MAX_STREAMS] are open at once. Further requests are turned away before their flow is started.
+ */
+public class FlowProgressStream implements StreamingOutput {
+    public static final String MEDIA_TYPE = "text/event-stream";
+    static final long KEEP_ALIVE_SECONDS = 15;
+    static final int MAX_STREAMS = Integer.getInteger("carechain.progress.maxStreams", 32);
+
+    static private final Logger logger = LoggerFactory.getLogger(FlowProgressStream.class);
+    private static final String END_OF_STREAM = "";
+    private static final Semaphore slots = new Semaphore(MAX_STREAMS);
+
+    private final FlowProgressHandle<SignedTransaction> handle;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+    private volatile List<Pair<Integer, String>> steps = new ArrayList<>();
+
+    private FlowProgressStream(FlowProgressHandle<SignedTransaction> handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * Starts a flow with [start] and returns a stream of its progress, or returns null without starting the flow if
+     * [MAX_STREAMS] streams are already open. The stream's slot is given back once it has been written.
+     */
+    public static FlowProgressStream open(Supplier<FlowProgressHandle<SignedTransaction>> start) {
+        if (!slots.tryAcquire()) return null;
+        try {
+            return new FlowProgressStream(start.get());
+        } catch (RuntimeException e) {
+            slots.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        final List<Subscription> subscriptions = new ArrayList<>();
+        try {
+            subscribe(subscriptions);
+            while (true) {
+                final String event = events.poll(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+                if (END_OF_STREAM.equals(event)) break;
+                output.write((event == null ? ": keep-alive\n\n" : event).getBytes(StandardCharsets.UTF_8));
+                output.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.info("Client stopped listening to the progress of flow {}.", handle.getId());
+            throw e;
+        } finally {
+            subscriptions.forEach(Subscription::unsubscribe);
+            handle.close();
+            slots.release();
+        }
+    }
+
+    private void subscribe(List<Subscription> subscriptions) {
+        final DataFeed<List<Pair<Integer, String>>, List<Pair<Integer, String>>> treeFeed = handle.getStepsTreeFeed();
+        final DataFeed<Integer, Integer> indexFeed = handle.getStepsTreeIndexFeed();
+        if (treeFeed != null && indexFeed != null) {
+            onSteps(treeFeed.getSnapshot());
+            onStep(indexFeed.getSnapshot());
+            subscriptions.add(treeFeed.getUpdates().subscribe(this::onSteps, this::onStreamError));
+            subscriptions.add(indexFeed.getUpdates().subscribe(this::onStep, this::onStreamError));
+        } else {
+            // Without a step tree we can still pass on the label of each step as the flow reaches it.
+            subscriptions.add(handle.getProgress().subscribe(
+                    label -> emit("step", ImmutableMap.of("label", label)), this::onStreamError));
+        }
+
+        handle.getReturnValue().then(future -> {
+            try {
+                emit("done", ImmutableMap.of("transactionId", future.get().getId().toString()));
+            } catch (Exception e) {
+                final Throwable cause = e.getCause() == null ? e : e.getCause();
+                emit("error", ImmutableMap.of("message", String.valueOf(cause.getMessage())));
+            }
+            events.add(END_OF_STREAM);
+            return null;
+        });
+    }
+
+    private void onSteps(List<Pair<Integer, String>> tree) {
+        steps = tree;
+        emit("steps", tree.stream()
+                .map(step -> ImmutableMap.of("depth", step.getFirst(), "label", step.getSecond()))
+                .collect(Collectors.toList()));
+    }
+
+    private void onStep(Integer index) {
+        final List<Pair<Integer, String>> tree = steps;
+        if (index == null || index < 0 || index >= tree.size()) return;
+        final Pair<Integer, String> step = tree.get(index);
+        emit("step", ImmutableMap.<String, Object>of("index", index, "depth", step.getFirst(), "label", step.getSecond()));
+    }
+
+    private void onStreamError(Throwable error) {
+        logger.warn("Progress updates for flow {} failed.", handle.getId(), error);
+    }
+
+    private void emit(String name, Object data) {
+        try {
+            events.add("event: " + name + "\ndata: " + mapper.writeValueAsString(data) + "\n\n");
+        } catch (JsonProcessingException e) {
+            logger.error("Cannot serialise a progress event.", e);
+        }
+    }
+
+    /**
+     * Headers that stop caches and proxies from buffering the stream.
+     */
+    public static Map<String, String> headers() {
+        return ImmutableMap.of("Cache-Control", "no-cache", "X-Accel-Buffering", "no");
+    }
+}
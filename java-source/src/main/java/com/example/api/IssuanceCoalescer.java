@@ -0,0 +1,207 @@
+package com.example.api;
+
+import com.example.flow.BatchIssueFlow;
+import com.example.flow.IssueFlow;
+import com.example.service.DuplicatePatientService;
+import com.example.state.PatientRecord;
+import com.example.trace.SpanLog;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.transactions.SignedTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static javax.ws.rs.core.Response.Status.CONFLICT;
+import static javax.ws.rs.core.Response.Status.CREATED;
+import static javax.ws.rs.core.Response.Status.INTERNAL_SERVER_ERROR;
+import static javax.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE;
+
+/**
+ * Coalesces concurrent /create-iou requests for the same counterparty into one BatchIssueFlow.
+ *
+ * The first request for a counterparty opens a batch. The batch is issued when the window closes or when it reaches
+ * the maximum size, whichever comes first. Each waiting request is then answered with the shared transaction id
+ * and the ref of its own output. Coalescing is off unless `carechain.coalesce.windowMillis` is set.
+ *
+ * A batch is one flow, so it has one correlation ID: that of the request which opened it. Every request in the batch
+ * is answered with it, and the IDs of the requests that joined later are logged against it.
+ */
+public class IssuanceCoalescer {
+    static final long WINDOW_MILLIS = Long.getLong("carechain.coalesce.windowMillis", 0);
+    static final int MAX_BATCH = Integer.getInteger("carechain.coalesce.maxBatch", 50);
+
+    /** The response header carrying the ref of the state created for a request. */
+    public static final String STATE_REF_HEADER = "X-State-Ref";
+
+    static private final Logger logger = LoggerFactory.getLogger(IssuanceCoalescer.class);
+
+    private final CordaRPCOps rpcOps;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "issuance-coalescer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<Party, Batch> openBatches = new HashMap<>();
+
+    public IssuanceCoalescer(CordaRPCOps rpcOps) {
+        this.rpcOps = rpcOps;
+    }
+
+    public static boolean isEnabled() {
+        return WINDOW_MILLIS > 0;
+    }
+
+    private static class Batch {
+        private final Party otherParty;
+        private final String correlationId;
+        private final List<PatientRecord> records = new ArrayList<>();
+        private final List<CompletableFuture<Response>> responses = new ArrayList<>();
+        private final Set<String> keys = new HashSet<>();
+
+        private Batch(Party otherParty, String correlationId) {
+            this.otherParty = otherParty;
+            this.correlationId = correlationId;
+        }
+
+        private void fail(Response response) {
+            responses.forEach(waiting -> waiting.complete(response));
+        }
+    }
+
+    /**
+     * Adds [record] to the open batch for [otherParty] and waits up to [timeoutSeconds] for the batch to be issued.
+     * [requestCorrelationId] is the ID the client sent, if any. The response carries the batch's.
+     */
+    public Response submit(PatientRecord record, Party otherParty, String requestCorrelationId, long timeoutSeconds) {
+        final String correlationId = requestCorrelationId == null ? SpanLog.newCorrelationId() : requestCorrelationId;
+        final CompletableFuture<Response> response = new CompletableFuture<>();
+        final Batch batch;
+        Batch full = null;
+        synchronized (this) {
+            Batch open = openBatches.get(otherParty);
+            if (open == null) {
+                final Batch opened = new Batch(otherParty, correlationId);
+                openBatches.put(otherParty, opened);
+                timer.schedule(() -> windowClosed(opened), WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+                open = opened;
+            }
+            batch = open;
+            // Every record in a batch is issued by us, so the patient and record identify a duplicate.
+            if (!batch.keys.add(DuplicatePatientService.key("", otherParty.getName().toString(),
+                    record.getName(), record.getGender(), record.getBloodGroup()))) {
+                return Response.status(CONFLICT)
+                        .entity("An IOU for " + record.getName() + " is already being issued.\n")
+                        .header(SpanLog.CORRELATION_ID_HEADER, correlationId).build();
+            }
+            batch.records.add(record);
+            batch.responses.add(response);
+            if (batch.records.size() >= MAX_BATCH) {
+                openBatches.remove(otherParty);
+                full = batch;
+            }
+        }
+        if (!batch.correlationId.equals(correlationId)) {
+            logger.info("[{}] create-iou for {} joined batch [{}].", correlationId, record.getName(), batch.correlationId);
+        }
+        if (full != null) {
+            start(full);
+        }
+        Response.ResponseBuilder answer;
+        try {
+            answer = Response.fromResponse(response.get(timeoutSeconds, TimeUnit.SECONDS));
+        } catch (TimeoutException e) {
+            answer = Response.status(SERVICE_UNAVAILABLE).entity("Request timed out waiting for the node.\n");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            answer = Response.status(SERVICE_UNAVAILABLE).entity("Interrupted while waiting for the node.\n");
+        } catch (ExecutionException e) {
+            answer = Response.status(INTERNAL_SERVER_ERROR).entity(e.getMessage());
+        }
+        return answer.header(SpanLog.CORRELATION_ID_HEADER, batch.correlationId).build();
+    }
+
+    private void windowClosed(Batch batch) {
+        synchronized (this) {
+            // The batch may already have been issued because it filled up.
+            if (openBatches.get(batch.otherParty) != batch) return;
+            openBatches.remove(batch.otherParty);
+        }
+        start(batch);
+    }
+
+    /**
+     * Starts [batch] on the coalescer's own thread, so that a full batch does not hold up the request that filled it.
+     */
+    private void start(Batch batch) {
+        timer.execute(() -> {
+            try {
+                issue(batch);
+            } catch (Exception e) {
+                logger.error(e.getMessage(), e);
+                batch.fail(Response.status(INTERNAL_SERVER_ERROR).entity(e.getMessage()).build());
+            }
+        });
+    }
+
+    private void issue(Batch batch) {
+        final CordaFuture<SignedTransaction> result;
+        if (batch.records.size() == 1) {
+            final PatientRecord r = batch.records.get(0);
+            result = rpcOps.startFlowDynamic(IssueFlow.Initiator.class, r.getName(), r.getAge(), r.getGender(), r.getHeight(),
+                    r.getWeight(), r.getBloodGroup(), r.getDiagnosis(), r.getMedicine(), batch.otherParty,
+                    batch.correlationId).getReturnValue();
+        } else {
+            result = rpcOps.startFlowDynamic(BatchIssueFlow.Initiator.class, batch.records, batch.otherParty,
+                    batch.correlationId).getReturnValue();
+        }
+
+        result.then(future -> {
+            try {
+                final SignedTransaction signedTx = future.get();
+                final String msg = String.format("Transaction id %s committed to ledger.\n", signedTx.getId());
+                for (int i = 0; i < batch.responses.size(); i++) {
+                    batch.responses.get(i).complete(Response.status(CREATED).entity(msg)
+                            .header(STATE_REF_HEADER, new StateRef(signedTx.getId(), i)).build());
+                }
+            } catch (Throwable ex) {
+                final Throwable cause = ex instanceof ExecutionException && ex.getCause() != null ? ex.getCause() : ex;
+                final int failed = batch.records.size() > 1 ? BatchIssueFlow.failedRecord(cause) : -1;
+                if (failed >= 0 && failed < batch.records.size()) {
+                    // One bad record (a duplicate, say) sinks the whole transaction; fail just that one and issue the
+                    // rest without it. Any other failure would hit every record alike, so the batch fails as a whole.
+                    logger.warn("Record {} of a batch of {} failed, issuing the rest: {}", failed, batch.records.size(), cause.getMessage());
+                    batch.responses.get(failed).complete(Response.status(BAD_REQUEST)
+                            .entity(cause.getMessage().replaceFirst("^Record \\d+: ", "")).build());
+                    final Batch rest = new Batch(batch.otherParty, batch.correlationId);
+                    for (int i = 0; i < batch.records.size(); i++) {
+                        if (i == failed) continue;
+                        rest.records.add(batch.records.get(i));
+                        rest.responses.add(batch.responses.get(i));
+                    }
+                    start(rest);
+                    return null;
+                }
+                logger.error("[" + batch.correlationId + "] " + cause.getMessage(), cause);
+                batch.fail(Response.status(BAD_REQUEST).entity(cause.getMessage()).build());
+            }
+            return null;
+        });
+    }
+}
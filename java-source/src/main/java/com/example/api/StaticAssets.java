@@ -0,0 +1,143 @@
+package com.example.api;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.core.*;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+import static javax.ws.rs.core.Response.Status.NOT_FOUND;
+
+/**
+ * Serves the static web directories registered by the plugin with cache headers and gzip variants.
+ *
+ * The webserver's own /web servlet cannot be configured from a plugin, so cacheable assets are served from
+ * /api/assets/{dir}/{path} instead. Each asset is read once and kept in memory together with its content hash, which
+ * doubles as the ETag. If the build produced a precompressed `.gz` sibling it is used as-is, otherwise the asset is
+ * compressed on first use.
+ *
+ * Asset URLs carry no version, and a release changes the scripts behind the same URLs, so every asset is sent with
+ * `no-cache`. Browsers keep their copy but revalidate it, which costs a 304 until the content changes. The gzip and
+ * identity representations have different ETags, so a cache can never answer for one with the other.
+ */
+@Path("assets")
+public class StaticAssets {
+
+    private static final Map<String, String> MEDIA_TYPES = ImmutableMap.<String, String>builder()
+            .put("html", MediaType.TEXT_HTML)
+            .put("js", "application/javascript")
+            .put("css", "text/css")
+            .put("json", MediaType.APPLICATION_JSON)
+            .put("svg", MediaType.APPLICATION_SVG_XML)
+            .put("png", "image/png")
+            .put("ico", "image/x-icon")
+            .build();
+
+    private final Map<String, String> staticServeDirs;
+    private final Map<String, Asset> assets = new ConcurrentHashMap<>();
+
+    public StaticAssets(Map<String, String> staticServeDirs) {
+        this.staticServeDirs = staticServeDirs;
+    }
+
+    @GET
+    @Path("{dir}/{path: .+}")
+    public Response getAsset(@PathParam("dir") String dir, @PathParam("path") String path,
+                             @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding,
+                             @Context Request request) {
+        final String base = staticServeDirs.get(dir);
+        if (base == null || path.contains("..")) {
+            return Response.status(NOT_FOUND).build();
+        }
+        // Misses are not cached, so requests for made-up paths cannot grow the map.
+        final String key = dir + "/" + path;
+        Asset found = assets.get(key);
+        if (found == null) {
+            found = Asset.load(base, path);
+            if (found == null) {
+                return Response.status(NOT_FOUND).build();
+            }
+            assets.put(key, found);
+        }
+
+        final CacheControl cacheControl = new CacheControl();
+        cacheControl.setNoCache(true);
+
+        final boolean gzip = "gzip".equals(CompressionFilter.preferredEncoding(acceptEncoding));
+        final EntityTag tag = gzip ? found.gzipTag : found.tag;
+        final Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+        if (notModified != null) {
+            return notModified.cacheControl(cacheControl).header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING).build();
+        }
+
+        final Response.ResponseBuilder response = Response.ok(gzip ? found.gzipped : found.content, found.mediaType)
+                .tag(tag)
+                .cacheControl(cacheControl)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return response.build();
+    }
+
+    private static class Asset {
+        private final byte[] content;
+        private final byte[] gzipped;
+        private final String mediaType;
+        private final EntityTag tag;
+        private final EntityTag gzipTag;
+
+        private Asset(byte[] content, byte[] gzipped, String mediaType) {
+            this.content = content;
+            this.gzipped = gzipped;
+            this.mediaType = mediaType;
+            final String hash = Hashing.sha256().hashBytes(content).toString().substring(0, 32);
+            this.tag = new EntityTag(hash);
+            this.gzipTag = new EntityTag(hash + "-gzip");
+        }
+
+        private static Asset load(String base, String path) {
+            final String root = base.endsWith("/") ? base : base + "/";
+            try {
+                final byte[] content = read(new URL(root + path));
+                byte[] gzipped;
+                try {
+                    gzipped = read(new URL(root + path + ".gz"));
+                } catch (FileNotFoundException e) {
+                    gzipped = gzip(content);
+                }
+                final String extension = path.substring(path.lastIndexOf('.') + 1);
+                return new Asset(content, gzipped,
+                        MEDIA_TYPES.getOrDefault(extension, MediaType.APPLICATION_OCTET_STREAM));
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        private static byte[] read(URL url) throws IOException {
+            try (InputStream in = url.openStream()) {
+                return ByteStreams.toByteArray(in);
+            }
+        }
+
+        private static byte[] gzip(byte[] content) throws IOException {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 2);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(content);
+            }
+            return out.toByteArray();
+        }
+    }
+}
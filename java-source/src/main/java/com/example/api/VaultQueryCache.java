@@ -0,0 +1,217 @@
+package com.example.api;
+
+import com.example.flow.ProjectionQueryFlow;
+import com.example.query.IOUProjection;
+import com.example.query.IOUQuery;
+import com.example.state.IOUState;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Observable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches vault query results in the webserver so repeated polls do not go back to the node.
+ *
+ * Entries are dropped as soon as a vault update touches a state their filters could match, so the cache never serves
+ * data the node would not. The TTL is only a safety net for updates missed while the RPC connection was down. The
+ * cache is bounded by an estimate of the memory held by the cached pages.
+ *
+ * Pages read by [ProjectionQueryFlow] are cached alongside, keyed by their [IOUQuery] and columns and dropped by the
+ * same rule. The time taken to load each kind of page is recorded, so the two paths can be compared on a live node.
+ */
+public class VaultQueryCache {
+    /** A rough upper bound on the heap used by one deserialised [StateAndRef] of an [IOUState]. */
+    static final int ESTIMATED_STATE_BYTES = 2048;
+    /** A rough upper bound on the heap used by one value in a cached [IOUProjection]. */
+    static final int ESTIMATED_VALUE_BYTES = 64;
+
+    static final long MAX_BYTES = Long.getLong("carechain.queryCache.maxBytes", 64L * 1024 * 1024);
+    static final long TTL_SECONDS = Long.getLong("carechain.queryCache.ttlSeconds", 300);
+
+    static private final Logger logger = LoggerFactory.getLogger(VaultQueryCache.class);
+
+    private final CordaRPCOps rpcOps;
+    private final Cache<IOUQuery, Vault.Page<IOUState>> cache;
+    private final Cache<Projection, IOUProjection> projections;
+    // Bumped on every vault update, so that a query racing with an update does not cache a stale page.
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong queryLoads = new AtomicLong();
+    private final AtomicLong queryNanos = new AtomicLong();
+    private final AtomicLong projectionLoads = new AtomicLong();
+    private final AtomicLong projectionNanos = new AtomicLong();
+
+    /**
+     * The cache key of a projected page: the query it answers and the columns it holds.
+     */
+    private static final class Projection {
+        private final IOUQuery query;
+        private final List<String> columns;
+
+        private Projection(IOUQuery query, List<String> columns) {
+            this.query = query;
+            this.columns = columns;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Projection)) return false;
+            Projection that = (Projection) o;
+            return query.equals(that.query) && columns.equals(that.columns);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(query, columns);
+        }
+    }
+
+    public VaultQueryCache(CordaRPCOps rpcOps, Observable<Vault.Update<IOUState>> updates) {
+        this(rpcOps, updates, MAX_BYTES, TTL_SECONDS);
+    }
+
+    VaultQueryCache(CordaRPCOps rpcOps, Observable<Vault.Update<IOUState>> updates, long maxBytes, long ttlSeconds) {
+        this.rpcOps = rpcOps;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((IOUQuery query, Vault.Page<IOUState> page) ->
+                        (int) Math.min(Integer.MAX_VALUE, (long) page.getStates().size() * ESTIMATED_STATE_BYTES))
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        this.projections = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Projection key, IOUProjection page) ->
+                        (int) Math.min(Integer.MAX_VALUE, (long) page.getRows().size() * key.columns.size() * ESTIMATED_VALUE_BYTES))
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        updates.subscribe(this::invalidate, error -> {
+            logger.error("Vault update stream failed, disabling the query cache.", error);
+            cache.invalidateAll();
+            projections.invalidateAll();
+        });
+    }
+
+    /**
+     * Returns the page for [query], running it against the node only if no valid cached copy exists.
+     */
+    public Vault.Page<IOUState> query(IOUQuery query) {
+        final Vault.Page<IOUState> cached = cache.getIfPresent(query);
+        if (cached != null) {
+            return cached;
+        }
+        final long before = generation.get();
+        final long started = System.nanoTime();
+        final Vault.Page<IOUState> page;
+        if (query.toSort() != null) {
+            page = rpcOps.vaultQueryBy(query.toCriteria(), query.isPaged() ? query.toPageSpecification()
+                    : new PageSpecification(), query.toSort(), IOUState.class);
+        } else {
+            page = query.isPaged()
+                    ? rpcOps.vaultQueryByWithPagingSpec(IOUState.class, query.toCriteria(), query.toPageSpecification())
+                    : rpcOps.vaultQueryByCriteria(query.toCriteria(), IOUState.class);
+        }
+        queryNanos.addAndGet(System.nanoTime() - started);
+        queryLoads.incrementAndGet();
+        if (generation.get() == before) {
+            cache.put(query, page);
+        }
+        return page;
+    }
+
+    /**
+     * Returns the page for [query] in [columns], read by [ProjectionQueryFlow] only if no valid cached copy exists.
+     * [query] must be paged and newest first, which is the only order the projection reads in. Waits up to
+     * [Api.TIMEOUT_SECONDS] for the flow.
+     */
+    public IOUProjection project(IOUQuery query, List<String> columns)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!query.isPaged() || !query.isNewestFirst()) {
+            throw new IllegalArgumentException("Projections are read a page at a time, newest first, got " + query);
+        }
+        final Projection key = new Projection(query, columns);
+        final IOUProjection cached = projections.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        final long before = generation.get();
+        final long started = System.nanoTime();
+        final IOUProjection page = rpcOps.startFlowDynamic(ProjectionQueryFlow.class, columns, query.getStatus(),
+                query.getHospital(), query.getNameFilter(), query.getPageNumber(), query.getPageSize())
+                .getReturnValue().get(Api.TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        projectionNanos.addAndGet(System.nanoTime() - started);
+        projectionLoads.incrementAndGet();
+        if (generation.get() == before) {
+            projections.put(key, page);
+        }
+        return page;
+    }
+
+    /**
+     * Drops the entries whose filters could match a state produced or consumed by [update].
+     */
+    void invalidate(Vault.Update<IOUState> update) {
+        generation.incrementAndGet();
+        cache.asMap().keySet().removeIf(query -> affects(update, query));
+        projections.asMap().keySet().removeIf(key -> affects(update, key.query));
+    }
+
+    private static boolean affects(Vault.Update<IOUState> update, IOUQuery query) {
+        for (StateAndRef<IOUState> produced : update.getProduced()) {
+            if (query.couldMatch(produced.getState().getData(), false)) return true;
+        }
+        for (StateAndRef<IOUState> consumed : update.getConsumed()) {
+            if (query.couldMatch(consumed.getState().getData(), true)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reports the size and hit ratio of each cache, and the mean time a miss took to load from the node.
+     */
+    public Map<String, Object> stats() {
+        final CacheStats stats = cache.stats();
+        final long states = cache.asMap().values().stream().mapToLong(page -> page.getStates().size()).sum();
+        final CacheStats projectionStats = projections.stats();
+        final long values = projections.asMap().entrySet().stream()
+                .mapToLong(entry -> (long) entry.getValue().getRows().size() * entry.getKey().columns.size()).sum();
+        return ImmutableMap.<String, Object>builder()
+                .put("entries", cache.size())
+                .put("estimatedBytes", states * ESTIMATED_STATE_BYTES)
+                .put("hitCount", stats.hitCount())
+                .put("missCount", stats.missCount())
+                .put("hitRatio", stats.hitRate())
+                .put("evictionCount", stats.evictionCount())
+                .put("meanLoadMicros", meanMicros(queryNanos.get(), queryLoads.get()))
+                .put("projections", ImmutableMap.<String, Object>builder()
+                        .put("entries", projections.size())
+                        .put("estimatedBytes", values * ESTIMATED_VALUE_BYTES)
+                        .put("hitCount", projectionStats.hitCount())
+                        .put("missCount", projectionStats.missCount())
+                        .put("hitRatio", projectionStats.hitRate())
+                        .put("evictionCount", projectionStats.evictionCount())
+                        .put("meanLoadMicros", meanMicros(projectionNanos.get(), projectionLoads.get()))
+                        .build())
+                .build();
+    }
+
+    private static long meanMicros(long nanos, long loads) {
+        return loads == 0 ? 0 : nanos / loads / 1000;
+    }
+}
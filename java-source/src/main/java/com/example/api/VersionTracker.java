@@ -0,0 +1,65 @@
+package com.example.api;
+
+import com.example.state.IOUState;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import rx.Observable;
+
+import javax.ws.rs.core.EntityTag;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cheap version tokens for the read end-points.
+ *
+ * Rather than hashing the response body on every poll, we count the vault and network map updates pushed to us over
+ * RPC. Any update bumps the relevant sequence, so a client holding the current tag can be answered with a 304 without
+ * touching the vault. The epoch guards against a restarted webserver handing out tags that collide with old ones.
+ */
+public class VersionTracker {
+    private final long epoch = System.currentTimeMillis();
+    private final AtomicLong vaultSequence = new AtomicLong();
+    private final AtomicLong networkMapSequence = new AtomicLong();
+    private final Observable<Vault.Update<IOUState>> vaultUpdates;
+
+    public VersionTracker(CordaRPCOps rpcOps) {
+        // We only want the update stream, so the snapshot is limited to a single state.
+        this.vaultUpdates = rpcOps.vaultTrackByWithPagingSpec(IOUState.class,
+                new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.ALL), new PageSpecification(1, 1))
+                .getUpdates()
+                .share();
+        vaultUpdates.subscribe(update -> vaultSequence.incrementAndGet());
+        rpcOps.networkMapFeed()
+                .getUpdates()
+                .subscribe(change -> networkMapSequence.incrementAndGet());
+    }
+
+    /**
+     * The IOU vault updates, shared so that other components do not need their own RPC subscription.
+     */
+    public Observable<Vault.Update<IOUState>> getVaultUpdates() {
+        return vaultUpdates;
+    }
+
+    /**
+     * The current version of the IOU states held in the vault.
+     */
+    public EntityTag vaultTag() {
+        return new EntityTag(epoch + "-v" + vaultSequence.get());
+    }
+
+    /**
+     * The current version of the network map as seen by this node.
+     */
+    public EntityTag networkMapTag() {
+        return new EntityTag(epoch + "-n" + networkMapSequence.get());
+    }
+
+    /**
+     * The current version of a response built from both the IOU states and the network map.
+     */
+    public EntityTag combinedTag() {
+        return new EntityTag(epoch + "-v" + vaultSequence.get() + "-n" + networkMapSequence.get());
+    }
+}
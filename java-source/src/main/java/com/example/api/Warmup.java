@@ -0,0 +1,190 @@
+package com.example.api;
+
+import com.example.query.IOUQuery;
+import com.example.state.IOUState;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import net.corda.client.jackson.JacksonSupport;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.NodeInfo;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.QueryCriteria;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Brings the API and the node up to speed after a restart, before the API reports itself ready.
+ *
+ * Our identity, the network map, the notaries and every peer's identity are resolved in parallel. The query cache
+ * is then primed with the first page of /ious/page and /my-ious/page, which /dashboard also serves, and of /history.
+ * The same paged queries are then run in rounds as probes, bypassing the cache and rendering each result with the
+ * webserver's JSON mapper. This gets the node's query compilation, JIT and class loading out of the way on both
+ * sides. The API is ready once the p99 latency of a round is within [TOLERANCE] of the round before it, or after
+ * [MAX_ROUNDS] rounds or [MAX_SECONDS] at most.
+ *
+ * If any of this fails the API is not declared ready: /health keeps answering 503 and reports the failure.
+ */
+class Warmup {
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("carechain.warmup.enabled", "true"));
+    static final int MAX_ROUNDS = Integer.getInteger("carechain.warmup.rounds", 10);
+    static final int SAMPLES = Integer.getInteger("carechain.warmup.samples", 30);
+    static final double TOLERANCE = Double.parseDouble(System.getProperty("carechain.warmup.tolerance", "0.2"));
+    static final long MAX_SECONDS = Long.getLong("carechain.warmup.maxSeconds", 120);
+    // The page size /history uses when none is asked for.
+    static final int HISTORY_PAGE_SIZE = 100;
+
+    enum Status { STARTING, WARMING, READY, FAILED }
+
+    static private final Logger logger = LoggerFactory.getLogger(Warmup.class);
+
+    private final CordaRPCOps rpcOps;
+    private final VaultQueryCache queryCache;
+    private final ExecutorService executor = Executors.newFixedThreadPool(4, runnable -> {
+        Thread thread = new Thread(runnable, "api-warmup");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final CompletableFuture<CordaX500Name> legalName;
+    private final long started = System.nanoTime();
+    private final List<Double> roundP99Millis = Collections.synchronizedList(new ArrayList<>());
+
+    private volatile Status status = Status.STARTING;
+    private volatile long readyMillis = -1;
+    private volatile String failure;
+
+    Warmup(CordaRPCOps rpcOps, VaultQueryCache queryCache) {
+        this.rpcOps = rpcOps;
+        this.queryCache = queryCache;
+        this.legalName = async(() -> rpcOps.nodeInfo().getLegalIdentities().get(0).getName());
+    }
+
+    /**
+     * Our legal name, waiting for it to be resolved if startup has only just begun.
+     */
+    CordaX500Name getLegalName() {
+        return legalName.join();
+    }
+
+    private <T> CompletableFuture<T> async(Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, executor);
+    }
+
+    void start() {
+        final CompletableFuture<List<NodeInfo>> networkMap = async(rpcOps::networkMapSnapshot);
+        final CompletableFuture<List<Party>> notaries = async(rpcOps::notaryIdentities);
+        legalName.thenCombine(networkMap, (me, nodes) -> nodes)
+                .thenCombine(notaries, (nodes, notaryList) -> nodes)
+                .thenCompose(this::resolvePeers)
+                .thenRunAsync(this::warm, executor)
+                .whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        failure = String.valueOf(error.getMessage());
+                        status = Status.FAILED;
+                        logger.error("API warm-up failed.", error);
+                    }
+                    executor.shutdown();
+                });
+    }
+
+    /**
+     * Looks every peer up by name, so that the node's identity service has them all to hand.
+     */
+    private CompletableFuture<Void> resolvePeers(List<NodeInfo> nodes) {
+        final CompletableFuture<?>[] lookups = nodes.stream()
+                .map(node -> async(() -> rpcOps.wellKnownPartyFromX500Name(node.getLegalIdentities().get(0).getName())))
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(lookups);
+    }
+
+    private void warm() {
+        final String me = legalName.join().toString();
+        logger.info("Identities resolved in {}ms.", elapsedMillis());
+        status = Status.WARMING;
+
+        // Exactly the queries the UI issues on load, so they are cached under the same keys.
+        final int pageSize = Integer.parseInt(Api.DEFAULT_PAGE_SIZE);
+        final List<IOUQuery> queries = ImmutableList.of(
+                Api.pageQuery(null, 1, pageSize, null),
+                Api.pageQuery(me, 1, pageSize, null),
+                IOUQuery.byHospital(Vault.StateStatus.ALL, me).withPage(1, HISTORY_PAGE_SIZE));
+        queries.forEach(queryCache::query);
+        if (!ENABLED) {
+            ready();
+            return;
+        }
+
+        final ObjectMapper mapper = JacksonSupport.createDefaultMapper(rpcOps);
+        final long deadline = started + TimeUnit.SECONDS.toNanos(MAX_SECONDS);
+        double previous = Double.NaN;
+        for (int round = 0; round < MAX_ROUNDS && System.nanoTime() < deadline; round++) {
+            final double[] samples = new double[SAMPLES];
+            for (int i = 0; i < SAMPLES; i++) {
+                final long before = System.nanoTime();
+                probe(queries.get(i % queries.size()), mapper);
+                samples[i] = (System.nanoTime() - before) / 1e6;
+            }
+            Arrays.sort(samples);
+            final double p99 = samples[(int) Math.ceil(0.99 * SAMPLES) - 1];
+            roundP99Millis.add(p99);
+            logger.info("Warm-up round {}: p99 {}ms.", round + 1, String.format("%.1f", p99));
+            if (Math.abs(p99 - previous) <= TOLERANCE * previous) break;
+            previous = p99;
+        }
+        ready();
+    }
+
+    /**
+     * Runs [query] straight against the node, then looks up the first state by linear id as /history does, and
+     * renders both as JSON.
+     */
+    private void probe(IOUQuery query, ObjectMapper mapper) {
+        try {
+            final Vault.Page<IOUState> page = query.toSort() != null
+                    ? rpcOps.vaultQueryBy(query.toCriteria(), query.toPageSpecification(), query.toSort(), IOUState.class)
+                    : rpcOps.vaultQueryByWithPagingSpec(IOUState.class, query.toCriteria(), query.toPageSpecification());
+            mapper.writeValueAsBytes(page.getStates());
+            if (!page.getStates().isEmpty()) {
+                final UUID id = page.getStates().get(0).getState().getData().getLinearId().getId();
+                mapper.writeValueAsBytes(rpcOps.vaultQueryByCriteria(new QueryCriteria.LinearStateQueryCriteria(
+                        null, ImmutableList.of(id), null, Vault.StateStatus.UNCONSUMED), IOUState.class).getStates());
+            }
+        } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void ready() {
+        readyMillis = elapsedMillis();
+        status = Status.READY;
+        logger.info("API ready after {}ms.", readyMillis);
+    }
+
+    private long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    }
+
+    boolean isReady() {
+        return status == Status.READY;
+    }
+
+    Map<String, Object> report() {
+        final Map<String, Object> report = new LinkedHashMap<>();
+        report.put("status", status);
+        report.put("uptimeMillis", elapsedMillis());
+        report.put("readyMillis", readyMillis);
+        synchronized (roundP99Millis) {
+            report.put("roundP99Millis", new ArrayList<>(roundP99Millis));
+        }
+        if (failure != null) report.put("failure", failure);
+        return report;
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Appends change events to rolling NDJSON segment files, and records how far it has durably got in a checkpoint.
+ *
+ * Writes are not synced individually: [sync] forces everything written so far to disk and then atomically replaces
+ * the checkpoint, which holds the segment, the offset within it and the vault watermark the caller has reached.
+ * On start-up anything written after the last checkpoint is cut off, so the segments always end on a whole event
+ * and the caller can re-export from the checkpointed watermark.
+ */
+public class ChangeSegmentWriter implements Closeable {
+    public static final String CHECKPOINT_FILE = "checkpoint.json";
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private int segmentNumber;
+    private FileChannel segment;
+    private Instant watermark;
+    private long syncedEvents;
+    private long unsyncedEvents;
+
+    @SuppressWarnings("unchecked")
+    public ChangeSegmentWriter(Path directory, long segmentBytes) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentBytes = segmentBytes;
+        long offset = 0;
+        final Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+        if (Files.exists(checkpoint)) {
+            final Map<String, Object> saved = mapper.readValue(checkpoint.toFile(), Map.class);
+            segmentNumber = ((Number) saved.get("segment")).intValue();
+            offset = ((Number) saved.get("offset")).longValue();
+            syncedEvents = ((Number) saved.get("events")).longValue();
+            watermark = saved.get("watermark") == null ? null : Instant.parse((String) saved.get("watermark"));
+        }
+        // Drop whatever was written after the checkpoint; it will be exported again from the watermark.
+        for (int later = segmentNumber + 1; Files.deleteIfExists(segmentPath(later)); later++) ;
+        segment = FileChannel.open(segmentPath(segmentNumber), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        segment.truncate(offset);
+        segment.position(offset);
+    }
+
+    /**
+     * Appends [events], one JSON object per line, rolling over to a new segment once the current one is full.
+     */
+    public synchronized void write(List<Map<String, Object>> events) throws IOException {
+        final StringBuilder lines = new StringBuilder();
+        for (Map<String, Object> event : events) {
+            lines.append(mapper.writeValueAsString(event)).append('\n');
+        }
+        final ByteBuffer bytes = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        if (segment.position() > 0 && segment.position() + bytes.remaining() > segmentBytes) {
+            segment.force(false);
+            segment.close();
+            segment = FileChannel.open(segmentPath(++segmentNumber),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        while (bytes.hasRemaining()) segment.write(bytes);
+        unsyncedEvents += events.size();
+    }
+
+    /**
+     * Forces written events to disk, then checkpoints them together with [newWatermark].
+     */
+    public synchronized void sync(Instant newWatermark) throws IOException {
+        segment.force(false);
+        syncedEvents += unsyncedEvents;
+        unsyncedEvents = 0;
+        watermark = newWatermark;
+
+        final Map<String, Object> checkpoint = new LinkedHashMap<>();
+        checkpoint.put("segment", segmentNumber);
+        checkpoint.put("offset", segment.position());
+        checkpoint.put("events", syncedEvents);
+        checkpoint.put("watermark", watermark == null ? null : watermark.toString());
+        final Path temporary = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(mapper.writeValueAsBytes(checkpoint)));
+            channel.force(false);
+        }
+        Files.move(temporary, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * The vault watermark at the last checkpoint, or null if nothing has been exported yet.
+     */
+    public synchronized Instant getWatermark() {
+        return watermark;
+    }
+
+    public synchronized long getSyncedEvents() {
+        return syncedEvents;
+    }
+
+    public synchronized long getUnsyncedEvents() {
+        return unsyncedEvents;
+    }
+
+    Path segmentPath(int number) {
+        return directory.resolve(segmentFileName(number));
+    }
+
+    public static String segmentFileName(int number) {
+        return String.format("changes-%06d.ndjson", number);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        sync(watermark);
+        segment.close();
+    }
+}
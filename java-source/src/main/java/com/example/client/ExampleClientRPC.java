@@ -1,49 +1,50 @@
 package com.example.client;
 
-import com.example.state.IOUState;
-import net.corda.client.rpc.CordaRPCClient;
-import net.corda.client.rpc.CordaRPCClientConfiguration;
-import net.corda.core.contracts.StateAndRef;
-import net.corda.core.messaging.CordaRPCOps;
-import net.corda.core.messaging.DataFeed;
-import net.corda.core.node.services.Vault;
 import net.corda.core.utilities.NetworkHostAndPort;
-import org.apache.activemq.artemis.api.core.ActiveMQException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import rx.Observable;
 
-import java.util.concurrent.ExecutionException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Demonstration of using the CordaRPCClient to connect to a Corda Node and
- * steam some State data from the node.
+ * Connects to a Corda node and exports every IOU change in its vault to local segment files with a
+ * [VaultChangeExporter]. Stopping and restarting the client resumes from its last checkpoint.
  */
 public class ExampleClientRPC {
     private static final Logger logger = LoggerFactory.getLogger(ExampleClientRPC.class);
+    private static final long STATS_INTERVAL_SECONDS = 30;
 
-    private static void logState(StateAndRef<IOUState> state) {
-        logger.info("{}", state.getState().getData());
-    }
-
-    public static void main(String[] args) throws ActiveMQException, InterruptedException, ExecutionException {
-        if (args.length != 1) {
-            throw new IllegalArgumentException("Usage: ExampleClientRPC <node address>");
+    public static void main(String[] args) throws InterruptedException, IOException {
+        if (args.length < 1 || args.length > 2) {
+            throw new IllegalArgumentException("Usage: ExampleClientRPC <node address> [export directory]");
         }
 
         final NetworkHostAndPort nodeAddress = NetworkHostAndPort.parse(args[0]);
-        final CordaRPCClient client = new CordaRPCClient(nodeAddress, CordaRPCClientConfiguration.DEFAULT);
+        final Path exportDirectory = Paths.get(args.length > 1 ? args[1] : "cdc");
 
         // Can be amended in the com.example.Main file.
-        final CordaRPCOps proxy = client.start("user1", "test").getProxy();
-
-        // Grab all existing and future IOU states in the vault.
-        final DataFeed<Vault.Page<IOUState>, Vault.Update<IOUState>> dataFeed = proxy.vaultTrack(IOUState.class);
-        final Vault.Page<IOUState> snapshot = dataFeed.getSnapshot();
-        final Observable<Vault.Update<IOUState>> updates = dataFeed.getUpdates();
-
-        // Log the 'placed' IOUs and listen for new ones.
-        snapshot.getStates().forEach(ExampleClientRPC::logState);
-        updates.toBlocking().subscribe(update -> update.getProduced().forEach(ExampleClientRPC::logState));
+        final RpcConnectionPool pool = new RpcConnectionPool(nodeAddress, "user1", "test",
+                Integer.getInteger("carechain.rpc.pool.size", 2));
+
+        final VaultChangeExporter exporter = new VaultChangeExporter(pool.getProxy(), exportDirectory);
+        // Updates missed while a connection was down are recovered from the checkpoint.
+        pool.addFailoverListener(exporter::resynchronise);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                exporter.close();
+            } catch (IOException e) {
+                logger.error("Failed to checkpoint the export on shutdown.", e);
+            }
+            pool.close();
+        }));
+        exporter.start();
+        while (true) {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(STATS_INTERVAL_SECONDS));
+            logger.info("{}", exporter.stats());
+            logger.info("{}", pool.metrics());
+        }
     }
 }
@@ -0,0 +1,291 @@
+package com.example.client;
+
+import com.example.state.IOUState;
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.*;
+import net.corda.core.utilities.NetworkHostAndPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Runs the same vault query against several nodes at once and streams one merged, de-duplicated result.
+ *
+ * Every node is asked for its matches in recorded-time order (ties broken by state ref), a page at a time, and the
+ * next page from each node is fetched in the background while the current one is being merged. The merge always
+ * takes the earliest head across nodes, so the output is in the same order, and a state held by several nodes (an
+ * IOU is in both the hospital's and the patient's vault) is returned once, from whichever node had it first.
+ *
+ * A node whose next page is needed by the merge but has not arrived within [NODE_TIMEOUT_MILLIS] is dropped from the
+ * query and listed by [Query.getSkippedNodes]. The merge carries on with the others, so a slow node costs at most its
+ * timeout.
+ */
+public class FederatedQueryClient implements Closeable {
+    static final long NODE_TIMEOUT_MILLIS = Long.getLong("carechain.federated.nodeTimeoutMillis", 5000);
+    static final int PAGE_SIZE = Integer.getInteger("carechain.federated.pageSize", 200);
+
+    static private final Logger logger = LoggerFactory.getLogger(FederatedQueryClient.class);
+
+    private static final Sort RECORDED_ORDER = new Sort(ImmutableSet.of(
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.VaultStateAttribute.RECORDED_TIME), Sort.Direction.ASC),
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_TXN_ID), Sort.Direction.ASC),
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_INDEX), Sort.Direction.ASC)));
+
+    private static final Comparator<Row> ROW_ORDER = Comparator
+            .comparing((Row row) -> row.recordedTime)
+            .thenComparing(row -> row.state.getRef().getTxhash().toString())
+            .thenComparingInt(row -> row.state.getRef().getIndex());
+
+    private final Map<String, CordaRPCOps> nodes;
+    private final List<RpcConnectionPool> pools = new ArrayList<>();
+    private final ExecutorService executor;
+
+    /**
+     * Queries the given nodes, keyed by a name used in results and logs.
+     */
+    public FederatedQueryClient(Map<String, CordaRPCOps> nodes) {
+        this.nodes = new LinkedHashMap<>(nodes);
+        this.executor = Executors.newFixedThreadPool(Math.max(1, nodes.size()), runnable -> {
+            Thread thread = new Thread(runnable, "federated-query");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Prints up to <limit> unconsumed IOUs merged from the given nodes, one per line, followed by per-node timings.
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Usage: FederatedQueryClient <limit> <name=host:port>...");
+        }
+        final Map<String, NetworkHostAndPort> addresses = new LinkedHashMap<>();
+        for (String node : Arrays.asList(args).subList(1, args.length)) {
+            final String[] parts = node.split("=", 2);
+            addresses.put(parts[0], NetworkHostAndPort.parse(parts[1]));
+        }
+        try (FederatedQueryClient client = connect(addresses, "user1", "test");
+             Query query = client.query(new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED), Integer.parseInt(args[0]))) {
+            query.stream().forEach(row -> System.out.printf("%s %s %s %s%n", row.getRecordedTime(), row.getNode(),
+                    row.getState().getRef(), row.getState().getState().getData().getName()));
+            System.out.println("Node time (ms): " + query.getNodeMillis());
+            if (!query.getSkippedNodes().isEmpty()) System.out.println("Skipped: " + query.getSkippedNodes());
+        }
+    }
+
+    /**
+     * Connects to each address with its own small connection pool.
+     */
+    public static FederatedQueryClient connect(Map<String, NetworkHostAndPort> addresses, String username, String password) {
+        final Map<String, CordaRPCOps> nodes = new LinkedHashMap<>();
+        final List<RpcConnectionPool> pools = new ArrayList<>();
+        addresses.forEach((name, address) -> {
+            final RpcConnectionPool pool = new RpcConnectionPool(address, username, password, 1);
+            pools.add(pool);
+            nodes.put(name, pool.getProxy());
+        });
+        final FederatedQueryClient client = new FederatedQueryClient(nodes);
+        client.pools.addAll(pools);
+        return client;
+    }
+
+    /**
+     * Starts [criteria] on every node and returns a query whose stream yields at most [limit] distinct states.
+     */
+    public Query query(QueryCriteria criteria, int limit) {
+        return new Query(criteria, limit);
+    }
+
+    /**
+     * One IOU in the merged result, with the node it was taken from and the time that node recorded it.
+     */
+    public static class Row {
+        private final String node;
+        private final StateAndRef<IOUState> state;
+        private final Instant recordedTime;
+
+        Row(String node, StateAndRef<IOUState> state, Instant recordedTime) {
+            this.node = node;
+            this.state = state;
+            this.recordedTime = recordedTime;
+        }
+
+        public String getNode() { return node; }
+        public StateAndRef<IOUState> getState() { return state; }
+        public Instant getRecordedTime() { return recordedTime; }
+    }
+
+    public class Query implements Closeable {
+        private final QueryCriteria criteria;
+        private final int limit;
+        private final PriorityQueue<Cursor> heads = new PriorityQueue<>(Comparator.comparing(Cursor::head, ROW_ORDER));
+        private final List<Cursor> pending = new ArrayList<>();
+        private final Set<StateRef> seen = new HashSet<>();
+        private final Map<String, String> skipped = new ConcurrentHashMap<>();
+        private final Map<String, Long> nodeMillis = new ConcurrentHashMap<>();
+        private int returned;
+
+        private Query(QueryCriteria criteria, int limit) {
+            this.criteria = criteria;
+            this.limit = limit;
+            nodes.forEach((name, rpcOps) -> pending.add(new Cursor(name, rpcOps)));
+        }
+
+        /**
+         * The merged rows, in recorded-time order. Rows are produced as the nodes' pages arrive.
+         */
+        public Stream<Row> stream() {
+            final Iterator<Row> iterator = new Iterator<Row>() {
+                private Row next;
+
+                @Override
+                public boolean hasNext() {
+                    if (next == null) next = advance();
+                    return next != null;
+                }
+
+                @Override
+                public Row next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    final Row row = next;
+                    next = null;
+                    return row;
+                }
+            };
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                    Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT), false).onClose(this::close);
+        }
+
+        private Row advance() {
+            while (returned < limit) {
+                // Cursors waiting on a page rejoin the merge before anything is taken, so ordering holds.
+                for (Cursor cursor : pending) {
+                    if (cursor.await()) heads.add(cursor);
+                }
+                pending.clear();
+                final Cursor cursor = heads.poll();
+                if (cursor == null) return null;
+                final Row row = cursor.take();
+                pending.add(cursor);
+                if (seen.add(row.state.getRef())) {
+                    returned++;
+                    return row;
+                }
+            }
+            close();
+            return null;
+        }
+
+        /**
+         * Nodes that were dropped from the query, with the reason.
+         */
+        public Map<String, String> getSkippedNodes() {
+            return Collections.unmodifiableMap(skipped);
+        }
+
+        /**
+         * Total time each node took to answer its page requests.
+         */
+        public Map<String, Long> getNodeMillis() {
+            return Collections.unmodifiableMap(nodeMillis);
+        }
+
+        @Override
+        public void close() {
+            for (Cursor cursor : pending) cursor.cancel();
+            for (Cursor cursor : heads) cursor.cancel();
+        }
+
+        /**
+         * One node's results, a page at a time, with the following page requested as soon as the current one arrives.
+         */
+        private class Cursor {
+            private final String name;
+            private final CordaRPCOps rpcOps;
+            private Future<Vault.Page<IOUState>> nextPage;
+            private int nextPageNumber = 1;
+            private boolean exhausted;
+            private final ArrayDeque<Row> rows = new ArrayDeque<>();
+
+            private Cursor(String name, CordaRPCOps rpcOps) {
+                this.name = name;
+                this.rpcOps = rpcOps;
+                fetch();
+            }
+
+            private void fetch() {
+                final int pageNumber = nextPageNumber++;
+                nextPage = executor.submit(() -> {
+                    final long started = System.nanoTime();
+                    try {
+                        return rpcOps.vaultQueryBy(criteria,
+                                new PageSpecification(pageNumber, PAGE_SIZE), RECORDED_ORDER, IOUState.class);
+                    } finally {
+                        nodeMillis.merge(name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), Long::sum);
+                    }
+                });
+            }
+
+            /**
+             * Makes sure a row is buffered, waiting for the node if needed. Returns false once the node has nothing
+             * more to give, or has been dropped.
+             */
+            private boolean await() {
+                if (!rows.isEmpty()) return true;
+                if (exhausted) return false;
+                try {
+                    final Vault.Page<IOUState> page = nextPage.get(NODE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                    for (int i = 0; i < page.getStates().size(); i++) {
+                        rows.add(new Row(name, page.getStates().get(i), page.getStatesMetadata().get(i).getRecordedTime()));
+                    }
+                    exhausted = (long) (nextPageNumber - 1) * PAGE_SIZE >= page.getTotalStatesAvailable();
+                    if (!exhausted) fetch();
+                    return !rows.isEmpty();
+                } catch (TimeoutException e) {
+                    return skip("no answer within " + NODE_TIMEOUT_MILLIS + "ms");
+                } catch (ExecutionException e) {
+                    return skip(String.valueOf(e.getCause().getMessage()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return skip("interrupted");
+                }
+            }
+
+            private boolean skip(String reason) {
+                logger.warn("Dropping {} from the federated query: {}", name, reason);
+                skipped.put(name, reason);
+                cancel();
+                return false;
+            }
+
+            private Row head() {
+                return rows.peekFirst();
+            }
+
+            private Row take() {
+                return rows.pollFirst();
+            }
+
+            private void cancel() {
+                exhausted = true;
+                if (nextPage != null) nextPage.cancel(true);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        pools.forEach(RpcConnectionPool::close);
+    }
+}
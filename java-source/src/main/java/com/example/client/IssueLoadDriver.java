@@ -0,0 +1,184 @@
+package com.example.client;
+
+import com.example.flow.IssueFlow;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import net.corda.client.rpc.CordaRPCClient;
+import net.corda.client.rpc.CordaRPCClientConfiguration;
+import net.corda.client.rpc.CordaRPCConnection;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.utilities.NetworkHostAndPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Drives IssueFlow over RPC against a set of nodes at a fixed target rate and writes a throughput/latency report.
+ *
+ * Each node given on the command line issues records to the patient nodes in its network map, in round-robin order.
+ * Latency is measured from the moment a flow was scheduled to start rather than from when it actually started, so a
+ * saturated network shows up as growing latency instead of being hidden by a slower send rate.
+ */
+public class IssueLoadDriver {
+    static final int MAX_IN_FLIGHT = 10_000;
+    static final int STARTER_THREADS = 32;
+
+    private static final Logger logger = LoggerFactory.getLogger(IssueLoadDriver.class);
+
+    private final List<Issuer> issuers;
+    private final double ratePerSecond;
+    private final long durationSeconds;
+    private final LatencyRecorder overall = new LatencyRecorder();
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+    private final AtomicLong skipped = new AtomicLong();
+    // Keeps patient names unique across runs against the same nodes, which would otherwise reject them as duplicates.
+    private final long runId = System.currentTimeMillis();
+
+    private IssueLoadDriver(List<Issuer> issuers, double ratePerSecond, long durationSeconds) {
+        this.issuers = issuers;
+        this.ratePerSecond = ratePerSecond;
+        this.durationSeconds = durationSeconds;
+    }
+
+    /**
+     * A node we issue from, together with the counterparties it issues to.
+     */
+    private static class Issuer {
+        private final CordaX500Name name;
+        private final CordaRPCOps proxy;
+        private final List<Party> counterparties;
+        private final LatencyRecorder latencies = new LatencyRecorder();
+        private int next;
+
+        private Issuer(CordaRPCOps proxy) {
+            this.proxy = proxy;
+            this.name = proxy.nodeInfo().getLegalIdentities().get(0).getName();
+            final Set<Party> notaries = new HashSet<>(proxy.notaryIdentities());
+            final List<Party> peers = proxy.networkMapSnapshot().stream()
+                    .map(node -> node.getLegalIdentities().get(0))
+                    .filter(party -> !notaries.contains(party) && !party.getName().equals(name))
+                    .collect(toList());
+            final List<Party> patients = peers.stream()
+                    .filter(party -> party.getName().getOrganisation().startsWith("Patient"))
+                    .collect(toList());
+            this.counterparties = patients.isEmpty() ? peers : patients;
+            if (counterparties.isEmpty()) {
+                throw new IllegalStateException(name + " has no counterparties in its network map.");
+            }
+        }
+
+        private synchronized Party nextCounterparty() {
+            return counterparties.get(next++ % counterparties.size());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            throw new IllegalArgumentException("Usage: IssueLoadDriver <rate per second> <duration seconds> <report file> <node address>...");
+        }
+        final double rate = Double.parseDouble(args[0]);
+        final long duration = Long.parseLong(args[1]);
+        final File report = new File(args[2]);
+
+        final List<CordaRPCConnection> connections = new ArrayList<>();
+        final List<Issuer> issuers = new ArrayList<>();
+        for (String address : Arrays.asList(args).subList(3, args.length)) {
+            final CordaRPCClient client = new CordaRPCClient(NetworkHostAndPort.parse(address), CordaRPCClientConfiguration.DEFAULT);
+            final CordaRPCConnection connection = client.start("user1", "test");
+            connections.add(connection);
+            issuers.add(new Issuer(connection.getProxy()));
+        }
+
+        try {
+            new IssueLoadDriver(issuers, rate, duration).run(report);
+        } finally {
+            connections.forEach(CordaRPCConnection::notifyServerAndClose);
+        }
+    }
+
+    private void run(File report) throws InterruptedException, IOException {
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        final ExecutorService starters = Executors.newFixedThreadPool(STARTER_THREADS);
+        final long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+        final long started = System.nanoTime();
+        final AtomicLong sent = new AtomicLong();
+
+        logger.info("Issuing at {}/s for {}s from {} nodes.", ratePerSecond, durationSeconds, issuers.size());
+        scheduler.scheduleAtFixedRate(() -> {
+            final long n = sent.getAndIncrement();
+            final long intendedStart = started + n * periodNanos;
+            if (!inFlight.tryAcquire()) {
+                skipped.incrementAndGet();
+                return;
+            }
+            final Issuer issuer = issuers.get((int) (n % issuers.size()));
+            starters.execute(() -> issue(issuer, n, intendedStart));
+        }, 0, periodNanos, TimeUnit.NANOSECONDS);
+
+        scheduler.awaitTermination(durationSeconds, TimeUnit.SECONDS);
+        scheduler.shutdownNow();
+        final long sendingNanos = System.nanoTime() - started;
+
+        // Let the flows that are still running complete, so the report covers everything we sent.
+        inFlight.tryAcquire(MAX_IN_FLIGHT, 5, TimeUnit.MINUTES);
+        starters.shutdown();
+
+        writeReport(report, sendingNanos, sent.get());
+    }
+
+    private void issue(Issuer issuer, long sequence, long intendedStart) {
+        try {
+            issuer.proxy.startFlowDynamic(IssueFlow.Initiator.class,
+                    "Load test patient " + runId + "-" + sequence, 40, "Other", 170, 70, "O(positive)", "Load test", "None",
+                    issuer.nextCounterparty())
+                    .getReturnValue()
+                    .then(result -> {
+                        try {
+                            result.get();
+                            final long latency = System.nanoTime() - intendedStart;
+                            overall.record(latency);
+                            issuer.latencies.record(latency);
+                        } catch (Exception e) {
+                            fail(issuer, e);
+                        } finally {
+                            inFlight.release();
+                        }
+                        return null;
+                    });
+        } catch (Exception e) {
+            fail(issuer, e);
+            inFlight.release();
+        }
+    }
+
+    private void fail(Issuer issuer, Exception e) {
+        logger.warn("Issuance from {} failed: {}", issuer.name, e.getMessage());
+        overall.recordError();
+        issuer.latencies.recordError();
+    }
+
+    private void writeReport(File file, long elapsedNanos, long sent) throws IOException {
+        final Map<String, Object> perNode = new LinkedHashMap<>();
+        issuers.forEach(issuer -> perNode.put(issuer.name.toString(), issuer.latencies.summary(elapsedNanos)));
+        final Map<String, Object> report = ImmutableMap.<String, Object>builder()
+                .put("targetRatePerSecond", ratePerSecond)
+                .put("durationSeconds", durationSeconds)
+                .put("nodes", issuers.size())
+                .put("sent", sent)
+                .put("skippedAtInFlightLimit", skipped.get())
+                .put("overall", overall.summary(elapsedNanos))
+                .put("perNode", perNode)
+                .build();
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file, report);
+        logger.info("Report written to {}: {}", file, report.get("overall"));
+    }
+}
@@ -0,0 +1,321 @@
+package com.example.client;
+
+import net.corda.client.rpc.CordaRPCClient;
+import net.corda.client.rpc.CordaRPCClientConfiguration;
+import net.corda.client.rpc.CordaRPCConnection;
+import net.corda.client.rpc.RPCException;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.utilities.NetworkHostAndPort;
+import org.apache.activemq.artemis.api.core.ActiveMQException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Observable;
+
+import java.io.Closeable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.ConnectException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * A small pool of RPC connections to one node, presented as a single [CordaRPCOps].
+ *
+ * Calls made through [getProxy] are spread round-robin over the connections that are up. A call that fails because
+ * its connection dropped marks that connection down, and it is reopened in the background with exponential backoff.
+ * Read-only calls are then retried on another connection; anything else (starting a flow, for instance) is not,
+ * since we cannot tell whether the node acted on it.
+ *
+ * Feeds such as [CordaRPCOps.vaultTrack] return updates that survive failover: when the connection carrying them
+ * drops, the same call is made again on a healthy connection and its updates continue the stream. Updates produced
+ * while no subscription was open are not replayed, so callers that must not miss any register a failover listener
+ * and resynchronise from a query.
+ *
+ * The health of each connection and the latency of each RPC method are reported by [metrics].
+ */
+public class RpcConnectionPool implements Closeable {
+    static final long ACQUIRE_TIMEOUT_MILLIS = Long.getLong("carechain.rpc.pool.acquireTimeoutMillis", 10000);
+    static final long MIN_BACKOFF_MILLIS = 500;
+    static final long MAX_BACKOFF_MILLIS = Long.getLong("carechain.rpc.pool.maxBackoffMillis", 60000);
+
+    private static final Set<String> READ_ONLY_PREFIXES = new HashSet<>(Arrays.asList(
+            "vaultQuery", "networkMapSnapshot", "nodeInfo", "notaryIdentities", "notaryPartyFromX500Name",
+            "wellKnownPartyFrom", "partyFromKey", "partiesFromName", "currentNodeTime", "registeredFlows",
+            "stateMachinesSnapshot", "attachmentExists", "protocolVersion"));
+
+    static private final Logger logger = LoggerFactory.getLogger(RpcConnectionPool.class);
+
+    private final Supplier<CordaRPCConnection> connector;
+    private final long acquireTimeoutMillis;
+    private final List<Slot> slots = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final Map<String, CallStats> callStats = new ConcurrentHashMap<>();
+    private final List<Runnable> failoverListeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong resubscriptions = new AtomicLong();
+    private final ScheduledExecutorService reconnector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "rpc-reconnect");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final CordaRPCOps proxy;
+
+    private volatile boolean closed;
+
+    /**
+     * Opens [size] connections to [address]. Connections that can't be opened yet are retried in the background.
+     */
+    public RpcConnectionPool(NetworkHostAndPort address, String username, String password, int size) {
+        this(connector(new CordaRPCClient(address, CordaRPCClientConfiguration.DEFAULT), username, password), size,
+                ACQUIRE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Opens [size] connections with [connector], which opens a new one each time it is called or throws if it can't.
+     * Calls wait up to [acquireTimeoutMillis] for a connection to come up.
+     */
+    RpcConnectionPool(Supplier<CordaRPCConnection> connector, int size, long acquireTimeoutMillis) {
+        this.connector = connector;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        for (int i = 0; i < size; i++) {
+            final Slot slot = new Slot(i);
+            slots.add(slot);
+            connect(slot);
+        }
+        this.proxy = (CordaRPCOps) Proxy.newProxyInstance(CordaRPCOps.class.getClassLoader(),
+                new Class<?>[]{CordaRPCOps.class}, (target, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        switch (method.getName()) {
+                            case "equals": return target == args[0];
+                            case "hashCode": return System.identityHashCode(target);
+                            default: return "RpcConnectionPool proxy for " + slots.size() + " connections";
+                        }
+                    }
+                    final Object result = call(method, args);
+                    return result instanceof DataFeed ? resilient(method, args, (DataFeed<?, ?>) result) : result;
+                });
+    }
+
+    /**
+     * Builds a pool from the `carechain.rpc.pool.*` system properties, or returns null if no address is configured.
+     */
+    public static RpcConnectionPool fromSystemProperties() {
+        final String address = System.getProperty("carechain.rpc.pool.address");
+        if (address == null) return null;
+        return new RpcConnectionPool(NetworkHostAndPort.parse(address),
+                System.getProperty("carechain.rpc.pool.user", "user1"),
+                System.getProperty("carechain.rpc.pool.password", "test"),
+                Integer.getInteger("carechain.rpc.pool.size", 4));
+    }
+
+    private static Supplier<CordaRPCConnection> connector(CordaRPCClient client, String username, String password) {
+        return () -> client.start(username, password);
+    }
+
+    public CordaRPCOps getProxy() {
+        return proxy;
+    }
+
+    /**
+     * Runs [listener] whenever a connection is lost, so that its feeds may have missed updates.
+     */
+    public void addFailoverListener(Runnable listener) {
+        failoverListeners.add(listener);
+    }
+
+    private Object call(Method method, Object[] args) throws Throwable {
+        final boolean retryable = isReadOnly(method.getName());
+        final CallStats stats = callStats.computeIfAbsent(method.getName(), name -> new CallStats());
+        for (int attempt = 0; ; attempt++) {
+            final Slot slot = acquire();
+            final long started = System.nanoTime();
+            try {
+                final Object result = method.invoke(slot.connection.getProxy(), args);
+                stats.record(System.nanoTime() - started, false);
+                return result;
+            } catch (InvocationTargetException e) {
+                stats.record(System.nanoTime() - started, true);
+                final Throwable cause = e.getCause();
+                if (!isConnectionFailure(cause)) throw cause;
+                disconnected(slot, cause);
+                if (!retryable || attempt + 1 >= slots.size()) throw cause;
+                logger.info("Retrying {} on another connection.", method.getName());
+            }
+        }
+    }
+
+    private static boolean isReadOnly(String methodName) {
+        for (String prefix : READ_ONLY_PREFIXES) {
+            if (methodName.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    static boolean isConnectionFailure(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof RPCException || t instanceof ActiveMQException || t instanceof ConnectException) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the next connection that is up, waiting up to [acquireTimeoutMillis] for one to come back.
+     */
+    private Slot acquire() throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMillis);
+        synchronized (slots) {
+            while (!closed) {
+                for (int i = 0; i < slots.size(); i++) {
+                    final Slot slot = slots.get(Math.floorMod(next.getAndIncrement(), slots.size()));
+                    if (slot.connection != null) return slot;
+                }
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) break;
+                TimeUnit.NANOSECONDS.timedWait(slots, remaining);
+            }
+        }
+        throw new RPCException(closed ? "The RPC connection pool is closed." : "No RPC connection is available.");
+    }
+
+    private void connect(Slot slot) {
+        if (closed) return;
+        try {
+            final CordaRPCConnection connection = connector.get();
+            synchronized (slots) {
+                slot.connection = connection;
+                slot.failures = 0;
+                slots.notifyAll();
+            }
+            logger.info("RPC connection {} is up.", slot.number);
+        } catch (RuntimeException e) {
+            final long backoff = Math.min(MAX_BACKOFF_MILLIS, MIN_BACKOFF_MILLIS << Math.min(slot.failures++, 16));
+            logger.warn("RPC connection {} failed, retrying in {}ms: {}", slot.number, backoff, e.getMessage());
+            reconnector.schedule(() -> connect(slot), backoff, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void disconnected(Slot slot, Throwable cause) {
+        final CordaRPCConnection lost;
+        synchronized (slots) {
+            lost = slot.connection;
+            if (lost == null) return; // Another caller got here first.
+            slot.connection = null;
+            slot.disconnects++;
+        }
+        logger.warn("RPC connection {} dropped: {}", slot.number, cause.getMessage());
+        reconnector.execute(() -> {
+            try {
+                lost.forceClose();
+            } catch (RuntimeException ignored) {
+            }
+            connect(slot);
+        });
+        failoverListeners.forEach(Runnable::run);
+    }
+
+    /**
+     * Wraps a feed's updates so that, after a connection failure, the same call is made again on a healthy connection
+     * and its updates take over. The snapshot of the repeated call is discarded.
+     */
+    @SuppressWarnings("unchecked")
+    private DataFeed<?, ?> resilient(Method method, Object[] args, DataFeed<?, ?> feed) {
+        final AtomicReference<Observable<Object>> initial = new AtomicReference<>((Observable<Object>) feed.getUpdates());
+        final Observable<Object> updates = Observable.defer(() -> {
+            final Observable<Object> first = initial.getAndSet(null);
+            if (first != null) return first;
+            try {
+                resubscriptions.incrementAndGet();
+                return ((DataFeed<?, Object>) call(method, args)).getUpdates();
+            } catch (Throwable e) {
+                return Observable.error(e);
+            }
+        }).retryWhen(errors -> errors.flatMap(error -> !closed && isConnectionFailure(error)
+                ? Observable.timer(MIN_BACKOFF_MILLIS, TimeUnit.MILLISECONDS)
+                : Observable.error(error)));
+        return new DataFeed<>(feed.getSnapshot(), updates);
+    }
+
+    /**
+     * Reports whether each connection is up and how often it has dropped, and the call count, error count and mean
+     * and maximum latency of every RPC method used so far.
+     */
+    public Map<String, Object> metrics() {
+        final List<Map<String, Object>> connections = new ArrayList<>();
+        synchronized (slots) {
+            for (Slot slot : slots) {
+                final Map<String, Object> health = new LinkedHashMap<>();
+                health.put("connection", slot.number);
+                health.put("up", slot.connection != null);
+                health.put("disconnects", slot.disconnects);
+                health.put("failedReconnects", slot.failures);
+                connections.add(health);
+            }
+        }
+        final Map<String, Object> methods = new TreeMap<>();
+        callStats.forEach((name, stats) -> methods.put(name, stats.snapshot()));
+        final Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("connections", connections);
+        metrics.put("resubscriptions", resubscriptions.get());
+        metrics.put("methods", methods);
+        return metrics;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        reconnector.shutdownNow();
+        synchronized (slots) {
+            for (Slot slot : slots) {
+                if (slot.connection != null) {
+                    try {
+                        slot.connection.notifyServerAndClose();
+                    } catch (RuntimeException e) {
+                        logger.debug("Ignoring failure while closing RPC connection {}.", slot.number, e);
+                    }
+                    slot.connection = null;
+                }
+            }
+            slots.notifyAll();
+        }
+    }
+
+    private static class Slot {
+        private final int number;
+        private volatile CordaRPCConnection connection;
+        private int failures;
+        private long disconnects;
+
+        private Slot(int number) {
+            this.number = number;
+        }
+    }
+
+    private static class CallStats {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private void record(long nanos, boolean error) {
+            count.incrementAndGet();
+            if (error) errors.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        private Map<String, Object> snapshot() {
+            final long calls = count.get();
+            final Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("calls", calls);
+            snapshot.put("errors", errors.get());
+            snapshot.put("meanMillis", calls == 0 ? 0.0 : totalNanos.get() / 1e6 / calls);
+            snapshot.put("maxMillis", maxNanos.get() / 1e6);
+            return snapshot;
+        }
+    }
+}
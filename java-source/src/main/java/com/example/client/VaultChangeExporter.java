@@ -0,0 +1,265 @@
+package com.example.client;
+
+import com.example.state.IOUState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Subscription;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exports every IOU produced or consumed in a node's vault as a stream of change events on local disk.
+ *
+ * Live updates from [CordaRPCOps.vaultTrackBy] go through a bounded queue to a single writer thread, which appends
+ * them to a [ChangeSegmentWriter] and syncs it every [SYNC_EVENTS] events or [SYNC_MILLIS]. Each sync checkpoints a
+ * watermark in node time, trailing the node clock by [WATERMARK_LAG_SECONDS] to cover updates still in flight.
+ *
+ * On (re)start the exporter subscribes first and then back-fills every state recorded or consumed since the
+ * watermark, so nothing is missed and only the changes since the last checkpoint are read again. Delivery is
+ * at-least-once: each event carries a key (`kind:stateRef`) that is unique per change, and repeats within the
+ * overlap are filtered out against the most recent keys.
+ *
+ * When the queue is full the update callback waits for up to [OFFER_MILLIS]. If the writer still can't keep up, the
+ * exporter drops the live subscription rather than buffering without bound, lets the writer drain, and then
+ * resynchronises from the checkpoint. The watermark does not advance until it has caught up again.
+ */
+public class VaultChangeExporter implements Closeable {
+    static final int QUEUE_SIZE = Integer.getInteger("carechain.cdc.queueSize", 10000);
+    static final int SYNC_EVENTS = Integer.getInteger("carechain.cdc.syncEvents", 1000);
+    static final long SYNC_MILLIS = Long.getLong("carechain.cdc.syncMillis", 1000);
+    static final long OFFER_MILLIS = Long.getLong("carechain.cdc.offerMillis", 1000);
+    static final long WATERMARK_LAG_SECONDS = Long.getLong("carechain.cdc.watermarkLagSeconds", 60);
+    static final long SEGMENT_BYTES = Long.getLong("carechain.cdc.segmentBytes", 64L * 1024 * 1024);
+    static final int BACKFILL_PAGE_SIZE = 1000;
+    static final int RECENT_KEYS = 100000;
+    static final long RETRY_SECONDS = 5;
+
+    static private final Logger logger = LoggerFactory.getLogger(VaultChangeExporter.class);
+
+    /** Queued by the back-fill once all of its events are ahead of it in the queue. */
+    private static final Map<String, Object> CAUGHT_UP = Collections.emptyMap();
+
+    private final CordaRPCOps rpcOps;
+    private final ChangeSegmentWriter writer;
+    private final BlockingQueue<Map<String, Object>> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final Map<String, Boolean> recentKeys = new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > RECENT_KEYS;
+        }
+    };
+    private final ScheduledExecutorService control = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "vault-change-exporter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Thread writerThread = new Thread(this::writeLoop, "vault-change-writer");
+
+    private volatile boolean running = true;
+    private volatile boolean caughtUp;
+    private volatile boolean paused;
+    private volatile Subscription subscription;
+    private final AtomicLong overflows = new AtomicLong();
+
+    public VaultChangeExporter(CordaRPCOps rpcOps, Path directory) throws IOException {
+        this.rpcOps = rpcOps;
+        this.writer = new ChangeSegmentWriter(directory, SEGMENT_BYTES);
+    }
+
+    public void start() {
+        writerThread.start();
+        control.execute(this::resync);
+    }
+
+    /**
+     * Subscribes to live updates and back-fills from the checkpointed watermark. Runs on the control thread.
+     */
+    private void resync() {
+        caughtUp = false;
+        paused = false;
+        if (subscription != null) subscription.unsubscribe();
+        final Instant from = writer.getWatermark();
+        logger.info("Exporting vault changes from {}.", from == null ? "the beginning" : from);
+        try {
+            final QueryCriteria all = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.ALL);
+            subscription = rpcOps.vaultTrackByWithPagingSpec(IOUState.class, all, new PageSpecification(1, 1))
+                    .getUpdates()
+                    .subscribe(this::onUpdate, error -> {
+                        logger.error("Vault update stream failed, resubscribing.", error);
+                        control.schedule(this::resync, RETRY_SECONDS, TimeUnit.SECONDS);
+                    });
+
+            backfill(since(Vault.StateStatus.ALL, QueryCriteria.TimeInstantType.RECORDED, from), "produced");
+            backfill(since(Vault.StateStatus.CONSUMED, QueryCriteria.TimeInstantType.CONSUMED, from), "consumed");
+            queue.put(CAUGHT_UP);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.error("Back-filling vault changes failed, retrying in {}s.", RETRY_SECONDS, e);
+            control.schedule(this::resync, RETRY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stops the live stream and resynchronises from the checkpoint, for when updates may have been missed.
+     */
+    public void resynchronise() {
+        if (!running) return;
+        caughtUp = false;
+        paused = true;
+        control.execute(this::resync);
+    }
+
+    private static QueryCriteria since(Vault.StateStatus status, QueryCriteria.TimeInstantType type, Instant from) {
+        if (from == null) return new QueryCriteria.VaultQueryCriteria(status);
+        final QueryCriteria.TimeCondition condition = new QueryCriteria.TimeCondition(type,
+                new ColumnPredicate.BinaryComparison<>(BinaryComparisonOperator.GREATER_THAN_OR_EQUAL, from));
+        return new QueryCriteria.VaultQueryCriteria(status, null, null, null, null, condition);
+    }
+
+    private void backfill(QueryCriteria criteria, String kind) throws InterruptedException {
+        for (int pageNumber = 1; running; pageNumber++) {
+            final Vault.Page<IOUState> page = rpcOps.vaultQueryByWithPagingSpec(
+                    IOUState.class, criteria, new PageSpecification(pageNumber, BACKFILL_PAGE_SIZE));
+            for (StateAndRef<IOUState> state : page.getStates()) {
+                queue.put(event(kind, state));
+            }
+            if ((long) pageNumber * BACKFILL_PAGE_SIZE >= page.getTotalStatesAvailable()) break;
+        }
+    }
+
+    private void onUpdate(Vault.Update<IOUState> update) {
+        if (paused) return;
+        try {
+            for (StateAndRef<IOUState> state : update.getConsumed()) offer(event("consumed", state));
+            for (StateAndRef<IOUState> state : update.getProduced()) offer(event("produced", state));
+        } catch (RejectedExecutionException e) {
+            // The writer has fallen behind: stop listening and catch up from the checkpoint instead.
+            caughtUp = false;
+            paused = true;
+            overflows.incrementAndGet();
+            logger.warn("Change queue full for {}ms, pausing the live stream until the writer catches up.", OFFER_MILLIS);
+            control.execute(() -> {
+                subscription.unsubscribe();
+                awaitDrained();
+                resync();
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void offer(Map<String, Object> event) throws InterruptedException {
+        if (!queue.offer(event, OFFER_MILLIS, TimeUnit.MILLISECONDS)) {
+            throw new RejectedExecutionException();
+        }
+    }
+
+    private void awaitDrained() {
+        while (running && !queue.isEmpty()) {
+            try {
+                Thread.sleep(SYNC_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void writeLoop() {
+        final List<Map<String, Object>> batch = new ArrayList<>();
+        long lastSync = System.nanoTime();
+        while (running || !queue.isEmpty()) {
+            try {
+                final Map<String, Object> first = queue.poll(SYNC_MILLIS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, SYNC_EVENTS - 1);
+                }
+                final List<Map<String, Object>> fresh = new ArrayList<>(batch.size());
+                for (Map<String, Object> event : batch) {
+                    if (event == CAUGHT_UP) {
+                        caughtUp = true;
+                    } else if (recentKeys.put((String) event.get("key"), Boolean.TRUE) == null) {
+                        fresh.add(event);
+                    }
+                }
+                batch.clear();
+                if (!fresh.isEmpty()) writer.write(fresh);
+
+                final boolean due = System.nanoTime() - lastSync >= TimeUnit.MILLISECONDS.toNanos(SYNC_MILLIS);
+                if (writer.getUnsyncedEvents() >= SYNC_EVENTS || (due && (writer.getUnsyncedEvents() > 0 || caughtUp))) {
+                    writer.sync(nextWatermark());
+                    lastSync = System.nanoTime();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                // Nothing after the last checkpoint can be trusted now; a restart re-exports it from the watermark.
+                logger.error("Writing vault changes failed, stopping the export.", e);
+                running = false;
+                control.shutdownNow();
+                return;
+            } catch (RuntimeException e) {
+                logger.warn("Could not checkpoint vault changes, will retry.", e);
+            }
+        }
+    }
+
+    private Instant nextWatermark() {
+        final Instant current = writer.getWatermark();
+        if (!caughtUp) return current;
+        final Instant candidate = rpcOps.currentNodeTime().minus(Duration.ofSeconds(WATERMARK_LAG_SECONDS));
+        return current != null && current.isAfter(candidate) ? current : candidate;
+    }
+
+    private static Map<String, Object> event(String kind, StateAndRef<IOUState> state) {
+        final IOUState iou = state.getState().getData();
+        final Map<String, Object> event = new LinkedHashMap<>();
+        event.put("key", kind + ":" + state.getRef());
+        event.put("kind", kind);
+        event.put("stateRef", state.getRef().toString());
+        event.put("linearId", iou.getLinearId().getId().toString());
+        event.put("hospital", iou.getHospital().getName().toString());
+        event.put("patient", iou.getPatient().getName().toString());
+        event.put("name", iou.getName());
+        event.put("age", iou.getAge());
+        event.put("gender", iou.getGender());
+        event.put("height", iou.getHeight());
+        event.put("weight", iou.getWeight());
+        event.put("bloodGroup", iou.getBloodGroup());
+        event.put("diagnosis", iou.getDiagnosis());
+        event.put("medicine", iou.getMedicine());
+        return event;
+    }
+
+    public String stats() {
+        return String.format("exported=%d queued=%d watermark=%s caughtUp=%s overflows=%d",
+                writer.getSyncedEvents() + writer.getUnsyncedEvents(), queue.size(), writer.getWatermark(), caughtUp, overflows.get());
+    }
+
+    @Override
+    public void close() throws IOException {
+        control.shutdownNow();
+        if (subscription != null) subscription.unsubscribe();
+        running = false;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer.close();
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.client;
+
+import com.example.contract.IssueContract;
+import com.example.flow.BatchIssueFlow;
+import com.example.flow.SeedVaultFlow;
+import com.example.seed.PatientRecordGenerator;
+import com.example.state.PatientRecord;
+import net.corda.client.rpc.CordaRPCClient;
+import net.corda.client.rpc.CordaRPCClientConfiguration;
+import net.corda.client.rpc.CordaRPCConnection;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.utilities.NetworkHostAndPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fills a node's vault with generated patient records (see [PatientRecordGenerator]).
+ *
+ * Usage: `VaultSeeder <node address> <patient X.500 name> <count> [flow|direct] [seed] [first record]`
+ *
+ * In `flow` mode (the default) records are issued through [BatchIssueFlow], with several batches in flight, so they
+ * are signed by the patient, notarised and recorded in both vaults. In `direct` mode the node writes them into its
+ * own vault with [SeedVaultFlow], which is far faster but needs the node to allow it. Either way the same seed gives
+ * the same records, so a vault can be rebuilt exactly, or grown by starting from the next record.
+ */
+public class VaultSeeder {
+    static final int IN_FLIGHT = Integer.getInteger("carechain.seed.inFlight", 8);
+
+    static private final Logger logger = LoggerFactory.getLogger(VaultSeeder.class);
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            throw new IllegalArgumentException("Usage: VaultSeeder <node address> <patient X.500 name> <count> [flow|direct] [seed] [first record]");
+        }
+        final long count = Long.parseLong(args[2]);
+        final boolean direct = args.length > 3 && args[3].equals("direct");
+        final long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+        final long first = args.length > 5 ? Long.parseLong(args[5]) : 0;
+
+        final CordaRPCClient client = new CordaRPCClient(NetworkHostAndPort.parse(args[0]), CordaRPCClientConfiguration.DEFAULT);
+        final CordaRPCConnection connection = client.start("user1", "test");
+        try {
+            final CordaRPCOps proxy = connection.getProxy();
+            final Party patient = proxy.wellKnownPartyFromX500Name(CordaX500Name.parse(args[1]));
+            if (patient == null) throw new IllegalArgumentException("No party named " + args[1] + " in the network map.");
+
+            final long started = System.nanoTime();
+            final long seeded = direct ? seedDirect(proxy, patient, seed, first, count) : seedByFlow(proxy, patient, seed, first, count);
+            final double seconds = (System.nanoTime() - started) / 1e9;
+            logger.info("Seeded {} records ({} to {}, seed {}) in {}s: {} records/s.", seeded, first, first + count - 1,
+                    seed, String.format("%.1f", seconds), String.format("%.0f", seeded / seconds));
+        } finally {
+            connection.notifyServerAndClose();
+        }
+    }
+
+    private static long seedDirect(CordaRPCOps proxy, Party patient, long seed, long first, long count) throws Exception {
+        long seeded = 0;
+        for (long from = first; from < first + count; from += SeedVaultFlow.MAX_COUNT) {
+            final int chunk = (int) Math.min(SeedVaultFlow.MAX_COUNT, first + count - from);
+            seeded += proxy.startFlowDynamic(SeedVaultFlow.class, patient, seed, from, chunk).getReturnValue().get();
+            logger.info("Seeded {} of {}.", seeded, count);
+        }
+        return seeded;
+    }
+
+    private static long seedByFlow(CordaRPCOps proxy, Party patient, long seed, long first, long count) throws InterruptedException {
+        final PatientRecordGenerator generator = new PatientRecordGenerator(seed);
+        final Semaphore inFlight = new Semaphore(IN_FLIGHT);
+        final AtomicLong seeded = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        for (long from = first; from < first + count; from += IssueContract.MAX_BATCH_SIZE) {
+            final List<PatientRecord> records = new ArrayList<>();
+            for (long index = from; index < Math.min(from + IssueContract.MAX_BATCH_SIZE, first + count); index++) {
+                records.add(generator.record(index));
+            }
+            inFlight.acquire();
+            proxy.startFlowDynamic(BatchIssueFlow.Initiator.class, records, patient).getReturnValue().then(result -> {
+                try {
+                    result.get();
+                    final long total = seeded.addAndGet(records.size());
+                    if (total % 10000 < records.size()) logger.info("Seeded {} of {}.", total, count);
+                } catch (Exception e) {
+                    failed.addAndGet(records.size());
+                    logger.warn("A batch of {} records failed: {}", records.size(), e.getMessage());
+                } finally {
+                    inFlight.release();
+                }
+                return null;
+            });
+        }
+        inFlight.tryAcquire(IN_FLIGHT, 10, TimeUnit.MINUTES);
+        if (failed.get() > 0) logger.warn("{} records were not seeded.", failed.get());
+        return seeded.get();
+    }
+}
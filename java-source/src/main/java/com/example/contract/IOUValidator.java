@@ -0,0 +1,163 @@
+package com.example.contract;
+
+import com.example.state.IOUState;
+import com.example.state.PatientRecord;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * The field rules for a patient record, shared by the API, both sides of IssueFlow and IssueContract.
+ *
+ * The rules are plain range checks and hash set lookups, so invalid records can be rejected at the edge in
+ * microseconds rather than after signing and a round trip to the counterparty.
+ *
+ * Nodes may tighten the rules they apply before signing through a properties file (see [configured]), but the
+ * contract always verifies against [DEFAULT]: contract verification has to give the same answer on every node.
+ */
+public final class IOUValidator {
+    public static final IOUValidator DEFAULT = new IOUValidator(
+            1, 150, 1, 300, 1, 700,
+            ImmutableSet.of("Male", "Female", "Other"),
+            ImmutableSet.of("A(positive)", "A(negative)", "B(positive)", "B(negative)",
+                    "AB(positive)", "AB(negative)", "O(positive)", "O(negative)"),
+            1024);
+
+    /** The system property naming a properties file that overrides [DEFAULT]. */
+    public static final String CONFIG_PROPERTY = "carechain.validation.config";
+    /** The classpath resource checked when [CONFIG_PROPERTY] is not set. */
+    public static final String CONFIG_RESOURCE = "/iou-validation.properties";
+
+    private final int minAge;
+    private final int maxAge;
+    private final int minHeight;
+    private final int maxHeight;
+    private final int minWeight;
+    private final int maxWeight;
+    private final Set<String> genders;
+    private final Set<String> bloodGroups;
+    private final int maxTextLength;
+
+    public IOUValidator(int minAge, int maxAge, int minHeight, int maxHeight, int minWeight, int maxWeight,
+                        Set<String> genders, Set<String> bloodGroups, int maxTextLength) {
+        this.minAge = minAge;
+        this.maxAge = maxAge;
+        this.minHeight = minHeight;
+        this.maxHeight = maxHeight;
+        this.minWeight = minWeight;
+        this.maxWeight = maxWeight;
+        this.genders = ImmutableSet.copyOf(genders);
+        this.bloodGroups = ImmutableSet.copyOf(bloodGroups);
+        this.maxTextLength = maxTextLength;
+    }
+
+    /**
+     * Builds a validator from [properties], taking any rule that is not set from [DEFAULT].
+     */
+    public static IOUValidator fromProperties(Properties properties) {
+        return new IOUValidator(
+                intProperty(properties, "age.min", DEFAULT.minAge),
+                intProperty(properties, "age.max", DEFAULT.maxAge),
+                intProperty(properties, "height.min", DEFAULT.minHeight),
+                intProperty(properties, "height.max", DEFAULT.maxHeight),
+                intProperty(properties, "weight.min", DEFAULT.minWeight),
+                intProperty(properties, "weight.max", DEFAULT.maxWeight),
+                setProperty(properties, "genders", DEFAULT.genders),
+                setProperty(properties, "bloodGroups", DEFAULT.bloodGroups),
+                intProperty(properties, "text.maxLength", DEFAULT.maxTextLength));
+    }
+
+    /**
+     * The validator this JVM should use before signing: the file named by [CONFIG_PROPERTY], else the
+     * [CONFIG_RESOURCE] on the classpath, else [DEFAULT]. It is loaded once.
+     */
+    public static IOUValidator configured() {
+        return Configured.INSTANCE;
+    }
+
+    private static class Configured {
+        private static final IOUValidator INSTANCE = load();
+
+        private static IOUValidator load() {
+            final Properties properties = new Properties();
+            final String path = System.getProperty(CONFIG_PROPERTY);
+            try (InputStream in = path != null
+                    ? Files.newInputStream(Paths.get(path))
+                    : IOUValidator.class.getResourceAsStream(CONFIG_RESOURCE)) {
+                if (in == null) return DEFAULT;
+                properties.load(in);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot read the IOU validation rules from " + path, e);
+            }
+            return fromProperties(properties);
+        }
+    }
+
+    /**
+     * Returns a description of every rule the record breaks, or an empty list if it is valid.
+     */
+    public List<String> validate(String name, Integer age, String gender, Integer height, Integer weight,
+                                 String bloodGroup, String diagnosis, String medicine) {
+        final List<String> violations = new ArrayList<>(0);
+        checkText(violations, "name", name);
+        checkRange(violations, "age", age, minAge, maxAge);
+        if (gender == null) {
+            violations.add("The IOU's gender must not be null.");
+        } else if (!genders.contains(gender)) {
+            violations.add("The IOU's gender must be one of " + genders + ".");
+        }
+        checkRange(violations, "height", height, minHeight, maxHeight);
+        checkRange(violations, "weight", weight, minWeight, maxWeight);
+        if (bloodGroup == null) {
+            violations.add("The IOU's bloodGroup must not be null.");
+        } else if (!bloodGroups.contains(bloodGroup)) {
+            violations.add("The IOU's bloodGroup must be one of " + bloodGroups + ".");
+        }
+        checkText(violations, "diagnosis", diagnosis);
+        checkText(violations, "medicine", medicine);
+        return violations;
+    }
+
+    public List<String> validate(IOUState iou) {
+        return validate(iou.getName(), iou.getAge(), iou.getGender(), iou.getHeight(), iou.getWeight(),
+                iou.getBloodGroup(), iou.getDiagnosis(), iou.getMedicine());
+    }
+
+    public List<String> validate(PatientRecord record) {
+        return validate(record.getName(), record.getAge(), record.getGender(), record.getHeight(), record.getWeight(),
+                record.getBloodGroup(), record.getDiagnosis(), record.getMedicine());
+    }
+
+    private void checkText(List<String> violations, String field, String value) {
+        if (value == null) {
+            violations.add("The IOU's " + field + " must not be null.");
+        } else if (value.length() > maxTextLength) {
+            violations.add("The IOU's " + field + " must be at most " + maxTextLength + " characters.");
+        }
+    }
+
+    private static void checkRange(List<String> violations, String field, Integer value, int min, int max) {
+        if (value == null || value < min || value > max) {
+            violations.add("The IOU's " + field + " must be between " + min + " and " + max + ".");
+        }
+    }
+
+    private static int intProperty(Properties properties, String key, int defaultValue) {
+        final String value = properties.getProperty(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    private static Set<String> setProperty(Properties properties, String key, Set<String> defaultValue) {
+        final String value = properties.getProperty(key);
+        if (value == null) return defaultValue;
+        final Set<String> values = new LinkedHashSet<>();
+        for (String item : value.split(",")) {
+            if (!item.trim().isEmpty()) values.add(item.trim());
+        }
+        return values;
+    }
+}
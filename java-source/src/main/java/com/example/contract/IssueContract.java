@@ -7,6 +7,7 @@ import net.corda.core.contracts.Contract;
 import net.corda.core.identity.AbstractParty;
 import net.corda.core.transactions.LedgerTransaction;
 
+import java.util.List;
 import java.util.stream.Collectors;
 
 import static net.corda.core.contracts.ContractsDSL.requireSingleCommand;
@@ -19,50 +20,51 @@ public class IssueContract implements Contract {
     public static final String IOU_CONTRACT_ID = "com.example.contract.IssueContract";
 
 
+    /** The largest number of IOUs a single BatchCreate transaction may issue. */
+    public static final int MAX_BATCH_SIZE = 500;
+
     /**
      * Override verify() function.
      */
     @Override
     public void verify(LedgerTransaction tx) {
-        final CommandWithParties<Commands.Create> command = requireSingleCommand(tx.getCommands(), Commands.Create.class);
+        final CommandWithParties<Commands> command = requireSingleCommand(tx.getCommands(), Commands.class);
         requireThat(require -> {
             // Generic constraints around the IOU transaction.
             require.using("No inputs should be consumed when issuing an IOU.",
                     tx.getInputs().isEmpty());
-            require.using("Only one output state should be created.",
-                    tx.getOutputs().size() == 1);
-            final IOUState out = tx.outputsOfType(IOUState.class).get(0);
-            require.using("The hospital and the patient cannot be the same entity.",
-                    out.getHospital() != out.getPatient());
-            require.using("All of the participants must be signers.",
-                    command.getSigners().containsAll(out.getParticipants().stream().map(AbstractParty::getOwningKey).collect(Collectors.toList())));
+            if (command.getValue() instanceof Commands.BatchCreate) {
+                require.using("A batch must create between 1 and " + MAX_BATCH_SIZE + " output states.",
+                        !tx.getOutputs().isEmpty() && tx.getOutputs().size() <= MAX_BATCH_SIZE);
+            } else {
+                require.using("Only one output state should be created.",
+                        tx.getOutputs().size() == 1);
+            }
+            final List<IOUState> outputs = tx.outputsOfType(IOUState.class);
+            require.using("All of the output states must be IOUs.",
+                    outputs.size() == tx.getOutputs().size());
+
+            for (IOUState out : outputs) {
+                require.using("The hospital and the patient cannot be the same entity.",
+                        out.getHospital() != out.getPatient());
+                require.using("All of the participants must be signers.",
+                        command.getSigners().containsAll(out.getParticipants().stream().map(AbstractParty::getOwningKey).collect(Collectors.toList())));
 
-             //IOU-specific constraints.
-            require.using("The IOU's name must not be null.",
-                    out.getName() != null);
-            require.using("The IOU's age must be non-negative.",
-                    out.getAge() > 0);
-            require.using("The IOU's gender must not null.",
-                    out.getGender() != null);
-            require.using("The IOU's height must be non-negative.",
-                    out.getHeight() > 0);
-            require.using("The IOU's weight must be non-negative.",
-                    out.getWeight() > 0);
-            require.using("The IOU's bloodGroup must not be null.",
-                    out.getBloodGroup() != null);
-            require.using("The IOU's diagnosis must not be null.",
-                    out.getDiagnosis() != null);
-            require.using("The IOU's medicine must not be null.",
-                    out.getMedicine() != null);
+                // IOU-specific constraints. These are the same rules the API and IssueFlow check before signing.
+                for (String violation : IOUValidator.DEFAULT.validate(out)) {
+                    require.using(violation, false);
+                }
+            }
 
             return null;
         });
     }
 
     /**
-     * This contract only implements one command, Create.
+     * Create issues a single IOU; BatchCreate issues several IOUs in one transaction.
      */
     public interface Commands extends CommandData {
         class Create implements Commands {}
+        class BatchCreate implements Commands {}
     }
 }
\ No newline at end of file
@@ -0,0 +1,171 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.contract.IOUValidator;
+import com.example.contract.IssueContract;
+import com.example.service.DuplicatePatientService;
+import com.example.state.PatientRecord;
+import com.example.trace.SpanLog;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.ProgressTracker;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.example.contract.IssueContract.IOU_CONTRACT_ID;
+
+/**
+ * Issues several IOUs to the same patient in a single transaction, so that they share one signature round trip and
+ * one notarisation. Output i of the transaction records records[i].
+ *
+ * A batch that fails because of one of its records fails with a message naming that record (see [failedRecord]), so
+ * that callers can set it aside and retry the others.
+ */
+public class BatchIssueFlow {
+    private static final Pattern RECORD_FAILURE = Pattern.compile("^Record (\\d+): ");
+
+    static String recordFailure(int index, String reason) {
+        return "Record " + index + ": " + reason;
+    }
+
+    /**
+     * Returns the index of the record [error] blames for a failed batch, or -1 if it does not name one.
+     */
+    public static int failedRecord(Throwable error) {
+        if (!(error instanceof FlowException) || error.getMessage() == null) return -1;
+        final Matcher matcher = RECORD_FAILURE.matcher(error.getMessage());
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+
+    @InitiatingFlow
+    @StartableByRPC
+    public static class Initiator extends FlowLogic<SignedTransaction> {
+
+        private final List<PatientRecord> records;
+        private final Party otherParty;
+        private final String correlationId;
+
+        // The same steps as IssueFlow, so clients following either flow's progress see one step tree.
+        private final ProgressTracker progressTracker = IssueFlow.Initiator.tracker();
+
+        public Initiator(List<PatientRecord> records, Party otherParty) {
+            this(records, otherParty, SpanLog.newCorrelationId());
+        }
+
+        /**
+         * Issues the batch as part of the request [correlationId], which is attached to the flow's timing span and log
+         * lines (see [SpanLog]).
+         */
+        public Initiator(List<PatientRecord> records, Party otherParty, String correlationId) {
+            this.records = records;
+            this.otherParty = otherParty;
+            this.correlationId = correlationId;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            final SpanLog.Span flowSpan = SpanLog.start(correlationId, "batch-initiator",
+                    getOurIdentity().getName().getOrganisation());
+            getLogger().info("[{}] Issuing {} records to {}.", correlationId, records.size(), otherParty.getName());
+            try {
+                final SignedTransaction notarisedTx = validateAndIssue();
+                flowSpan.end(notarisedTx.getId().toString());
+                getLogger().info("[{}] Recorded {}.", correlationId, notarisedTx.getId());
+                return notarisedTx;
+            } catch (FlowException | RuntimeException e) {
+                flowSpan.end(e.toString());
+                throw e;
+            }
+        }
+
+        @Suspendable
+        private SignedTransaction validateAndIssue() throws FlowException {
+            if (records.isEmpty() || records.size() > IssueContract.MAX_BATCH_SIZE) {
+                throw new FlowException("A batch must hold between 1 and " + IssueContract.MAX_BATCH_SIZE + " records.");
+            }
+            for (int i = 0; i < records.size(); i++) {
+                final List<String> violations = IOUValidator.configured().validate(records.get(i));
+                if (!violations.isEmpty()) {
+                    throw new FlowException(recordFailure(i, String.join(" ", violations)));
+                }
+            }
+            // The patients' keys stay reserved until the IOUs are in the vault, unless we give up before then.
+            final DuplicatePatientService duplicates = getServiceHub().cordaService(DuplicatePatientService.class);
+            final int duplicate = duplicates.reserveAll(getOurIdentity(), otherParty, records);
+            if (duplicate >= 0) {
+                throw new FlowException(recordFailure(duplicate, "an IOU for " + records.get(duplicate).getName() + " has already been issued."));
+            }
+            try {
+                return issue();
+            } catch (FlowException | RuntimeException e) {
+                duplicates.releaseAll(getOurIdentity(), otherParty, records);
+                throw e;
+            }
+        }
+
+        @Suspendable
+        private SignedTransaction issue() throws FlowException {
+            // Stage 1.
+            progressTracker.setCurrentStep(IssueFlow.Initiator.GENERATING_TRANSACTION);
+            final Party me = getOurIdentity();
+            final List<Party> notaries = getServiceHub().getNetworkMapCache().getNotaryIdentities();
+            final UniqueIdentifier firstId = new UniqueIdentifier();
+            final Party notary = notaries.get(Math.floorMod(firstId.hashCode(), notaries.size()));
+            final TransactionBuilder txBuilder = new TransactionBuilder(notary)
+                    .addCommand(new Command<>(new IssueContract.Commands.BatchCreate(),
+                            ImmutableList.of(me.getOwningKey(), otherParty.getOwningKey())));
+            for (int i = 0; i < records.size(); i++) {
+                final UniqueIdentifier linearId = i == 0 ? firstId : new UniqueIdentifier();
+                txBuilder.addOutputState(records.get(i).toState(me, otherParty, linearId), IOU_CONTRACT_ID);
+            }
+
+            // Stage 2.
+            progressTracker.setCurrentStep(IssueFlow.Initiator.VERIFYING_TRANSACTION);
+            txBuilder.verify(getServiceHub());
+
+            // Stage 3.
+            progressTracker.setCurrentStep(IssueFlow.Initiator.SIGNING_TRANSACTION);
+            final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(txBuilder);
+
+            // Stage 4.
+            progressTracker.setCurrentStep(IssueFlow.Initiator.GATHERING_SIGS);
+            FlowSession otherPartySession = initiateFlow(otherParty);
+            final SignedTransaction fullySignedTx = subFlow(
+                    new CollectSignaturesFlow(partSignedTx, ImmutableSet.of(otherPartySession), CollectSignaturesFlow.Companion.tracker()));
+
+            // Stage 5.
+            progressTracker.setCurrentStep(IssueFlow.Initiator.FINALISING_TRANSACTION);
+            return subFlow(new FinalityFlow(fullySignedTx));
+        }
+    }
+
+    @InitiatedBy(Initiator.class)
+    public static class Acceptor extends FlowLogic<SignedTransaction> {
+
+        private final FlowSession otherPartyFlow;
+
+        public Acceptor(FlowSession otherPartyFlow) {
+            this.otherPartyFlow = otherPartyFlow;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            return subFlow(new CheckedSignTransactionFlow(otherPartyFlow));
+        }
+    }
+}
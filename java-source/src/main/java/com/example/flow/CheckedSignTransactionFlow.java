@@ -0,0 +1,36 @@
+package com.example.flow;
+
+import com.example.contract.IOUValidator;
+import com.example.contract.IssueContract;
+import com.example.state.IOUState;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.flows.FlowSession;
+import net.corda.core.flows.SignTransactionFlow;
+import net.corda.core.transactions.SignedTransaction;
+
+import static net.corda.core.contracts.ContractsDSL.requireThat;
+
+/**
+ * Signs a transaction issuing one or more IOUs to us, after checking every output against our validation rules.
+ */
+class CheckedSignTransactionFlow extends SignTransactionFlow {
+    CheckedSignTransactionFlow(FlowSession otherPartyFlow) {
+        super(otherPartyFlow, SignTransactionFlow.Companion.tracker());
+    }
+
+    @Override
+    protected void checkTransaction(SignedTransaction stx) {
+        requireThat(require -> {
+            require.using("A batch must not exceed " + IssueContract.MAX_BATCH_SIZE + " records.",
+                    stx.getTx().getOutputs().size() <= IssueContract.MAX_BATCH_SIZE);
+            for (TransactionState<ContractState> output : stx.getTx().getOutputs()) {
+                require.using("This must be an IOU transaction.", output.getData() instanceof IOUState);
+                for (String violation : IOUValidator.configured().validate((IOUState) output.getData())) {
+                    require.using("I won't accept this patient record. " + violation, false);
+                }
+            }
+            return null;
+        });
+    }
+}
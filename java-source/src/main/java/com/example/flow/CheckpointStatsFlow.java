@@ -0,0 +1,20 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.service.CheckpointStatsService;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+
+import java.util.Map;
+
+/**
+ * Returns the sizes of the checkpoints measured so far, by flow and suspension point.
+ */
+@StartableByRPC
+public class CheckpointStatsFlow extends FlowLogic<Map<String, Object>> {
+    @Suspendable
+    @Override
+    public Map<String, Object> call() {
+        return getServiceHub().cordaService(CheckpointStatsService.class).stats();
+    }
+}
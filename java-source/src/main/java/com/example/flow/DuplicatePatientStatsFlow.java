@@ -0,0 +1,20 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.service.DuplicatePatientService;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+
+import java.util.Map;
+
+/**
+ * Returns the node's duplicate-patient filter statistics: memory use, false positive rates and check counts.
+ */
+@StartableByRPC
+public class DuplicatePatientStatsFlow extends FlowLogic<Map<String, Object>> {
+    @Suspendable
+    @Override
+    public Map<String, Object> call() {
+        return getServiceHub().cordaService(DuplicatePatientService.class).stats();
+    }
+}
@@ -1,8 +1,14 @@
 package com.example.flow;
 
 import co.paralleluniverse.fibers.Suspendable;
+import com.example.contract.IOUValidator;
 import com.example.contract.IssueContract;
+import com.example.service.CheckpointStatsService;
+import com.example.service.DuplicatePatientService;
+import com.example.service.FinalitySpanService;
 import com.example.state.IOUState;
+import com.example.state.PatientRecord;
+import com.example.trace.SpanLog;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import net.corda.core.contracts.Command;
@@ -15,6 +21,8 @@ import net.corda.core.transactions.TransactionBuilder;
 import net.corda.core.utilities.ProgressTracker;
 import net.corda.core.utilities.ProgressTracker.Step;
 
+import java.util.List;
+
 import static com.example.contract.IssueContract.IOU_CONTRACT_ID;
 import static net.corda.core.contracts.ContractsDSL.requireThat;
 
@@ -22,58 +30,63 @@ import static net.corda.core.contracts.ContractsDSL.requireThat;
  * All methods called within the [FlowLogic] sub-class need to be annotated with the @Suspendable annotation.
  */
 public class IssueFlow {
-    @InitiatingFlow
+    /**
+     * The first version of the flow in which the initiator opens the session by sending its correlation ID. Each side
+     * checks the other's version, so nodes still running version 1 can issue to and from this one.
+     */
+    static final int CORRELATION_ID_VERSION = 2;
+
+    @InitiatingFlow(version = CORRELATION_ID_VERSION)
     @StartableByRPC
     public static class Initiator extends FlowLogic<SignedTransaction> {
-
-        private final String iouName;
-        private final int iouAge;
-        private final String iouGender;
-        private final int iouHeight;
-        private final int iouWeight;
-        private final String iouBloodGroup;
-        private final String iouDiagnosis;
-        private final String iouMedicine;
-        private final Party otherParty;
-
-        private final Step GENERATING_TRANSACTION = new Step("Generating transaction based on new IOU.");
-        private final Step VERIFYING_TRANSACTION = new Step("Verifying contract constraints.");
-        private final Step SIGNING_TRANSACTION = new Step("Signing transaction with our private key.");
-        private final Step GATHERING_SIGS = new Step("Gathering the counterparty's signature.") {
-
+        // The steps are defined once for every instance, and BatchIssueFlow shares them. Being static, the anonymous
+        // ones capture no flow instance.
+        static final Step GENERATING_TRANSACTION = new Step("Generating transaction based on new IOU.");
+        static final Step VERIFYING_TRANSACTION = new Step("Verifying contract constraints.");
+        static final Step SIGNING_TRANSACTION = new Step("Signing transaction with our private key.");
+        static final Step GATHERING_SIGS = new Step("Gathering the counterparty's signature.") {
             @Override
             public ProgressTracker childProgressTracker() {
                 return CollectSignaturesFlow.Companion.tracker();
             }
         };
-        private final Step FINALISING_TRANSACTION = new Step("Obtaining notary signature and recording transaction.") {
+        static final Step FINALISING_TRANSACTION = new Step("Obtaining notary signature and recording transaction.") {
             @Override
             public ProgressTracker childProgressTracker() {
                 return FinalityFlow.Companion.tracker();
             }
         };
 
-        // The progress tracker checkpoints each stage of the flow and outputs the specified messages when each
-        // checkpoint is reached in the code. See the 'progressTracker.currentStep' expressions within the call()
-        // function.
-        private final ProgressTracker progressTracker = new ProgressTracker(
-                GENERATING_TRANSACTION,
-                VERIFYING_TRANSACTION,
-                SIGNING_TRANSACTION,
-                GATHERING_SIGS,
-                FINALISING_TRANSACTION
-        );
+        public static ProgressTracker tracker() {
+            return new ProgressTracker(GENERATING_TRANSACTION, VERIFYING_TRANSACTION, SIGNING_TRANSACTION,
+                    GATHERING_SIGS, FINALISING_TRANSACTION);
+        }
+
+        // The flow is checkpointed at every suspension, so it holds just the record, the counterparty and the
+        // correlation ID. Anything derived from them is built in helpers that return before the flow suspends.
+        private final PatientRecord record;
+        private final Party otherParty;
+        private final String correlationId;
+        private final ProgressTracker progressTracker = tracker();
 
         public Initiator(String iouName, int iouAge, String iouGender, int iouHeight, int iouWeight, String iouBloodGroup, String iouDiagnosis, String iouMedicine, Party otherParty) {
-            this.iouName = iouName;
-            this.iouAge = iouAge;
-            this.iouGender = iouGender;
-            this.iouHeight = iouHeight;
-            this.iouWeight = iouWeight;
-            this.iouBloodGroup = iouBloodGroup;
-            this.iouDiagnosis = iouDiagnosis;
-            this.iouMedicine = iouMedicine;
+            this(iouName, iouAge, iouGender, iouHeight, iouWeight, iouBloodGroup, iouDiagnosis, iouMedicine, otherParty,
+                    SpanLog.newCorrelationId());
+        }
+
+        /**
+         * Issues the record as part of the request [correlationId], which is passed on to the counterparty and
+         * attached to the timing spans both sides record (see [SpanLog]).
+         */
+        public Initiator(String iouName, int iouAge, String iouGender, int iouHeight, int iouWeight, String iouBloodGroup, String iouDiagnosis, String iouMedicine, Party otherParty, String correlationId) {
+            this(new PatientRecord(iouName, iouAge, iouGender, iouHeight, iouWeight, iouBloodGroup, iouDiagnosis, iouMedicine),
+                    otherParty, correlationId);
+        }
+
+        public Initiator(PatientRecord record, Party otherParty, String correlationId) {
+            this.record = record;
             this.otherParty = otherParty;
+            this.correlationId = correlationId;
         }
 
         @Override
@@ -87,14 +100,94 @@ public class IssueFlow {
         @Suspendable
         @Override
         public SignedTransaction call() throws FlowException {
-            // Obtain a reference to the notary we want to use.
-            final Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
+            final String node = getOurIdentity().getName().getOrganisation();
+            final SpanLog.Span flowSpan = SpanLog.start(correlationId, "initiator", node);
+            getLogger().info("[{}] Issuing {} to {}.", correlationId, record.getName(), otherParty.getName());
+
+            // Each stage ends its own span when it succeeds. If one fails, its span and flowSpan are ended with the
+            // error instead.
+            SpanLog.Span span = SpanLog.start(correlationId, "initiator.validate", node);
+            String error = null;
+            try {
+                final String rejection = validate();
+                if (rejection != null) throw new FlowException(rejection);
+                span.end();
+
+                // The patient's key stays reserved until the IOU is in the vault, unless we give up before then.
+                try {
+                    // Stages 1 to 3: build, verify and sign the transaction.
+                    span = SpanLog.start(correlationId, "initiator.build-and-sign", node);
+                    final SignedTransaction partSignedTx = buildAndSign();
+                    span.end(partSignedTx.getId().toString());
+
+                    // Stage 4.
+                    progressTracker.setCurrentStep(GATHERING_SIGS);
+                    // Send the state to the counterparty, and receive it back with their signature.
+                    span = SpanLog.start(correlationId, "initiator.collect-signatures", node);
+                    FlowSession otherPartySession = initiateFlow(otherParty);
+                    if (otherPartySession.getCounterpartyFlowInfo().getFlowVersion() >= CORRELATION_ID_VERSION) {
+                        otherPartySession.send(correlationId);
+                    }
+                    measureCheckpoint("session-init");
+                    final SignedTransaction fullySignedTx = subFlow(
+                            new CollectSignaturesFlow(partSignedTx, ImmutableSet.of(otherPartySession), CollectSignaturesFlow.Companion.tracker()));
+                    measureCheckpoint("signatures-collected");
+                    span.end();
 
+                    // Stage 5.
+                    progressTracker.setCurrentStep(FINALISING_TRANSACTION);
+                    // Notarise and record the transaction in both parties' vaults.
+                    span = SpanLog.start(correlationId, "initiator.finality", node);
+                    final SignedTransaction notarisedTx = subFlow(new FinalityFlow(fullySignedTx));
+                    measureCheckpoint("finalised");
+                    span.end(notarisedTx.getId().toString());
+                    flowSpan.end(notarisedTx.getId().toString());
+                    getLogger().info("[{}] Recorded {}.", correlationId, notarisedTx.getId());
+                    return notarisedTx;
+                } catch (FlowException | RuntimeException e) {
+                    getServiceHub().cordaService(DuplicatePatientService.class).release(getOurIdentity(), otherParty, record);
+                    throw e;
+                }
+            } catch (FlowException | RuntimeException e) {
+                error = e.toString();
+                throw e;
+            } finally {
+                if (error != null) {
+                    span.end(error);
+                    flowSpan.end(error);
+                }
+            }
+        }
+
+        /**
+         * Rejects invalid records and duplicates before we sign anything or contact the counterparty, and reserves the
+         * patient's key against concurrent issuances. Returns the reason for rejecting the record, or null to go ahead.
+         */
+        private String validate() {
+            final List<String> violations = IOUValidator.configured().validate(record);
+            if (!violations.isEmpty()) {
+                return String.join(" ", violations);
+            }
+            if (!getServiceHub().cordaService(DuplicatePatientService.class).reserve(getOurIdentity(), otherParty, record)) {
+                return "An IOU for " + record.getName() + " has already been issued to " + otherParty.getName() + ".";
+            }
+            return null;
+        }
+
+        /**
+         * Builds, verifies and signs the issuance. Nothing here suspends, so the builder and the state never reach a
+         * checkpoint.
+         */
+        private SignedTransaction buildAndSign() throws FlowException {
             // Stage 1.
             progressTracker.setCurrentStep(GENERATING_TRANSACTION);
             // Generate an unsigned transaction.
-            Party me = getOurIdentity();
-            IOUState iouState = new IOUState(me, otherParty, iouName, iouAge, iouGender, iouHeight, iouWeight, iouBloodGroup, iouDiagnosis, iouMedicine, new UniqueIdentifier());
+            final IOUState iouState = record.toState(getOurIdentity(), otherParty, new UniqueIdentifier());
+
+            // Obtain a reference to the notary we want to use. Issuances have no inputs, so when the network runs
+            // several notaries we spread the load across them by linearId.
+            final List<Party> notaries = getServiceHub().getNetworkMapCache().getNotaryIdentities();
+            final Party notary = notaries.get(Math.floorMod(iouState.getLinearId().hashCode(), notaries.size()));
             final Command<IssueContract.Commands.Create> txCommand = new Command<>(
                     new IssueContract.Commands.Create(),
                     ImmutableList.of(iouState.getHospital().getOwningKey(), iouState.getPatient().getOwningKey()));
@@ -110,19 +203,11 @@ public class IssueFlow {
             // Stage 3.
             progressTracker.setCurrentStep(SIGNING_TRANSACTION);
             // Sign the transaction.
-            final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(txBuilder);
-
-            // Stage 4.
-            progressTracker.setCurrentStep(GATHERING_SIGS);
-            // Send the state to the counterparty, and receive it back with their signature.
-            FlowSession otherPartySession = initiateFlow(otherParty);
-            final SignedTransaction fullySignedTx = subFlow(
-                    new CollectSignaturesFlow(partSignedTx, ImmutableSet.of(otherPartySession), CollectSignaturesFlow.Companion.tracker()));
-
-            // Stage 5.
-            progressTracker.setCurrentStep(FINALISING_TRANSACTION);
-            // Notarise and record the transaction in both parties' vaults.
-            return subFlow(new FinalityFlow(fullySignedTx));
+            return getServiceHub().signInitialTransaction(txBuilder);
+        }
+
+        private void measureCheckpoint(String point) {
+            getServiceHub().cordaService(CheckpointStatsService.class).measure(this, point);
         }
     }
 
@@ -149,19 +234,32 @@ public class IssueFlow {
                         ContractState output = stx.getTx().getOutputs().get(0).getData();
                         require.using("This must be an IOU transaction.", output instanceof IOUState);
                         IOUState iou = (IOUState) output;
-                            require.using("I won't accept patients with a name that is missing or has wrong format.", iou.getName() != null);
-                            require.using("I won't accept patients with age that is negtive.", iou.getAge() <= 150);
-                            require.using("I won't accept patients with a wrong gender information.", iou.getGender().equals("Male") || iou.getGender().equals("Female") || iou.getGender().equals("Other"));
-                            require.using("I won't accept patients with a wrong blood group information.", iou.getBloodGroup().equals("A(positive)") || iou.getBloodGroup().equals("A(negative)")
-                                || iou.getBloodGroup().equals("B(positive)") || iou.getBloodGroup().equals("B(negative)")
-                                || iou.getBloodGroup().equals("AB(positive)") || iou.getBloodGroup().equals("AB(negative)")
-                                || iou.getBloodGroup().equals("O(positive)") || iou.getBloodGroup().equals("O(negative)"));
+                        for (String violation : IOUValidator.configured().validate(iou)) {
+                            require.using("I won't accept this patient record. " + violation, false);
+                        }
                         return null;
                     });
                 }
             }
 
-            return subFlow(new SignTxFlow(otherPartyFlow, SignTransactionFlow.Companion.tracker()));
+            // A version 2 initiator sends its correlation ID first, so our spans join the same trace as its own.
+            final String correlationId = otherPartyFlow.getCounterpartyFlowInfo().getFlowVersion() >= CORRELATION_ID_VERSION
+                    ? otherPartyFlow.receive(String.class).unwrap(id -> id)
+                    : SpanLog.newCorrelationId();
+            final String node = getOurIdentity().getName().getOrganisation();
+            final SpanLog.Span flowSpan = SpanLog.start(correlationId, "acceptor", node);
+            getLogger().info("[{}] Signing an IOU from {}.", correlationId, otherPartyFlow.getCounterparty().getName());
+            final SpanLog.Span span = SpanLog.start(correlationId, "acceptor.sign", node);
+            final SignedTransaction signedTx = subFlow(new SignTxFlow(otherPartyFlow, SignTransactionFlow.Companion.tracker()));
+            span.end(signedTx.getId().toString());
+
+            // Finality is driven by the initiator, so on our side it shows as the wait for the transaction to reach
+            // our vault. We don't wait in the flow: if the initiator fails, the transaction never comes.
+            getServiceHub().cordaService(FinalitySpanService.class).await(signedTx.getId(),
+                    SpanLog.start(correlationId, "acceptor.await-finality", node));
+            flowSpan.end(signedTx.getId().toString());
+            getLogger().info("[{}] Signed {}.", correlationId, signedTx.getId());
+            return signedTx;
         }
     }
 }
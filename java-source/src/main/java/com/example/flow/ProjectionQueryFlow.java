@@ -0,0 +1,52 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.query.IOUProjection;
+import com.example.service.IOUProjectionService;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.node.services.Vault;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Returns a page of IOU rows with only the given columns, read by [IOUProjectionService].
+ */
+@StartableByRPC
+public class ProjectionQueryFlow extends FlowLogic<IOUProjection> {
+    private final List<String> columns;
+    private final Vault.StateStatus status;
+    private final String hospital;
+    private final String nameFilter;
+    private final int page;
+    private final int pageSize;
+
+    /**
+     * @param hospital the X.500 name of the issuing hospital, or null to match every hospital.
+     * @param nameFilter text the patient's name must contain, or null to match every name.
+     */
+    public ProjectionQueryFlow(List<String> columns, Vault.StateStatus status, String hospital, String nameFilter,
+                               int page, int pageSize) {
+        this.columns = columns;
+        this.status = status;
+        this.hospital = hospital;
+        this.nameFilter = nameFilter;
+        this.page = page;
+        this.pageSize = pageSize;
+    }
+
+    @Suspendable
+    @Override
+    public IOUProjection call() throws FlowException {
+        try {
+            return getServiceHub().cordaService(IOUProjectionService.class)
+                    .query(columns, status, hospital, nameFilter, page, pageSize);
+        } catch (IllegalArgumentException e) {
+            throw new FlowException(e.getMessage());
+        } catch (SQLException e) {
+            throw new FlowException("The projection query failed: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.contract.IssueContract;
+import com.example.seed.PatientRecordGenerator;
+import com.example.state.IOUState;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.Command;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.contract.IssueContract.IOU_CONTRACT_ID;
+import static com.example.contract.IssueContract.MAX_BATCH_SIZE;
+
+/**
+ * Writes generated IOUs straight into this node's vault, for setting up benchmarks quickly.
+ *
+ * Records [from] to [from] + [count] of a [PatientRecordGenerator] are issued to [patient] in BatchCreate
+ * transactions. Each transaction is verified against the contract, but it is signed by us alone and recorded locally.
+ * It is not sent to the patient or notarised, so the states exist only in this vault and cannot be spent. Seeding the
+ * same range with the same seed gives the same states and transaction IDs.
+ *
+ * Because this bypasses consensus, nodes refuse it unless they run with `carechain.seed.enabled=true`. Everything
+ * is written in the flow's one database transaction, so [count] is capped at [MAX_COUNT]; seed larger vaults in
+ * several calls.
+ */
+@StartableByRPC
+public class SeedVaultFlow extends FlowLogic<Integer> {
+    public static final int MAX_COUNT = 20000;
+    public static final boolean ENABLED = Boolean.getBoolean("carechain.seed.enabled");
+
+    private final Party patient;
+    private final long seed;
+    private final long from;
+    private final int count;
+
+    public SeedVaultFlow(Party patient, long seed, long from, int count) {
+        this.patient = patient;
+        this.seed = seed;
+        this.from = from;
+        this.count = count;
+    }
+
+    @Suspendable
+    @Override
+    public Integer call() throws FlowException {
+        if (!ENABLED) {
+            throw new FlowException("Seeding is disabled. Start the node with -Dcarechain.seed.enabled=true to allow it.");
+        }
+        if (count < 1 || count > MAX_COUNT) {
+            throw new FlowException("Between 1 and " + MAX_COUNT + " records can be seeded at a time.");
+        }
+        final PatientRecordGenerator generator = new PatientRecordGenerator(seed);
+        final Party me = getOurIdentity();
+        final Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
+        final List<SignedTransaction> transactions = new ArrayList<>();
+        for (long first = from; first < from + count; first += MAX_BATCH_SIZE) {
+            final long end = Math.min(first + MAX_BATCH_SIZE, from + count);
+            final TransactionBuilder txBuilder = new TransactionBuilder(notary, getRunId().getUuid(), new ArrayList<>(),
+                    new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), null, generator.privacySalt(first))
+                    .addCommand(new Command<>(new IssueContract.Commands.BatchCreate(),
+                            ImmutableList.of(me.getOwningKey(), patient.getOwningKey())));
+            for (long index = first; index < end; index++) {
+                final IOUState state = generator.record(index).toState(me, patient, generator.linearId(index));
+                txBuilder.addOutputState(state, IOU_CONTRACT_ID);
+            }
+            txBuilder.verify(getServiceHub());
+            transactions.add(getServiceHub().signInitialTransaction(txBuilder));
+        }
+        getServiceHub().recordTransactions(transactions);
+        getLogger().info("Seeded {} IOUs for {} in {} transactions.", count, patient.getName(), transactions.size());
+        return count;
+    }
+}
@@ -0,0 +1,225 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.contract.IOUValidator;
+import com.example.contract.IssueContract;
+import com.example.service.DuplicatePatientService;
+import com.example.service.IssuanceQueueService;
+import com.example.service.IssuanceQueueService.QueuedRecord;
+import com.example.state.PatientRecord;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.core.utilities.ProgressTracker.Step;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static com.example.contract.IssueContract.IOU_CONTRACT_ID;
+
+/**
+ * Issues a stream of IOUs to one patient over a single long-lived session.
+ *
+ * [IssueFlow] pays for a flow start, a session handshake and several checkpoints on both nodes for every record.
+ * Here records are queued on the node with [Enqueue], and one [Initiator] per patient drains the queue in
+ * micro-batches of up to [IssuanceQueueService.MAX_BATCH] records, reusing the same session for every signature
+ * round trip. When the queue runs dry the initiator tells the [Responder] to stop and both flows end.
+ *
+ * Notarisation and distribution still go through [FinalityFlow], which opens its own sessions per transaction.
+ *
+ * A batch the patient refuses is not queued again, since it would only be refused again. Its records are reported
+ * by [Failures], and a new stream is started for the records queued behind it.
+ */
+public class StreamingIssueFlow {
+    /**
+     * Validates [records] and queues them for issuance to [otherParty]. Returns as soon as they are queued, with the
+     * linear ids they will be issued under.
+     */
+    @StartableByRPC
+    public static class Enqueue extends FlowLogic<List<UniqueIdentifier>> {
+
+        private final List<PatientRecord> records;
+        private final Party otherParty;
+
+        public Enqueue(List<PatientRecord> records, Party otherParty) {
+            this.records = records;
+            this.otherParty = otherParty;
+        }
+
+        @Suspendable
+        @Override
+        public List<UniqueIdentifier> call() throws FlowException {
+            for (int i = 0; i < records.size(); i++) {
+                final List<String> violations = IOUValidator.configured().validate(records.get(i));
+                if (!violations.isEmpty()) {
+                    throw new FlowException("Record " + i + ": " + String.join(" ", violations));
+                }
+            }
+            // The keys stay reserved while the records are queued, and until they are issued or given up on.
+            final DuplicatePatientService duplicates = getServiceHub().cordaService(DuplicatePatientService.class);
+            final int duplicate = duplicates.reserveAll(getOurIdentity(), otherParty, records);
+            if (duplicate >= 0) {
+                throw new FlowException("Record " + duplicate + ": an IOU for " + records.get(duplicate).getName() + " has already been issued.");
+            }
+            try {
+                return getServiceHub().cordaService(IssuanceQueueService.class).enqueue(otherParty, records);
+            } catch (IllegalStateException e) {
+                duplicates.releaseAll(getOurIdentity(), otherParty, records);
+                throw new FlowException(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns, for those of [linearIds] that a stream gave up on, the reason they were not issued. A linear id that is
+     * neither in the vault nor reported here is still queued.
+     */
+    @StartableByRPC
+    public static class Failures extends FlowLogic<Map<UniqueIdentifier, String>> {
+
+        private final List<UniqueIdentifier> linearIds;
+
+        public Failures(List<UniqueIdentifier> linearIds) {
+            this.linearIds = linearIds;
+        }
+
+        @Override
+        public Map<UniqueIdentifier, String> call() {
+            return getServiceHub().cordaService(IssuanceQueueService.class).getFailures(linearIds);
+        }
+    }
+
+    @InitiatingFlow
+    @StartableByService
+    public static class Initiator extends FlowLogic<Integer> {
+
+        private final Party otherParty;
+
+        private final Step STREAMING = new Step("Issuing queued records.");
+        private final Step CLOSING = new Step("Queue is empty, closing the stream.");
+
+        private final ProgressTracker progressTracker = new ProgressTracker(STREAMING, CLOSING);
+
+        public Initiator(Party otherParty) {
+            this.otherParty = otherParty;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        /**
+         * Returns the number of records issued before the stream went idle.
+         */
+        @Suspendable
+        @Override
+        public Integer call() throws FlowException {
+            progressTracker.setCurrentStep(STREAMING);
+            final IssuanceQueueService queue = getServiceHub().cordaService(IssuanceQueueService.class);
+            final FlowSession session = initiateFlow(otherParty);
+            int issued = 0;
+            // The records drained from the queue that have not yet gone to the notary. If the stream fails, they go
+            // back on the queue; the patient's streaming flag is released on every way out of this loop.
+            List<QueuedRecord> batch = ImmutableList.of();
+            boolean released = false;
+            try {
+                while (true) {
+                    batch = queue.drain(otherParty, IssuanceQueueService.MAX_BATCH);
+                    if (batch.isEmpty()) {
+                        if (queue.retireIfIdle(otherParty)) break;
+                        continue;
+                    }
+                    final SignedTransaction fullySignedTx;
+                    try {
+                        session.send(true);
+                        fullySignedTx = subFlow(new CollectSignaturesFlow(sign(batch), ImmutableSet.of(session)));
+                    } catch (FlowException e) {
+                        // The contract or the patient refused this batch; queueing it again would only be refused again.
+                        getLogger().error("A batch of {} records to {} was refused: {}", batch.size(), otherParty.getName(), e.getMessage());
+                        released = true;
+                        giveUp(queue, batch, "Refused: " + e.getMessage());
+                        throw e;
+                    }
+
+                    // Once the transaction has gone to the notary it may have been committed, so the batch must not
+                    // be queued again whatever happens next.
+                    final List<QueuedRecord> notarising = batch;
+                    batch = ImmutableList.of();
+                    try {
+                        subFlow(new FinalityFlow(fullySignedTx));
+                    } catch (FlowException | RuntimeException e) {
+                        released = true;
+                        giveUp(queue, notarising, "Transaction " + fullySignedTx.getId()
+                                + " may not have been recorded: " + e.getMessage());
+                        throw e;
+                    }
+                    queue.recordIssued(notarising.size());
+                    issued += notarising.size();
+                }
+                released = true;
+            } finally {
+                if (!released) {
+                    queue.abandon(otherParty, batch);
+                }
+            }
+            progressTracker.setCurrentStep(CLOSING);
+            session.send(false);
+            return issued;
+        }
+
+        /**
+         * Reports [failed] as not issued and frees their patients' keys, so that they can be queued again.
+         */
+        private void giveUp(IssuanceQueueService queue, List<QueuedRecord> failed, String reason) {
+            getServiceHub().cordaService(DuplicatePatientService.class).releaseAll(getOurIdentity(), otherParty,
+                    failed.stream().map(QueuedRecord::getRecord).collect(Collectors.toList()));
+            queue.fail(otherParty, failed, reason);
+        }
+
+        private SignedTransaction sign(List<QueuedRecord> batch) throws FlowException {
+            final Party me = getOurIdentity();
+            final List<Party> notaries = getServiceHub().getNetworkMapCache().getNotaryIdentities();
+            final Party notary = notaries.get(Math.floorMod(batch.get(0).getLinearId().hashCode(), notaries.size()));
+            final TransactionBuilder txBuilder = new TransactionBuilder(notary)
+                    .addCommand(new Command<>(new IssueContract.Commands.BatchCreate(),
+                            ImmutableList.of(me.getOwningKey(), otherParty.getOwningKey())));
+            for (QueuedRecord queued : batch) {
+                txBuilder.addOutputState(queued.getRecord().toState(me, otherParty, queued.getLinearId()), IOU_CONTRACT_ID);
+            }
+            txBuilder.verify(getServiceHub());
+            return getServiceHub().signInitialTransaction(txBuilder);
+        }
+    }
+
+    @InitiatedBy(Initiator.class)
+    public static class Responder extends FlowLogic<Integer> {
+
+        private final FlowSession otherPartyFlow;
+
+        public Responder(FlowSession otherPartyFlow) {
+            this.otherPartyFlow = otherPartyFlow;
+        }
+
+        /**
+         * Signs batches until the initiator says the stream is over, and returns how many it signed.
+         */
+        @Suspendable
+        @Override
+        public Integer call() throws FlowException {
+            int signed = 0;
+            while (otherPartyFlow.receive(Boolean.class).unwrap(more -> more)) {
+                subFlow(new CheckedSignTransactionFlow(otherPartyFlow));
+                signed++;
+            }
+            return signed;
+        }
+    }
+}
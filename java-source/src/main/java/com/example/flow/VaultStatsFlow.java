@@ -0,0 +1,20 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.service.VaultStatsService;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+
+import java.util.Map;
+
+/**
+ * Returns the node's IOU vault statistics: row counts by status, state and index sizes, and issuance rates.
+ */
+@StartableByRPC
+public class VaultStatsFlow extends FlowLogic<Map<String, Object>> {
+    @Suspendable
+    @Override
+    public Map<String, Object> call() {
+        return getServiceHub().cordaService(VaultStatsService.class).stats();
+    }
+}
@@ -1,6 +1,8 @@
 package com.example.plugin;
 
 import com.example.api.Api;
+import com.example.api.CompressionFilter;
+import com.example.api.StaticAssets;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -13,9 +15,13 @@ import java.util.function.Function;
 
 public class ExamplePlugin implements WebServerPluginRegistry {
     /**
-     * A list of classes that expose web APIs.
+     * A list of classes that expose web APIs. Jersey also accepts providers here, which is how the response
+     * compression filter gets registered.
      */
-    private final List<Function<CordaRPCOps, ?>> webApis = ImmutableList.of(Api::new);
+    private final List<Function<CordaRPCOps, ?>> webApis = ImmutableList.of(
+            Api::new,
+            rpcOps -> new CompressionFilter(),
+            rpcOps -> new StaticAssets(getStaticServeDirs()));
 
     /**
      * A list of directories in the resources directory that will be served by Jetty under /web.
@@ -0,0 +1,412 @@
+package com.example.query;
+
+import com.example.state.IOUState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Observable;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory, column-oriented copy of the fields of unconsumed IOUs that population statistics are computed over.
+ *
+ * Age, height and weight are held in `int[]` columns, and gender and blood group in `byte[]` columns of codes into
+ * small dictionaries, so a row costs 14 bytes of column data plus its entry in the state ref index, against several
+ * hundred bytes for a deserialised [StateAndRef]. Consumed states are removed by moving the last row into their place,
+ * which keeps the columns dense.
+ *
+ * Scans split the rows into ranges on the common fork/join pool, and filter on dictionary codes and integer ranges
+ * without creating an object per row. Updates take the write lock, scans the read lock.
+ */
+public class ColumnarIOUStore {
+    public enum Column { AGE, HEIGHT, WEIGHT }
+
+    static final int SCAN_THRESHOLD = 1 << 16;
+    static final int BACKFILL_PAGE_SIZE = 5000;
+    /** Values beyond the first 255 distinct ones in a dictionary all share this code. */
+    static final int OVERFLOW_CODE = 255;
+    static final String OVERFLOW_VALUE = "(other)";
+
+    static private final Logger logger = LoggerFactory.getLogger(ColumnarIOUStore.class);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<StateRef, Integer> rowOf = new HashMap<>();
+    private final Dictionary genders = new Dictionary();
+    private final Dictionary bloodGroups = new Dictionary();
+    private StateRef[] refs = new StateRef[1024];
+    private int[] ages = new int[1024];
+    private int[] heights = new int[1024];
+    private int[] weights = new int[1024];
+    private byte[] genderCodes = new byte[1024];
+    private byte[] bloodGroupCodes = new byte[1024];
+    private int rows;
+
+    /** States consumed while the back-fill is running, which it must not add. */
+    private Set<StateRef> consumedDuringBackfill = new HashSet<>();
+
+    /**
+     * Tracks the vault from now on, then back-fills the states that were unconsumed before we started.
+     */
+    public void attach(CordaRPCOps rpcOps, Observable<Vault.Update<IOUState>> updates) {
+        updates.subscribe(this::apply, error -> logger.error("Vault update stream failed, analytics are now stale.", error));
+        final Thread backfill = new Thread(() -> backfill(rpcOps), "columnar-backfill");
+        backfill.setDaemon(true);
+        backfill.start();
+    }
+
+    private void backfill(CordaRPCOps rpcOps) {
+        final QueryCriteria unconsumed = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED);
+        final long started = System.nanoTime();
+        try {
+            for (int pageNumber = 1; ; pageNumber++) {
+                final Vault.Page<IOUState> page = rpcOps.vaultQueryByWithPagingSpec(
+                        IOUState.class, unconsumed, new PageSpecification(pageNumber, BACKFILL_PAGE_SIZE));
+                lock.writeLock().lock();
+                try {
+                    for (StateAndRef<IOUState> state : page.getStates()) {
+                        if (!consumedDuringBackfill.contains(state.getRef())) add(state);
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                if ((long) pageNumber * BACKFILL_PAGE_SIZE >= page.getTotalStatesAvailable()) break;
+            }
+            logger.info("Loaded {} IOUs into the analytics store in {}ms.", size(), (System.nanoTime() - started) / 1000000);
+        } catch (Exception e) {
+            logger.error("Back-filling the analytics store failed.", e);
+        } finally {
+            lock.writeLock().lock();
+            consumedDuringBackfill = null;
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void apply(Vault.Update<IOUState> update) {
+        lock.writeLock().lock();
+        try {
+            for (StateAndRef<IOUState> state : update.getConsumed()) {
+                remove(state.getRef());
+                if (consumedDuringBackfill != null) consumedDuringBackfill.add(state.getRef());
+            }
+            for (StateAndRef<IOUState> state : update.getProduced()) add(state);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void add(StateAndRef<IOUState> state) {
+        final IOUState iou = state.getState().getData();
+        add(state.getRef(), iou.getAge(), iou.getGender(), iou.getHeight(), iou.getWeight(), iou.getBloodGroup());
+    }
+
+    /**
+     * Adds a row, or does nothing if [ref] is already held. Callers other than tests hold the write lock.
+     */
+    void add(StateRef ref, int age, String gender, int height, int weight, String bloodGroup) {
+        if (rowOf.containsKey(ref)) return;
+        if (rows == ages.length) grow(rows * 2);
+        refs[rows] = ref;
+        ages[rows] = age;
+        heights[rows] = height;
+        weights[rows] = weight;
+        genderCodes[rows] = (byte) genders.encode(gender);
+        bloodGroupCodes[rows] = (byte) bloodGroups.encode(bloodGroup);
+        rowOf.put(ref, rows++);
+    }
+
+    void remove(StateRef ref) {
+        final Integer row = rowOf.remove(ref);
+        if (row == null) return;
+        final int last = --rows;
+        if (row != last) {
+            refs[row] = refs[last];
+            ages[row] = ages[last];
+            heights[row] = heights[last];
+            weights[row] = weights[last];
+            genderCodes[row] = genderCodes[last];
+            bloodGroupCodes[row] = bloodGroupCodes[last];
+            rowOf.put(refs[row], row);
+        }
+        refs[last] = null;
+    }
+
+    private void grow(int capacity) {
+        refs = Arrays.copyOf(refs, capacity);
+        ages = Arrays.copyOf(ages, capacity);
+        heights = Arrays.copyOf(heights, capacity);
+        weights = Arrays.copyOf(weights, capacity);
+        genderCodes = Arrays.copyOf(genderCodes, capacity);
+        bloodGroupCodes = Arrays.copyOf(bloodGroupCodes, capacity);
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return rows;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Which rows a scan looks at. Null fields match everything.
+     */
+    public static class Filter {
+        private final String gender;
+        private final String bloodGroup;
+        private final Column rangeColumn;
+        private final int min;
+        private final int max;
+
+        public Filter(String gender, String bloodGroup, Column rangeColumn, int min, int max) {
+            this.gender = gender;
+            this.bloodGroup = bloodGroup;
+            this.rangeColumn = rangeColumn;
+            this.min = min;
+            this.max = max;
+        }
+
+        public static final Filter ALL = new Filter(null, null, null, 0, 0);
+
+        public static Filter by(String gender, String bloodGroup) {
+            return new Filter(gender, bloodGroup, null, 0, 0);
+        }
+    }
+
+    /**
+     * A filter with its dictionary values resolved to codes, valid for one scan under the read lock.
+     */
+    private class BoundFilter {
+        private final int genderCode;
+        private final int bloodGroupCode;
+        private final int[] range;
+        private final int min;
+        private final int max;
+        private final boolean matchesNothing;
+
+        private BoundFilter(Filter filter) {
+            genderCode = filter.gender == null ? -1 : genders.lookup(filter.gender);
+            bloodGroupCode = filter.bloodGroup == null ? -1 : bloodGroups.lookup(filter.bloodGroup);
+            matchesNothing = (filter.gender != null && genderCode < 0) || (filter.bloodGroup != null && bloodGroupCode < 0);
+            range = filter.rangeColumn == null ? null : column(filter.rangeColumn);
+            min = filter.min;
+            max = filter.max;
+        }
+
+        private boolean matches(int row) {
+            return (genderCode < 0 || (genderCodes[row] & 0xFF) == genderCode)
+                    && (bloodGroupCode < 0 || (bloodGroupCodes[row] & 0xFF) == bloodGroupCode)
+                    && (range == null || (range[row] >= min && range[row] <= max));
+        }
+    }
+
+    private int[] column(Column column) {
+        switch (column) {
+            case AGE: return ages;
+            case HEIGHT: return heights;
+            default: return weights;
+        }
+    }
+
+    /**
+     * Counts rows per bucket of [bucketWidth] values of [column], among the rows matching [filter]. Bucket i holds
+     * values in [i * bucketWidth, (i + 1) * bucketWidth); negative values are counted in bucket 0.
+     */
+    public long[] histogram(Column column, int bucketWidth, Filter filter) {
+        if (bucketWidth < 1) throw new IllegalArgumentException("Bucket width must be positive.");
+        lock.readLock().lock();
+        try {
+            final BoundFilter bound = new BoundFilter(filter);
+            if (bound.matchesNothing || rows == 0) return new long[0];
+            final int[] values = column(column);
+            final int buckets = max(values) / bucketWidth + 1;
+            return ForkJoinPool.commonPool().invoke(new HistogramScan(values, bucketWidth, buckets, bound, 0, rows));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int max(int[] values) {
+        int max = 0;
+        for (int row = 0; row < rows; row++) max = Math.max(max, values[row]);
+        return max;
+    }
+
+    private class HistogramScan extends RecursiveTask<long[]> {
+        private final int[] values;
+        private final int bucketWidth;
+        private final int buckets;
+        private final BoundFilter filter;
+        private final int from;
+        private final int to;
+
+        private HistogramScan(int[] values, int bucketWidth, int buckets, BoundFilter filter, int from, int to) {
+            this.values = values;
+            this.bucketWidth = bucketWidth;
+            this.buckets = buckets;
+            this.filter = filter;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (to - from > SCAN_THRESHOLD) {
+                final int middle = (from + to) >>> 1;
+                final HistogramScan left = new HistogramScan(values, bucketWidth, buckets, filter, from, middle);
+                left.fork();
+                final long[] right = new HistogramScan(values, bucketWidth, buckets, filter, middle, to).compute();
+                final long[] counts = left.join();
+                for (int i = 0; i < buckets; i++) counts[i] += right[i];
+                return counts;
+            }
+            final long[] counts = new long[buckets];
+            for (int row = from; row < to; row++) {
+                if (filter.matches(row)) counts[Math.max(0, values[row]) / bucketWidth]++;
+            }
+            return counts;
+        }
+    }
+
+    /**
+     * Returns the exact [percentiles] (each between 0 and 100) of [column] among the rows matching [filter], or an
+     * empty array if no rows match. Uses the nearest-rank method over a histogram with a bucket per value.
+     */
+    public int[] percentiles(Column column, double[] percentiles, Filter filter) {
+        final long[] counts = histogram(column, 1, filter);
+        long total = 0;
+        for (long count : counts) total += count;
+        if (total == 0) return new int[0];
+        final int[] result = new int[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            final long rank = Math.max(1, (long) Math.ceil(percentiles[i] / 100 * total));
+            long seen = 0;
+            int value = 0;
+            while (value < counts.length - 1 && seen + counts[value] < rank) seen += counts[value++];
+            result[i] = value;
+        }
+        return result;
+    }
+
+    /**
+     * For each blood group, the number of rows matching [filter] and the mean age, height and weight of those rows.
+     */
+    public Map<String, Map<String, Object>> byBloodGroup(Filter filter) {
+        lock.readLock().lock();
+        try {
+            final BoundFilter bound = new BoundFilter(filter);
+            final Map<String, Map<String, Object>> summary = new TreeMap<>();
+            if (bound.matchesNothing || rows == 0) return summary;
+            final long[][] sums = ForkJoinPool.commonPool().invoke(new GroupScan(bound, 0, rows));
+            for (int code = 0; code < 256; code++) {
+                final long count = sums[code][0];
+                if (count == 0) continue;
+                final Map<String, Object> group = new LinkedHashMap<>();
+                group.put("count", count);
+                group.put("meanAge", (double) sums[code][1] / count);
+                group.put("meanHeight", (double) sums[code][2] / count);
+                group.put("meanWeight", (double) sums[code][3] / count);
+                summary.put(bloodGroups.decode(code), group);
+            }
+            return summary;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private class GroupScan extends RecursiveTask<long[][]> {
+        private final BoundFilter filter;
+        private final int from;
+        private final int to;
+
+        private GroupScan(BoundFilter filter, int from, int to) {
+            this.filter = filter;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected long[][] compute() {
+            if (to - from > SCAN_THRESHOLD) {
+                final int middle = (from + to) >>> 1;
+                final GroupScan left = new GroupScan(filter, from, middle);
+                left.fork();
+                final long[][] right = new GroupScan(filter, middle, to).compute();
+                final long[][] sums = left.join();
+                for (int code = 0; code < 256; code++) {
+                    for (int j = 0; j < 4; j++) sums[code][j] += right[code][j];
+                }
+                return sums;
+            }
+            final long[][] sums = new long[256][4];
+            for (int row = from; row < to; row++) {
+                if (!filter.matches(row)) continue;
+                final long[] group = sums[bloodGroupCodes[row] & 0xFF];
+                group[0]++;
+                group[1] += ages[row];
+                group[2] += heights[row];
+                group[3] += weights[row];
+            }
+            return sums;
+        }
+    }
+
+    /**
+     * Reports the row count, the size of each dictionary and an estimate of the memory held: the columns as
+     * allocated, plus roughly 120 bytes per row for the state ref index entry.
+     */
+    public Map<String, Object> stats() {
+        lock.readLock().lock();
+        try {
+            final Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("rows", rows);
+            stats.put("genders", genders.size());
+            stats.put("bloodGroups", bloodGroups.size());
+            stats.put("columnBytes", (long) ages.length * (3 * Integer.BYTES + 2 + 4));
+            stats.put("indexBytes", (long) rows * 120);
+            return stats;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Maps the distinct values of a categorical column to codes 0 to 254, with [OVERFLOW_CODE] for any beyond that.
+     */
+    private static class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        private int encode(String value) {
+            final Integer code = codes.get(value);
+            if (code != null) return code;
+            if (values.size() == OVERFLOW_CODE) return OVERFLOW_CODE;
+            codes.put(value, values.size());
+            values.add(value);
+            return values.size() - 1;
+        }
+
+        private int lookup(String value) {
+            final Integer code = codes.get(value);
+            return code == null ? -1 : code;
+        }
+
+        private String decode(int code) {
+            return code == OVERFLOW_CODE ? OVERFLOW_VALUE : values.get(code);
+        }
+
+        private int size() {
+            return values.size();
+        }
+    }
+}
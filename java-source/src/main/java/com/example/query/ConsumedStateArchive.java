@@ -0,0 +1,304 @@
+package com.example.query;
+
+import com.example.state.IOUState;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Observable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An append-only archive of consumed IOU states, kept in compressed segment files outside the node database.
+ *
+ * Consumed states are buffered and written in blocks, each block being a self-contained gzip member holding one JSON
+ * record per line. A single index file maps every archived linearId to the blocks holding its history, so a lookup
+ * only decompresses the blocks it needs. The index is loaded into memory on start-up and is also used to skip states
+ * that have already been archived, which makes re-running the back-fill after a restart harmless.
+ *
+ * Archived state refs are not held in memory. They are added to a Bloom filter sized with [EXPECTED_STATES], and a
+ * possible hit is confirmed by reading the indexed blocks of the state's linearId, so memory stays fixed however
+ * large the archive grows. Past [EXPECTED_STATES] states only the number of confirming reads goes up.
+ */
+public class ConsumedStateArchive implements Closeable {
+    static final int BLOCK_RECORDS = Integer.getInteger("carechain.archive.blockRecords", 256);
+    static final long SEGMENT_BYTES = Long.getLong("carechain.archive.segmentBytes", 64L * 1024 * 1024);
+    static final long EXPECTED_STATES = Long.getLong("carechain.archive.expectedStates", 1000000);
+    static final long FLUSH_INTERVAL_SECONDS = 5;
+    static final int BACKFILL_PAGE_SIZE = 1000;
+
+    private static final String INDEX_FILE = "archive.idx";
+    static private final Logger logger = LoggerFactory.getLogger(ConsumedStateArchive.class);
+
+    private final Path directory;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ListMultimap<UUID, Location> index = ArrayListMultimap.create();
+    private final BloomFilter<CharSequence> archivedRefs =
+            BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), EXPECTED_STATES, 0.01);
+    private long archived;
+    private final List<Map<String, Object>> pending = new ArrayList<>();
+    private final Writer indexWriter;
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "consumed-state-archive");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private int segmentNumber;
+    private FileChannel segment;
+
+    public ConsumedStateArchive(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        final Path indexPath = directory.resolve(INDEX_FILE);
+        if (Files.exists(indexPath)) {
+            for (String line : Files.readAllLines(indexPath, StandardCharsets.UTF_8)) {
+                final String[] fields = line.split(",");
+                if (fields.length != 5) continue; // A torn final line from a crash; its block is simply re-archived.
+                final Location location = new Location(Integer.parseInt(fields[2]), Long.parseLong(fields[3]), Integer.parseInt(fields[4]));
+                index.put(UUID.fromString(fields[0]), location);
+                archivedRefs.put(fields[1]);
+                archived++;
+                segmentNumber = Math.max(segmentNumber, location.segment);
+            }
+        }
+        this.indexWriter = Files.newBufferedWriter(indexPath, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        this.segment = openSegment(segmentNumber);
+        flusher.scheduleWithFixedDelay(this::flushQuietly, FLUSH_INTERVAL_SECONDS, FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Returns the archive directory: [carechain.archive.dir] if set, otherwise `archive` under the base directory the
+     * webserver was started with. The webserver, like the node, takes that from `--base-directory` and otherwise
+     * uses the working directory.
+     */
+    public static Path defaultDirectory() {
+        final String configured = System.getProperty("carechain.archive.dir");
+        if (configured != null) return Paths.get(configured);
+        final List<String> args = Arrays.asList(System.getProperty("sun.java.command", "").split(" +"));
+        final int flag = args.indexOf("--base-directory");
+        final Path base = flag >= 0 && flag + 1 < args.size() ? Paths.get(args.get(flag + 1)) : Paths.get("");
+        return base.toAbsolutePath().resolve("archive");
+    }
+
+    /**
+     * Archives every state consumed from now on, then back-fills the states that were consumed before we started.
+     *
+     * We subscribe before back-filling so that nothing consumed in between is missed; anything seen twice is skipped.
+     */
+    public void attach(CordaRPCOps rpcOps, Observable<Vault.Update<IOUState>> updates) {
+        updates.subscribe(update -> update.getConsumed().forEach(state -> append(state, Instant.now())),
+                error -> logger.error("Vault update stream failed, consumed states are no longer archived.", error));
+        flusher.execute(() -> backfill(rpcOps));
+    }
+
+    private void backfill(CordaRPCOps rpcOps) {
+        final QueryCriteria consumed = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.CONSUMED);
+        try {
+            for (int pageNumber = 1; ; pageNumber++) {
+                final Vault.Page<IOUState> page = rpcOps.vaultQueryByWithPagingSpec(
+                        IOUState.class, consumed, new PageSpecification(pageNumber, BACKFILL_PAGE_SIZE));
+                for (int i = 0; i < page.getStates().size(); i++) {
+                    append(page.getStates().get(i), page.getStatesMetadata().get(i).getConsumedTime());
+                }
+                if ((long) pageNumber * BACKFILL_PAGE_SIZE >= page.getTotalStatesAvailable()) break;
+            }
+            flush();
+        } catch (Exception e) {
+            logger.error("Back-filling the consumed state archive failed.", e);
+        }
+    }
+
+    /**
+     * Buffers a consumed state for archival. The buffer is written out once a block is full or on the next timed flush.
+     */
+    public synchronized void append(StateAndRef<IOUState> state, Instant consumedTime) {
+        final String ref = state.getRef().toString();
+        final IOUState iou = state.getState().getData();
+        if (archivedRefs.mightContain(ref) && isArchived(ref, iou.getLinearId().getId())) return;
+        final Map<String, Object> record = new LinkedHashMap<>();
+        record.put("stateRef", ref);
+        record.put("linearId", iou.getLinearId().getId().toString());
+        record.put("consumedTime", consumedTime == null ? null : consumedTime.toString());
+        record.put("hospital", iou.getHospital().getName().toString());
+        record.put("patient", iou.getPatient().getName().toString());
+        record.put("name", iou.getName());
+        record.put("age", iou.getAge());
+        record.put("gender", iou.getGender());
+        record.put("height", iou.getHeight());
+        record.put("weight", iou.getWeight());
+        record.put("bloodGroup", iou.getBloodGroup());
+        record.put("diagnosis", iou.getDiagnosis());
+        record.put("medicine", iou.getMedicine());
+        archivedRefs.put(ref);
+        archived++;
+        pending.add(record);
+        if (pending.size() >= BLOCK_RECORDS) {
+            flushQuietly();
+        }
+    }
+
+    /**
+     * Confirms a possible hit in [archivedRefs] against the pending buffer and the blocks indexed for [linearId].
+     */
+    private boolean isArchived(String ref, UUID linearId) {
+        for (Map<String, Object> record : pending) {
+            if (ref.equals(record.get("stateRef"))) return true;
+        }
+        try {
+            for (Location location : index.get(linearId)) {
+                for (Map<String, Object> record : readBlock(location)) {
+                    if (ref.equals(record.get("stateRef"))) return true;
+                }
+            }
+        } catch (IOException e) {
+            // Archiving a state twice only duplicates a history entry; losing it would be worse.
+            logger.warn("Could not check whether {} is already archived.", ref, e);
+        }
+        return false;
+    }
+
+    /**
+     * Writes buffered records as one compressed block and syncs it to disk before indexing it.
+     */
+    public synchronized void flush() throws IOException {
+        if (pending.isEmpty()) return;
+        final ByteArrayOutputStream block = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(block), StandardCharsets.UTF_8)) {
+            for (Map<String, Object> record : pending) {
+                writer.write(mapper.writeValueAsString(record));
+                writer.write('\n');
+            }
+        }
+        if (segment.size() > 0 && segment.size() + block.size() > SEGMENT_BYTES) {
+            segment.close();
+            segment = openSegment(++segmentNumber);
+        }
+        final Location location = new Location(segmentNumber, segment.size(), block.size());
+        segment.write(ByteBuffer.wrap(block.toByteArray()), location.offset);
+        segment.force(false);
+
+        for (Map<String, Object> record : pending) {
+            final UUID linearId = UUID.fromString((String) record.get("linearId"));
+            if (!index.get(linearId).contains(location)) {
+                index.put(linearId, location);
+            }
+            indexWriter.write(String.format("%s,%s,%d,%d,%d%n", linearId, record.get("stateRef"),
+                    location.segment, location.offset, location.length));
+        }
+        indexWriter.flush();
+        pending.clear();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            logger.error("Failed to write consumed states to the archive.", e);
+        }
+    }
+
+    /**
+     * Returns the archived history of [linearId], oldest first.
+     */
+    public List<Map<String, Object>> lookup(UUID linearId) throws IOException {
+        final List<Location> locations;
+        synchronized (this) {
+            flush();
+            locations = ImmutableList.copyOf(index.get(linearId));
+        }
+        final String id = linearId.toString();
+        final List<Map<String, Object>> history = new ArrayList<>();
+        for (Location location : locations) {
+            for (Map<String, Object> record : readBlock(location)) {
+                if (id.equals(record.get("linearId"))) history.add(record);
+            }
+        }
+        return history;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> readBlock(Location location) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(location.length);
+        try (FileChannel channel = FileChannel.open(segmentPath(location.segment), StandardOpenOption.READ)) {
+            while (buffer.hasRemaining() && channel.read(buffer, location.offset + buffer.position()) >= 0) ;
+        }
+        final List<Map<String, Object>> records = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(buffer.array())), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                records.add(mapper.readValue(line, Map.class));
+            }
+        }
+        return records;
+    }
+
+    public synchronized long size() {
+        return archived;
+    }
+
+    private Path segmentPath(int number) {
+        return directory.resolve(String.format("segment-%06d.gz", number));
+    }
+
+    private FileChannel openSegment(int number) throws IOException {
+        return FileChannel.open(segmentPath(number), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flusher.shutdown();
+        flush();
+        segment.close();
+        indexWriter.close();
+    }
+
+    private static class Location {
+        private final int segment;
+        private final long offset;
+        private final int length;
+
+        private Location(int segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Location)) return false;
+            Location that = (Location) o;
+            return segment == that.segment && offset == that.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(segment, offset);
+        }
+    }
+}
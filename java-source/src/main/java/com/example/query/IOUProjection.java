@@ -0,0 +1,50 @@
+package com.example.query;
+
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A page of IOU rows holding only the columns that were asked for.
+ *
+ * Each row is a list of values in the order of [columns]: strings, integers, or an [java.time.Instant] for
+ * `recordedTime`. [total] is the number of rows matching the query across all pages.
+ */
+@CordaSerializable
+public class IOUProjection {
+    private final List<String> columns;
+    private final List<List<Object>> rows;
+    private final long total;
+    private final int page;
+    private final int pageSize;
+
+    public IOUProjection(List<String> columns, List<List<Object>> rows, long total, int page, int pageSize) {
+        this.columns = columns;
+        this.rows = rows;
+        this.total = total;
+        this.page = page;
+        this.pageSize = pageSize;
+    }
+
+    public List<String> getColumns() { return columns; }
+    public List<List<Object>> getRows() { return rows; }
+    public long getTotal() { return total; }
+    public int getPage() { return page; }
+    public int getPageSize() { return pageSize; }
+
+    /**
+     * The rows as maps from column name to value, in column order.
+     */
+    public List<Map<String, Object>> toMaps() {
+        final List<Map<String, Object>> maps = new ArrayList<>(rows.size());
+        for (List<Object> row : rows) {
+            final Map<String, Object> map = new LinkedHashMap<>();
+            for (int i = 0; i < columns.size(); i++) map.put(columns.get(i), row.get(i));
+            maps.add(map);
+        }
+        return maps;
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.query;
+
+import com.example.schema.IOUSchemaV1;
+import com.example.state.IOUState;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
+
+import java.lang.reflect.Field;
+import java.util.Objects;
+
+/**
+ * A normalised description of an IOU vault query.
+ *
+ * Queries are described by the handful of filters the read end-points actually use, rather than by arbitrary
+ * [QueryCriteria] trees. That makes them usable as cache keys and lets us tell cheaply whether a changed state could
+ * affect the result of a query.
+ */
+public class IOUQuery {
+    private static final Field HOSPITAL_FIELD = column("hospital");
+    private static final Field NAME_FIELD = column("name");
+    // States recorded by one transaction share a timestamp, so the state ref breaks ties and keeps pages disjoint.
+    private static final Sort NEWEST_FIRST = new Sort(ImmutableList.of(
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.VaultStateAttribute.RECORDED_TIME), Sort.Direction.DESC),
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_TXN_ID), Sort.Direction.ASC),
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_INDEX), Sort.Direction.ASC)));
+
+    private static Field column(String name) {
+        try {
+            return IOUSchemaV1.PersistentIOU.class.getDeclaredField(name);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException("PersistentIOU has no " + name + " column", e);
+        }
+    }
+
+    private final Vault.StateStatus status;
+    private final String hospital;
+    private final String nameFilter;
+    private final boolean newestFirst;
+    private final int pageNumber;
+    private final int pageSize;
+
+    /**
+     * @param status the consumption status of the states to return.
+     * @param hospital the X.500 name of the issuing hospital, or null to match every hospital.
+     * @param pageNumber the page to return, starting at 1.
+     * @param pageSize the page size, or 0 to use the vault's default paging.
+     */
+    public IOUQuery(Vault.StateStatus status, String hospital, int pageNumber, int pageSize) {
+        this(status, hospital, null, false, pageNumber, pageSize);
+    }
+
+    /**
+     * @param nameFilter text the patient's name must contain, matched case-sensitively, or null to match every name.
+     * @param newestFirst whether to order the states by the time they were recorded, newest first, which gives
+     * pages a stable order. Otherwise the order is the vault's own.
+     */
+    public IOUQuery(Vault.StateStatus status, String hospital, String nameFilter, boolean newestFirst, int pageNumber, int pageSize) {
+        this.status = Objects.requireNonNull(status);
+        this.hospital = hospital;
+        this.nameFilter = nameFilter == null || nameFilter.isEmpty() ? null : nameFilter;
+        this.newestFirst = newestFirst;
+        this.pageNumber = pageNumber;
+        this.pageSize = pageSize;
+    }
+
+    public static IOUQuery all(Vault.StateStatus status) {
+        return new IOUQuery(status, null, 1, 0);
+    }
+
+    public static IOUQuery byHospital(Vault.StateStatus status, String hospital) {
+        return new IOUQuery(status, hospital, 1, 0);
+    }
+
+    public IOUQuery withPage(int pageNumber, int pageSize) {
+        return new IOUQuery(status, hospital, nameFilter, newestFirst, pageNumber, pageSize);
+    }
+
+    public IOUQuery withNameContaining(String nameFilter) {
+        return new IOUQuery(status, hospital, nameFilter, newestFirst, pageNumber, pageSize);
+    }
+
+    public IOUQuery newestFirst() {
+        return new IOUQuery(status, hospital, nameFilter, true, pageNumber, pageSize);
+    }
+
+    public Vault.StateStatus getStatus() { return status; }
+    public String getHospital() { return hospital; }
+    public String getNameFilter() { return nameFilter; }
+    public boolean isNewestFirst() { return newestFirst; }
+    public int getPageNumber() { return pageNumber; }
+    public int getPageSize() { return pageSize; }
+
+    public QueryCriteria toCriteria() {
+        QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(status);
+        if (hospital != null) {
+            criteria = criteria.and(new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(HOSPITAL_FIELD, hospital)));
+        }
+        if (nameFilter != null) {
+            criteria = criteria.and(new QueryCriteria.VaultCustomQueryCriteria(Builder.like(NAME_FIELD, likeContaining(nameFilter))));
+        }
+        return criteria;
+    }
+
+    /**
+     * A LIKE pattern matching any value that contains [text] literally. Wildcards and backslashes in [text] are
+     * escaped with a backslash.
+     *
+     * Corda 3's vault queries cannot add an ESCAPE clause, so this relies on backslash being the database's default
+     * LIKE escape character, as it is for H2 and PostgreSQL. Queries written in SQL should say `ESCAPE '\'`.
+     */
+    public static String likeContaining(String text) {
+        return "%" + text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+    }
+
+    /**
+     * The order to return the states in, or null for the vault's own.
+     */
+    public Sort toSort() {
+        return newestFirst ? NEWEST_FIRST : null;
+    }
+
+    public boolean isPaged() {
+        return pageSize > 0;
+    }
+
+    public PageSpecification toPageSpecification() {
+        return new PageSpecification(pageNumber, pageSize);
+    }
+
+    /**
+     * Whether the result of this query could change because [state] was produced or consumed.
+     */
+    public boolean couldMatch(IOUState state, boolean consumed) {
+        if (hospital != null && !hospital.equals(state.getHospital().getName().toString())) {
+            return false;
+        }
+        if (nameFilter != null && !state.getName().contains(nameFilter)) {
+            return false;
+        }
+        // A consumption moves a state between the consumed and unconsumed views, whereas a new state only ever
+        // appears in the unconsumed one.
+        return consumed || status != Vault.StateStatus.CONSUMED;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof IOUQuery)) return false;
+        IOUQuery that = (IOUQuery) o;
+        return pageNumber == that.pageNumber && pageSize == that.pageSize && newestFirst == that.newestFirst
+                && status == that.status && Objects.equals(hospital, that.hospital)
+                && Objects.equals(nameFilter, that.nameFilter);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(status, hospital, nameFilter, newestFirst, pageNumber, pageSize);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("IOUQuery(status=%s, hospital=%s, name~%s, newestFirst=%s, page=%d, pageSize=%d)",
+                status, hospital, nameFilter, newestFirst, pageNumber, pageSize);
+    }
+}
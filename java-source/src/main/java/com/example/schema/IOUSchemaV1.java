@@ -6,7 +6,9 @@ import net.corda.core.schemas.PersistentState;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.Index;
 import javax.persistence.Table;
+import java.util.Locale;
 import java.util.UUID;
 
 /**
@@ -17,8 +19,20 @@ public class IOUSchemaV1 extends MappedSchema {
         super(IOUSchema.class, 1, ImmutableList.of(PersistentIOU.class));
     }
 
+    /**
+     * The key a record is de-duplicated on within one hospital and patient: its name, gender and blood group,
+     * compared ignoring case and runs of whitespace.
+     */
+    public static String patientKey(String name, String gender, String bloodGroup) {
+        return normalise(name) + '\n' + normalise(gender) + '\n' + normalise(bloodGroup).replace(" ", "");
+    }
+
+    private static String normalise(String value) {
+        return value == null ? "" : value.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
     @Entity
-    @Table(name = "iou_states")
+    @Table(name = "iou_states", indexes = @Index(name = "iou_hospital_patient_idx", columnList = "hospital,patient,patient_key"))
     public static class PersistentIOU extends PersistentState {
         @Column(name = "hospital") private final String hospital;
         @Column(name = "patient") private final String patient;
@@ -31,6 +45,7 @@ public class IOUSchemaV1 extends MappedSchema {
         @Column(name = "diagnosis") private final String diagnosis;
         @Column(name = "medicine") private final String medicine;
         @Column(name = "linear_id") private final UUID linearId;
+        @Column(name = "patient_key") private final String patientKey;
 
 
         public PersistentIOU(String hospital, String patient, String name, int age, String gender, int height, int weight, String bloodGroup, String diagnosis, String medicine, UUID linearId) {
@@ -45,6 +60,7 @@ public class IOUSchemaV1 extends MappedSchema {
             this.diagnosis = diagnosis;
             this.medicine = medicine;
             this.linearId = linearId;
+            this.patientKey = patientKey(name, gender, bloodGroup);
         }
 
         // Default constructor required by hibernate.
@@ -60,6 +76,7 @@ public class IOUSchemaV1 extends MappedSchema {
             this.diagnosis = null;
             this.medicine = null;
             this.linearId = null;
+            this.patientKey = null;
         }
 
         public String getHospital() {
@@ -91,5 +108,7 @@ public class IOUSchemaV1 extends MappedSchema {
         public UUID getId() {
             return linearId;
         }
+
+        public String getPatientKey() { return patientKey; }
     }
 }
\ No newline at end of file
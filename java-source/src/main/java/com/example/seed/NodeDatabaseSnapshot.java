@@ -0,0 +1,73 @@
+package com.example.seed;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Saves and restores a stopped node's H2 database, so a vault seeded once can be put back before every benchmark run.
+ *
+ * Usage: `NodeDatabaseSnapshot save|restore <node directory> <snapshot file>`
+ *
+ * The database holds the node's identity along with its vault, so a snapshot must only be restored to the node it
+ * was saved from. Both directions refuse to run while the node has the database open.
+ */
+public class NodeDatabaseSnapshot {
+    static final String DATABASE_FILE = "persistence.mv.db";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 || !(args[0].equals("save") || args[0].equals("restore"))) {
+            throw new IllegalArgumentException("Usage: NodeDatabaseSnapshot save|restore <node directory> <snapshot file>");
+        }
+        final Path database = Paths.get(args[1]).resolve(DATABASE_FILE);
+        final Path snapshot = Paths.get(args[2]);
+        if (args[0].equals("save")) {
+            save(database, snapshot);
+            System.out.printf("Saved %s (%d bytes) to %s.%n", database, Files.size(snapshot), snapshot);
+        } else {
+            restore(snapshot, database);
+            System.out.printf("Restored %s from %s.%n", database, snapshot);
+        }
+    }
+
+    static void save(Path database, Path snapshot) throws IOException {
+        if (!Files.exists(database)) throw new IOException("No node database at " + database + ".");
+        checkNotInUse(database);
+        if (snapshot.toAbsolutePath().getParent() != null) Files.createDirectories(snapshot.toAbsolutePath().getParent());
+        copy(database, snapshot);
+    }
+
+    static void restore(Path snapshot, Path database) throws IOException {
+        if (!Files.exists(snapshot)) throw new IOException("No snapshot at " + snapshot + ".");
+        if (Files.exists(database)) checkNotInUse(database);
+        copy(snapshot, database);
+    }
+
+    /**
+     * Copies through a temporary file, so an interrupted copy never leaves a truncated database or snapshot behind.
+     */
+    private static void copy(Path from, Path to) throws IOException {
+        final Path partial = to.resolveSibling(to.getFileName() + ".partial");
+        Files.copy(from, partial, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(partial, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * H2 locks the database file while it is open, so failing to lock it means the node is still running.
+     */
+    private static void checkNotInUse(Path database) throws IOException {
+        try (FileChannel channel = FileChannel.open(database, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final FileLock lock = channel.tryLock();
+            if (lock == null) throw new IOException(database + " is in use. Stop the node first.");
+            lock.release();
+        } catch (OverlappingFileLockException e) {
+            throw new IOException(database + " is in use. Stop the node first.", e);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.seed;
+
+import com.example.state.PatientRecord;
+import net.corda.core.contracts.PrivacySalt;
+import net.corda.core.contracts.UniqueIdentifier;
+
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+/**
+ * Generates realistic patient records, deterministically from a seed.
+ *
+ * Record i depends only on the seed and i, so a vault seeded in parallel, in several runs or on several machines
+ * holds the same records, and a benchmark can regenerate any record (or its linear ID) to look it up without
+ * remembering what was issued.
+ *
+ * Names follow a Zipf distribution over common given and family names. Ages follow the age mix of hospital
+ * admissions, skewed towards the elderly. Heights and weights are drawn by gender and age, blood groups at their
+ * population frequencies, and diagnoses by prevalence, each paired with a typical medicine. Every record passes
+ * [com.example.contract.IOUValidator.DEFAULT].
+ */
+public class PatientRecordGenerator {
+    private static final String[] FEMALE_NAMES = {"Olivia", "Emma", "Amelia", "Isla", "Ava", "Mia", "Sophia", "Grace",
+            "Lily", "Freya", "Emily", "Ivy", "Ella", "Rosie", "Evie", "Florence", "Poppy", "Charlotte", "Willow",
+            "Isabella", "Margaret", "Susan", "Patricia", "Linda", "Mary", "Elizabeth", "Jennifer", "Barbara", "Sarah",
+            "Maria"};
+    private static final String[] MALE_NAMES = {"Oliver", "George", "Noah", "Arthur", "Harry", "Leo", "Muhammad",
+            "Jack", "Charlie", "Oscar", "Jacob", "Henry", "Thomas", "Freddie", "Alfie", "Theo", "William", "James",
+            "Joshua", "Alexander", "John", "Robert", "Michael", "David", "Richard", "Joseph", "Daniel", "Peter", "Paul",
+            "Mark"};
+    private static final String[] FAMILY_NAMES = {"Smith", "Jones", "Williams", "Taylor", "Brown", "Davies", "Evans",
+            "Wilson", "Thomas", "Johnson", "Roberts", "Robinson", "Thompson", "Wright", "Walker", "White", "Edwards",
+            "Hughes", "Green", "Hall", "Lewis", "Harris", "Clarke", "Patel", "Jackson", "Wood", "Turner", "Martin",
+            "Cooper", "Hill", "Ward", "Morris", "Moore", "Clark", "Lee", "King", "Baker", "Harrison", "Morgan", "Allen",
+            "Garcia", "Martinez", "Rossi", "Muller", "Dubois", "Kowalski", "Nguyen", "Kim", "Singh", "Khan"};
+
+    private static final String[] GENDERS = {"Female", "Male", "Other"};
+    private static final double[] GENDER_WEIGHTS = {50.5, 49.0, 0.5};
+
+    private static final String[] BLOOD_GROUPS = {"O(positive)", "A(positive)", "B(positive)", "AB(positive)",
+            "O(negative)", "A(negative)", "B(negative)", "AB(negative)"};
+    private static final double[] BLOOD_GROUP_WEIGHTS = {37.4, 35.7, 8.5, 3.4, 6.6, 6.3, 1.5, 0.6};
+
+    // Admissions by decade of age, from 1-9 up to 90-99.
+    private static final double[] AGE_DECADE_WEIGHTS = {8, 7, 10, 11, 12, 14, 15, 13, 8, 2};
+
+    private static final Diagnosis[] DIAGNOSES = {
+            new Diagnosis("Hypertension", 14, 25, "Amlodipine", "Lisinopril", "Ramipril"),
+            new Diagnosis("Hyperlipidaemia", 9, 30, "Atorvastatin", "Simvastatin"),
+            new Diagnosis("Type 2 diabetes", 8, 25, "Metformin", "Gliclazide"),
+            new Diagnosis("Asthma", 7, 1, "Salbutamol", "Beclometasone"),
+            new Diagnosis("Upper respiratory tract infection", 7, 1, "Rest", "Paracetamol"),
+            new Diagnosis("Influenza", 6, 1, "Oseltamivir", "Rest"),
+            new Diagnosis("Osteoarthritis", 6, 40, "Paracetamol", "Ibuprofen", "Naproxen"),
+            new Diagnosis("Depression", 5, 12, "Sertraline", "Citalopram"),
+            new Diagnosis("Anxiety", 4, 12, "Sertraline", "Propranolol"),
+            new Diagnosis("Gastro-oesophageal reflux", 4, 18, "Omeprazole", "Lansoprazole"),
+            new Diagnosis("Urinary tract infection", 4, 1, "Nitrofurantoin", "Trimethoprim"),
+            new Diagnosis("Lower back pain", 4, 16, "Ibuprofen", "Naproxen"),
+            new Diagnosis("Hypothyroidism", 3, 20, "Levothyroxine"),
+            new Diagnosis("Migraine", 3, 10, "Sumatriptan", "Ibuprofen"),
+            new Diagnosis("Atrial fibrillation", 3, 45, "Apixaban", "Bisoprolol"),
+            new Diagnosis("COPD", 3, 40, "Tiotropium", "Salbutamol"),
+            new Diagnosis("Pneumonia", 2, 1, "Amoxicillin", "Clarithromycin"),
+            new Diagnosis("Gastroenteritis", 2, 1, "Oral rehydration salts", "Rest"),
+            new Diagnosis("Otitis media", 2, 1, "Amoxicillin", "Paracetamol"),
+            new Diagnosis("Eczema", 2, 1, "Emollient", "Hydrocortisone"),
+            new Diagnosis("Heart failure", 1, 50, "Furosemide", "Bisoprolol"),
+    };
+    private static final double[] DIAGNOSIS_WEIGHTS = new double[DIAGNOSES.length];
+
+    static {
+        for (int i = 0; i < DIAGNOSES.length; i++) DIAGNOSIS_WEIGHTS[i] = DIAGNOSES[i].weight;
+    }
+
+    private static final double[] FEMALE_NAME_WEIGHTS = zipf(FEMALE_NAMES.length);
+    private static final double[] MALE_NAME_WEIGHTS = zipf(MALE_NAMES.length);
+    private static final double[] FAMILY_NAME_WEIGHTS = zipf(FAMILY_NAMES.length);
+
+    private static class Diagnosis {
+        private final String name;
+        private final double weight;
+        private final int minAge;
+        private final String[] medicines;
+
+        private Diagnosis(String name, double weight, int minAge, String... medicines) {
+            this.name = name;
+            this.weight = weight;
+            this.minAge = minAge;
+            this.medicines = medicines;
+        }
+    }
+
+    private final long seed;
+    private final boolean uniqueNames;
+
+    /**
+     * @param seed selects the sequence of records.
+     * @param uniqueNames whether to suffix each name with its record number. Without it, names repeat, and a large
+     * run to one patient node would have records rejected as duplicates.
+     */
+    public PatientRecordGenerator(long seed, boolean uniqueNames) {
+        this.seed = seed;
+        this.uniqueNames = uniqueNames;
+    }
+
+    public PatientRecordGenerator(long seed) {
+        this(seed, true);
+    }
+
+    private static double[] zipf(int n) {
+        final double[] weights = new double[n];
+        for (int i = 0; i < n; i++) weights[i] = 1.0 / (i + 1);
+        return weights;
+    }
+
+    private static int pick(SplittableRandom random, double[] weights) {
+        double total = 0;
+        for (double weight : weights) total += weight;
+        double point = random.nextDouble() * total;
+        for (int i = 0; i < weights.length - 1; i++) {
+            point -= weights[i];
+            if (point < 0) return i;
+        }
+        return weights.length - 1;
+    }
+
+    private static int clamp(double value, int min, int max) {
+        return (int) Math.max(min, Math.min(max, Math.round(value)));
+    }
+
+    private static double gaussian(SplittableRandom random) {
+        // Box-Muller, as SplittableRandom has no nextGaussian.
+        return Math.sqrt(-2 * Math.log(1 - random.nextDouble())) * Math.cos(2 * Math.PI * random.nextDouble());
+    }
+
+    private SplittableRandom random(long index, long stream) {
+        return new SplittableRandom(seed * 0x9E3779B97F4A7C15L + index * 0xBF58476D1CE4E5B9L + stream);
+    }
+
+    /**
+     * Returns record [index] of this generator's sequence.
+     */
+    public PatientRecord record(long index) {
+        final SplittableRandom random = random(index, 0);
+        final String gender = GENDERS[pick(random, GENDER_WEIGHTS)];
+        final boolean male = gender.equals("Male") || (gender.equals("Other") && random.nextBoolean());
+        final String given = male ? MALE_NAMES[pick(random, MALE_NAME_WEIGHTS)] : FEMALE_NAMES[pick(random, FEMALE_NAME_WEIGHTS)];
+        final String family = FAMILY_NAMES[pick(random, FAMILY_NAME_WEIGHTS)];
+        final String name = uniqueNames ? given + " " + family + " #" + index : given + " " + family;
+
+        final int age = Math.max(1, pick(random, AGE_DECADE_WEIGHTS) * 10 + random.nextInt(10));
+        // Adult heights by gender, with children following a rough growth curve up to them.
+        final double adultHeight = male ? 176 + 7 * gaussian(random) : 163 + 6.5 * gaussian(random);
+        final double height = age >= 18 ? adultHeight - Math.max(0, age - 60) * 0.1
+                : 75 + (adultHeight - 75) * age / 18.0;
+        final double bmi = age >= 18 ? 26.5 + 4.5 * gaussian(random) : 16 + age * 0.2 + 2 * gaussian(random);
+        final int heightCm = clamp(height, 50, 230);
+        final int weightKg = clamp(Math.max(13, bmi) * heightCm * heightCm / 10000.0, 5, 300);
+
+        final String bloodGroup = BLOOD_GROUPS[pick(random, BLOOD_GROUP_WEIGHTS)];
+        Diagnosis diagnosis;
+        do {
+            diagnosis = DIAGNOSES[pick(random, DIAGNOSIS_WEIGHTS)];
+        } while (diagnosis.minAge > age);
+        final String medicine = diagnosis.medicines[random.nextInt(diagnosis.medicines.length)];
+        return new PatientRecord(name, age, gender, heightCm, weightKg, bloodGroup, diagnosis.name, medicine);
+    }
+
+    /**
+     * Returns the linear ID for the IOU issued from record [index], so seeded states can be looked up later.
+     */
+    public UniqueIdentifier linearId(long index) {
+        final SplittableRandom random = random(index, 1);
+        // A version 4 UUID built from the seeded generator rather than from SecureRandom.
+        final long most = (random.nextLong() & ~0xF000L) | 0x4000L;
+        final long least = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UniqueIdentifier(null, new UUID(most, least));
+    }
+
+    /**
+     * Returns the privacy salt for the transaction that issues records from [firstIndex], so that seeding the same
+     * records twice also produces the same transaction IDs.
+     */
+    public PrivacySalt privacySalt(long firstIndex) {
+        final SplittableRandom random = random(firstIndex, 2);
+        final byte[] salt = new byte[32];
+        for (int i = 0; i < salt.length; i += 8) {
+            final long value = random.nextLong();
+            for (int j = 0; j < 8; j++) salt[i + j] = (byte) (value >>> (8 * j));
+        }
+        // A salt of all zeroes is rejected.
+        salt[0] |= 1;
+        return new PrivacySalt(salt);
+    }
+}
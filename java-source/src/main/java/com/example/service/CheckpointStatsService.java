@@ -0,0 +1,116 @@
+package com.example.service;
+
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Measures the checkpoints flows write when they suspend.
+ *
+ * A flow calls [measure] straight after a suspension point. By then the node has written the flow's checkpoint to
+ * the `node_checkpoints` table, so reading it back gives the exact number of bytes written at that point. The node's
+ * own write cannot be timed from a flow, so the bytes are then written back to the same row and that write is timed.
+ * This covers the database write of a checkpoint of that size, but not serialising the flow.
+ *
+ * Measuring costs a query and an extra write per suspension, so it is off unless `carechain.checkpoint.instrument` is
+ * set to true or it is switched on with [setEnabled].
+ */
+@CordaService
+public class CheckpointStatsService extends SingletonSerializeAsToken {
+    public static final boolean ENABLED_BY_DEFAULT = Boolean.getBoolean("carechain.checkpoint.instrument");
+
+    static private final Logger logger = LoggerFactory.getLogger(CheckpointStatsService.class);
+
+    private final AppServiceHub serviceHub;
+    private final Map<String, long[]> points = new TreeMap<>();
+    private volatile boolean enabled = ENABLED_BY_DEFAULT;
+
+    public CheckpointStatsService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Switches measuring on or off while the node runs, whatever `carechain.checkpoint.instrument` says.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Records the size of [flow]'s latest checkpoint, and the time taken to write it, against [point]. Must be called
+     * from the flow, inside its transaction, and only after a suspension.
+     */
+    public void measure(FlowLogic<?> flow, String point) {
+        if (!enabled) return;
+        final Connection connection = serviceHub.jdbcSession();
+        final String checkpointId = flow.getRunId().getUuid().toString();
+        final byte[] checkpoint;
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT checkpoint_value FROM node_checkpoints WHERE checkpoint_id = ?")) {
+            statement.setString(1, checkpointId);
+            try (ResultSet results = statement.executeQuery()) {
+                if (!results.next()) return;
+                checkpoint = results.getBytes(1);
+            }
+        } catch (SQLException e) {
+            logger.warn("Could not read the checkpoint of {}: {}", flow.getRunId(), e.getMessage());
+            return;
+        }
+        // Writing the same bytes back leaves the checkpoint as the node wrote it.
+        try (PreparedStatement statement = connection.prepareStatement(
+                "UPDATE node_checkpoints SET checkpoint_value = ? WHERE checkpoint_id = ?")) {
+            statement.setBytes(1, checkpoint);
+            statement.setString(2, checkpointId);
+            final long started = System.nanoTime();
+            statement.executeUpdate();
+            record(flow.getClass().getName() + " " + point, checkpoint.length, (System.nanoTime() - started) / 1000);
+        } catch (SQLException e) {
+            logger.warn("Could not rewrite the checkpoint of {}: {}", flow.getRunId(), e.getMessage());
+        }
+    }
+
+    synchronized void record(String point, long bytes, long writeMicros) {
+        final long[] totals = points.computeIfAbsent(point, key -> new long[]{0, 0, 0, 0, 0});
+        totals[0]++;
+        totals[1] += bytes;
+        totals[2] = Math.max(totals[2], bytes);
+        totals[3] += writeMicros;
+        totals[4] = Math.max(totals[4], writeMicros);
+    }
+
+    /**
+     * Reports the number of checkpoints measured, their mean and largest sizes and their mean and slowest write times,
+     * by flow and suspension point.
+     */
+    public synchronized Map<String, Object> stats() {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        final Map<String, Object> byPoint = new LinkedHashMap<>();
+        points.forEach((point, totals) -> {
+            final Map<String, Object> sizes = new LinkedHashMap<>();
+            sizes.put("checkpoints", totals[0]);
+            sizes.put("meanBytes", totals[1] / totals[0]);
+            sizes.put("maxBytes", totals[2]);
+            sizes.put("meanWriteMicros", totals[3] / totals[0]);
+            sizes.put("maxWriteMicros", totals[4]);
+            byPoint.put(point, sizes);
+        });
+        stats.put("points", byPoint);
+        return stats;
+    }
+}
@@ -0,0 +1,271 @@
+package com.example.service;
+
+import com.example.schema.IOUSchemaV1;
+import com.example.state.IOUState;
+import com.example.state.PatientRecord;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tells whether a hospital has already issued an IOU for a patient, without a vault query on the common path.
+ *
+ * Every IOU in the vault is summarised by a key of hospital, patient, and the record's normalised name, gender and
+ * blood group, and the keys are kept in a Bloom filter. A key the filter has never seen is definitely new, so the
+ * check costs no database access at all. A possible hit is confirmed with a single probe of the indexed hospital,
+ * patient and patient key columns, which also covers the filter's false positives and keys whose IOUs have since
+ * been consumed.
+ *
+ * The filter is loaded from the vault on first use, inside the caller's transaction, and kept current from vault
+ * updates. Loading also fills in the patient key of IOUs recorded before the column existed. It is sized with [EXPECTED_RECORDS] and [FALSE_POSITIVE_RATE]; past that many records the real false
+ * positive rate climbs, which [stats] makes visible.
+ *
+ * A check alone cannot stop two flows issuing the same patient at once, since neither IOU is in the vault until its
+ * flow commits. Issuing flows therefore [reserve] a key before they sign. A reservation is held until the IOU reaches
+ * the vault, or until the flow gives up and calls [release]. Reservations live in memory, so they do not survive a
+ * restart.
+ */
+@CordaService
+public class DuplicatePatientService extends SingletonSerializeAsToken {
+    public static final long EXPECTED_RECORDS = Long.getLong("carechain.dedup.expectedRecords", 1000000);
+    public static final double FALSE_POSITIVE_RATE = Double.parseDouble(System.getProperty("carechain.dedup.fpp", "0.01"));
+    static final int LOAD_PAGE_SIZE = 5000;
+
+    private static final Field HOSPITAL_FIELD;
+    private static final Field PATIENT_FIELD;
+    private static final Field PATIENT_KEY_FIELD;
+
+    static {
+        try {
+            HOSPITAL_FIELD = IOUSchemaV1.PersistentIOU.class.getDeclaredField("hospital");
+            PATIENT_FIELD = IOUSchemaV1.PersistentIOU.class.getDeclaredField("patient");
+            PATIENT_KEY_FIELD = IOUSchemaV1.PersistentIOU.class.getDeclaredField("patientKey");
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException("PersistentIOU has no hospital, patient or patient key column", e);
+        }
+    }
+
+    static private final Logger logger = LoggerFactory.getLogger(DuplicatePatientService.class);
+
+    private final AppServiceHub serviceHub;
+    private final BloomFilter<CharSequence> filter =
+            BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), EXPECTED_RECORDS, FALSE_POSITIVE_RATE);
+    private volatile boolean loaded;
+    private long keys;
+    private final Set<String> reserved = new HashSet<>();
+
+    private final AtomicLong checks = new AtomicLong();
+    private final AtomicLong definiteMisses = new AtomicLong();
+    private final AtomicLong confirmedDuplicates = new AtomicLong();
+    private final AtomicLong falsePositives = new AtomicLong();
+
+    public DuplicatePatientService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        serviceHub.getVaultService().getUpdates().subscribe(update -> {
+            for (StateAndRef<ContractState> produced : update.getProduced()) {
+                if (produced.getState().getData() instanceof IOUState) recorded((IOUState) produced.getState().getData());
+            }
+        });
+    }
+
+    /**
+     * The key an IOU is de-duplicated on: its hospital, its patient and its [IOUSchemaV1.patientKey].
+     */
+    public static String key(String hospital, String patient, String name, String gender, String bloodGroup) {
+        return hospital + '\n' + patient + '\n' + IOUSchemaV1.patientKey(name, gender, bloodGroup);
+    }
+
+    /**
+     * The key [record] would be stored under if [hospital] issued it to [patient].
+     */
+    public static String key(AbstractParty hospital, AbstractParty patient, PatientRecord record) {
+        return key(hospital.nameOrNull().toString(), patient.nameOrNull().toString(),
+                record.getName(), record.getGender(), record.getBloodGroup());
+    }
+
+    private static String key(IOUState iou) {
+        return key(iou.getHospital().getName().toString(), iou.getPatient().getName().toString(),
+                iou.getName(), iou.getGender(), iou.getBloodGroup());
+    }
+
+    private synchronized void add(IOUState iou) {
+        if (filter.put(key(iou))) keys++;
+    }
+
+    /**
+     * Called once [iou] is committed to the vault, where [isDuplicate] will find it, so its reservation can go.
+     */
+    private synchronized void recorded(IOUState iou) {
+        add(iou);
+        reserved.remove(key(iou));
+    }
+
+    /**
+     * Fills the filter from the vault. Must be called inside a database transaction, as flows are.
+     */
+    private void loadIfNeeded() {
+        if (loaded) return;
+        synchronized (this) {
+            if (loaded) return;
+            final long started = System.nanoTime();
+            backfillPatientKeys();
+            final QueryCriteria all = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED);
+            for (int pageNumber = 1; ; pageNumber++) {
+                final Vault.Page<IOUState> page = serviceHub.getVaultService().queryBy(
+                        IOUState.class, all, new PageSpecification(pageNumber, LOAD_PAGE_SIZE));
+                page.getStates().forEach(state -> add(state.getState().getData()));
+                if ((long) pageNumber * LOAD_PAGE_SIZE >= page.getTotalStatesAvailable()) break;
+            }
+            loaded = true;
+            logger.info("Loaded {} patient keys into the duplicate filter in {}ms.", keys, (System.nanoTime() - started) / 1000000);
+        }
+    }
+
+    /**
+     * Sets the patient key of unconsumed IOUs stored before the column was added, so that [isDuplicate] finds them.
+     */
+    private void backfillPatientKeys() {
+        final QueryCriteria missing = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED)
+                .and(new QueryCriteria.VaultCustomQueryCriteria(Builder.isNull(PATIENT_KEY_FIELD)));
+        long filled = 0;
+        try (PreparedStatement update = serviceHub.jdbcSession().prepareStatement(
+                "UPDATE iou_states SET patient_key = ? WHERE transaction_id = ? AND output_index = ?")) {
+            while (true) {
+                // Filled rows drop out of the query, so the first page is always the next one to fill.
+                final List<StateAndRef<IOUState>> page = serviceHub.getVaultService().queryBy(
+                        IOUState.class, missing, new PageSpecification(1, LOAD_PAGE_SIZE)).getStates();
+                int updated = 0;
+                for (StateAndRef<IOUState> state : page) {
+                    final IOUState iou = state.getState().getData();
+                    update.setString(1, IOUSchemaV1.patientKey(iou.getName(), iou.getGender(), iou.getBloodGroup()));
+                    update.setString(2, state.getRef().getTxhash().toString());
+                    update.setInt(3, state.getRef().getIndex());
+                    updated += update.executeUpdate();
+                }
+                filled += updated;
+                if (page.size() < LOAD_PAGE_SIZE || updated == 0) break;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not fill in the patient keys of stored IOUs.", e);
+        }
+        if (filled > 0) logger.info("Filled in the patient keys of {} stored IOUs.", filled);
+    }
+
+    /**
+     * Returns true if [hospital] already holds an unconsumed IOU for the same patient as [record].
+     */
+    public boolean isDuplicate(AbstractParty hospital, AbstractParty patient, PatientRecord record) {
+        loadIfNeeded();
+        checks.incrementAndGet();
+        final String hospitalName = hospital.nameOrNull().toString();
+        final String patientName = patient.nameOrNull().toString();
+        final String key = key(hospital, patient, record);
+        final boolean possible;
+        synchronized (this) {
+            possible = filter.mightContain(key);
+        }
+        if (!possible) {
+            definiteMisses.incrementAndGet();
+            return false;
+        }
+
+        final QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED)
+                .and(new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(HOSPITAL_FIELD, hospitalName)))
+                .and(new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(PATIENT_FIELD, patientName)))
+                .and(new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(PATIENT_KEY_FIELD,
+                        IOUSchemaV1.patientKey(record.getName(), record.getGender(), record.getBloodGroup()))));
+        if (!serviceHub.getVaultService().queryBy(IOUState.class, criteria, new PageSpecification(1, 1)).getStates().isEmpty()) {
+            confirmedDuplicates.incrementAndGet();
+            return true;
+        }
+        falsePositives.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Reserves [record]'s key for an issuance by [hospital] to [patient]. Returns false, reserving nothing, if the key
+     * is already reserved or [hospital] already holds an unconsumed IOU for the patient.
+     *
+     * The reservation is taken before the vault is checked, so of two flows racing for the same key only one gets it.
+     */
+    public boolean reserve(AbstractParty hospital, AbstractParty patient, PatientRecord record) {
+        final String key = key(hospital, patient, record);
+        synchronized (this) {
+            if (!reserved.add(key)) return false;
+        }
+        if (isDuplicate(hospital, patient, record)) {
+            release(hospital, patient, record);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gives up a reservation taken with [reserve], for a flow that will not issue [record] after all.
+     */
+    public synchronized void release(AbstractParty hospital, AbstractParty patient, PatientRecord record) {
+        reserved.remove(key(hospital, patient, record));
+    }
+
+    /**
+     * Reserves every one of [records], or none of them. Returns -1 if all were reserved, or else the index of the first
+     * record that could not be, which may be a duplicate of an earlier record in the list.
+     */
+    public int reserveAll(AbstractParty hospital, AbstractParty patient, List<PatientRecord> records) {
+        for (int i = 0; i < records.size(); i++) {
+            if (!reserve(hospital, patient, records.get(i))) {
+                releaseAll(hospital, patient, records.subList(0, i));
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public synchronized void releaseAll(AbstractParty hospital, AbstractParty patient, List<PatientRecord> records) {
+        records.forEach(record -> release(hospital, patient, record));
+    }
+
+    /**
+     * Reports the filter's size, memory use and expected false positive rate, and how the checks made so far split
+     * between definite misses, confirmed duplicates and false positives.
+     */
+    public synchronized Map<String, Object> stats() {
+        final long bits = (long) (-EXPECTED_RECORDS * Math.log(FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2)));
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("loaded", loaded);
+        stats.put("keys", keys);
+        stats.put("reserved", reserved.size());
+        stats.put("capacity", EXPECTED_RECORDS);
+        stats.put("memoryBytes", bits / 8);
+        stats.put("expectedFalsePositiveRate", filter.expectedFpp());
+        stats.put("checks", checks.get());
+        stats.put("definiteMisses", definiteMisses.get());
+        stats.put("confirmedDuplicates", confirmedDuplicates.get());
+        stats.put("falsePositives", falsePositives.get());
+        final long negatives = falsePositives.get() + definiteMisses.get();
+        stats.put("observedFalsePositiveRate", negatives == 0 ? 0.0 : (double) falsePositives.get() / negatives);
+        return stats;
+    }
+}
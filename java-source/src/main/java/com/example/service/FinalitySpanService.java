@@ -0,0 +1,83 @@
+package com.example.service;
+
+import com.example.trace.SpanLog;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.core.transactions.SignedTransaction;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Ends a counterparty's "await-finality" span when the transaction it signed is recorded, without keeping a flow
+ * waiting for it.
+ *
+ * Finality is driven by the initiator, so if the initiator fails after collecting our signature the transaction never
+ * arrives. A responder parked on it would wait forever; here the span is simply ended as not recorded once it has been
+ * waiting longer than [TIMEOUT_SECONDS].
+ */
+@CordaService
+public class FinalitySpanService extends SingletonSerializeAsToken {
+    public static final long TIMEOUT_SECONDS = Long.getLong("carechain.trace.finalityTimeoutSeconds", 300);
+
+    private final AppServiceHub serviceHub;
+    // In the order they were started, so the oldest are always at the front.
+    private final Map<SecureHash, Waiting> waiting = new LinkedHashMap<>();
+
+    private static class Waiting {
+        private final SpanLog.Span span;
+        private final long startedNanos;
+
+        private Waiting(SpanLog.Span span, long startedNanos) {
+            this.span = span;
+            this.startedNanos = startedNanos;
+        }
+    }
+
+    public FinalitySpanService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        serviceHub.getValidatedTransactions().getUpdates().subscribe(this::recorded);
+    }
+
+    /**
+     * Ends [span] when [txId] is recorded on this node, or straight away if it already has been.
+     */
+    public void await(SecureHash txId, SpanLog.Span span) {
+        synchronized (this) {
+            expire();
+            waiting.put(txId, new Waiting(span, System.nanoTime()));
+        }
+        // The transaction may have arrived before we started watching for it.
+        if (serviceHub.getValidatedTransactions().getTransaction(txId) != null) end(txId, txId.toString());
+    }
+
+    private void recorded(SignedTransaction stx) {
+        end(stx.getId(), stx.getId().toString());
+    }
+
+    private void end(SecureHash txId, String detail) {
+        final Waiting ended;
+        synchronized (this) {
+            ended = waiting.remove(txId);
+        }
+        if (ended != null) ended.span.end(detail);
+    }
+
+    private void expire() {
+        final long cutoff = System.nanoTime() - TIMEOUT_SECONDS * 1000000000L;
+        final Iterator<Map.Entry<SecureHash, Waiting>> oldest = waiting.entrySet().iterator();
+        while (oldest.hasNext()) {
+            final Map.Entry<SecureHash, Waiting> entry = oldest.next();
+            if (entry.getValue().startedNanos - cutoff > 0) break;
+            entry.getValue().span.end("Not recorded within " + TIMEOUT_SECONDS + "s: " + entry.getKey());
+            oldest.remove();
+        }
+    }
+
+    public synchronized int getWaiting() {
+        return waiting.size();
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.service;
+
+import com.example.flow.StreamingIssueFlow;
+import com.example.state.PatientRecord;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.CordaSerializable;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Node-side queue of patient records waiting to be issued, one queue per patient.
+ *
+ * Records are fed in over RPC by [StreamingIssueFlow.Enqueue]. The first record queued for an idle patient starts a
+ * [StreamingIssueFlow.Initiator], which keeps a single session to the patient open and drains the queue in
+ * micro-batches until it finds it empty, at which point it retires and the next enqueue starts a fresh stream.
+ *
+ * The queue lives in memory: records that have not yet been drained into a stream are lost if the node restarts.
+ * Callers can find out which records made it by looking up the linear ids returned from [enqueue] in the vault.
+ * Records that a stream gave up on are reported by [getFailures] under the same linear ids.
+ *
+ * Streams are started from a thread of the service's own. [AppServiceHub.startFlow] waits for the node to start the
+ * flow, which it cannot do while the calling flow is still running on its fiber.
+ */
+@CordaService
+public class IssuanceQueueService extends SingletonSerializeAsToken {
+    public static final int MAX_BATCH = Integer.getInteger("carechain.stream.maxBatch", 100);
+    public static final int MAX_QUEUED = Integer.getInteger("carechain.stream.maxQueued", 100000);
+
+    static private final Logger logger = LoggerFactory.getLogger(IssuanceQueueService.class);
+
+    private final AppServiceHub serviceHub;
+    private final Map<Party, ArrayDeque<QueuedRecord>> queues = new HashMap<>();
+    private final Set<Party> streaming = new HashSet<>();
+    // The most recent MAX_QUEUED failures, by linear id.
+    private final Map<UniqueIdentifier, String> failures = new LinkedHashMap<UniqueIdentifier, String>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UniqueIdentifier, String> eldest) {
+            return size() > MAX_QUEUED;
+        }
+    };
+    private final AtomicLong issuedRecords = new AtomicLong();
+    private final AtomicLong issuedBatches = new AtomicLong();
+    private final ExecutorService starter = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "issuance-stream-starter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public IssuanceQueueService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+    }
+
+    /**
+     * A record waiting in the queue, together with the linear id its IOU will be issued under.
+     */
+    @CordaSerializable
+    public static class QueuedRecord {
+        private final PatientRecord record;
+        private final UniqueIdentifier linearId;
+
+        public QueuedRecord(PatientRecord record, UniqueIdentifier linearId) {
+            this.record = record;
+            this.linearId = linearId;
+        }
+
+        public PatientRecord getRecord() { return record; }
+        public UniqueIdentifier getLinearId() { return linearId; }
+    }
+
+    /**
+     * Queues [records] for issuance to [patient], starting a stream to them if none is running.
+     *
+     * @return the linear ids the records will be issued under, in order.
+     * @throws IllegalStateException if the patient's queue has no room for all of the records.
+     */
+    public List<UniqueIdentifier> enqueue(Party patient, List<PatientRecord> records) {
+        final List<UniqueIdentifier> linearIds = new ArrayList<>(records.size());
+        final boolean start;
+        synchronized (this) {
+            final ArrayDeque<QueuedRecord> queue = queues.computeIfAbsent(patient, p -> new ArrayDeque<>());
+            if (queue.size() + records.size() > MAX_QUEUED) {
+                throw new IllegalStateException("The issuance queue for " + patient.getName() + " is full.");
+            }
+            for (PatientRecord record : records) {
+                final UniqueIdentifier linearId = new UniqueIdentifier();
+                queue.addLast(new QueuedRecord(record, linearId));
+                linearIds.add(linearId);
+            }
+            start = streaming.add(patient);
+        }
+        if (start) {
+            startStream(patient);
+        }
+        return linearIds;
+    }
+
+    /**
+     * Starts a stream to [patient] without waiting for it. If the node refuses to start it, the patient's records stay
+     * queued and the next enqueue tries again.
+     */
+    private void startStream(Party patient) {
+        starter.execute(() -> {
+            try {
+                serviceHub.startFlow(new StreamingIssueFlow.Initiator(patient));
+            } catch (RuntimeException e) {
+                logger.error("Could not start an issuance stream to {}.", patient.getName(), e);
+                synchronized (this) {
+                    streaming.remove(patient);
+                }
+            }
+        });
+    }
+
+    /**
+     * Takes up to [max] records off the front of [patient]'s queue.
+     */
+    public synchronized List<QueuedRecord> drain(Party patient, int max) {
+        final ArrayDeque<QueuedRecord> queue = queues.get(patient);
+        if (queue == null) return Collections.emptyList();
+        final List<QueuedRecord> batch = new ArrayList<>(Math.min(max, queue.size()));
+        while (batch.size() < max && !queue.isEmpty()) {
+            batch.add(queue.pollFirst());
+        }
+        return batch;
+    }
+
+    /**
+     * Called by a stream that found [patient]'s queue empty. Returns true if the stream should close, or false if
+     * records arrived in the meantime and it should keep draining.
+     */
+    public synchronized boolean retireIfIdle(Party patient) {
+        final ArrayDeque<QueuedRecord> queue = queues.get(patient);
+        if (queue != null && !queue.isEmpty()) return false;
+        queues.remove(patient);
+        streaming.remove(patient);
+        return true;
+    }
+
+    /**
+     * Called by a stream that failed before [unsent] reached the notary. The records go back to the front of the
+     * queue, and the next enqueue for [patient] starts a new stream.
+     */
+    public synchronized void abandon(Party patient, List<QueuedRecord> unsent) {
+        final ArrayDeque<QueuedRecord> queue = queues.computeIfAbsent(patient, p -> new ArrayDeque<>());
+        for (int i = unsent.size() - 1; i >= 0; i--) {
+            queue.addFirst(unsent.get(i));
+        }
+        streaming.remove(patient);
+        logger.warn("Issuance stream to {} failed; {} records are queued for the next stream.", patient.getName(), queue.size());
+    }
+
+    /**
+     * Called by a stream that gave up on [failed] without requeueing them, because the patient refused them or because
+     * they may already have been notarised. They are reported as failed with [reason]. If records are still queued
+     * for [patient], a new stream is started for them; otherwise the next enqueue starts one.
+     */
+    public void fail(Party patient, List<QueuedRecord> failed, String reason) {
+        final boolean restart;
+        synchronized (this) {
+            for (QueuedRecord record : failed) {
+                failures.put(record.getLinearId(), reason);
+            }
+            final ArrayDeque<QueuedRecord> queue = queues.get(patient);
+            restart = queue != null && !queue.isEmpty();
+            if (!restart) {
+                queues.remove(patient);
+                streaming.remove(patient);
+            }
+        }
+        logger.warn("Issuance stream to {} gave up on {} records: {}", patient.getName(), failed.size(), reason);
+        if (restart) {
+            startStream(patient);
+        }
+    }
+
+    /**
+     * Returns why each of [linearIds] failed to be issued, for those that did.
+     */
+    public synchronized Map<UniqueIdentifier, String> getFailures(List<UniqueIdentifier> linearIds) {
+        final Map<UniqueIdentifier, String> found = new LinkedHashMap<>();
+        for (UniqueIdentifier linearId : linearIds) {
+            final String reason = failures.get(linearId);
+            if (reason != null) found.put(linearId, reason);
+        }
+        return found;
+    }
+
+    public void recordIssued(int records) {
+        issuedRecords.addAndGet(records);
+        issuedBatches.incrementAndGet();
+    }
+
+    public long getIssuedRecords() { return issuedRecords.get(); }
+    public long getIssuedBatches() { return issuedBatches.get(); }
+
+    /**
+     * The number of patients with a stream running or about to start.
+     */
+    public synchronized int getStreams() {
+        return streaming.size();
+    }
+
+    public synchronized int getQueued() {
+        int queued = 0;
+        for (ArrayDeque<QueuedRecord> queue : queues.values()) queued += queue.size();
+        return queued;
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.service;
+
+/**
+ * Counts events in one-second buckets over the last hour, so rates over any window up to an hour cost one pass over
+ * at most [SECONDS] buckets and no history is kept beyond that.
+ */
+class RateWindow {
+    static final int SECONDS = 3600;
+
+    private final long[] counts = new long[SECONDS];
+    private final long[] bucketSeconds = new long[SECONDS];
+
+    synchronized void record(long epochSecond, long events) {
+        final int bucket = (int) Math.floorMod(epochSecond, (long) SECONDS);
+        if (bucketSeconds[bucket] != epochSecond) {
+            bucketSeconds[bucket] = epochSecond;
+            counts[bucket] = 0;
+        }
+        counts[bucket] += events;
+    }
+
+    /**
+     * The number of events recorded in the [seconds] seconds up to and including [nowSecond].
+     */
+    synchronized long count(long nowSecond, int seconds) {
+        if (seconds < 1 || seconds > SECONDS) {
+            throw new IllegalArgumentException("The window must be between 1 and " + SECONDS + " seconds.");
+        }
+        long total = 0;
+        for (long second = nowSecond - seconds + 1; second <= nowSecond; second++) {
+            final int bucket = (int) Math.floorMod(second, (long) SECONDS);
+            if (bucketSeconds[bucket] == second) total += counts[bucket];
+        }
+        return total;
+    }
+
+    /**
+     * The mean events per second over the [seconds] seconds up to [nowSecond].
+     */
+    double rate(long nowSecond, int seconds) {
+        return (double) count(nowSecond, seconds) / seconds;
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.service;
+
+import com.example.state.IOUState;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.serialization.SerializationAPIKt;
+import net.corda.core.serialization.SerializationDefaults;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks how many IOU rows the vault holds, how big they are and how fast they arrive, without scanning the vault
+ * tables each time it is asked.
+ *
+ * The row counts are read from the vault once, on first use and inside the caller's transaction, and from then on
+ * kept current from vault updates. Sizes are those of each state as the vault stores it, serialized with the storage
+ * context; the average is seeded from a sample of existing states. Index sizes are estimates from the key columns of
+ * each row plus [INDEX_ENTRY_OVERHEAD_BYTES], as the real figures are specific to the database. Issuance and
+ * consumption rates are kept in [RateWindow]s.
+ *
+ * A transaction committed while the counts are being loaded may be counted twice, so they can be off by the number
+ * of IOUs issued in that moment.
+ */
+@CordaService
+public class VaultStatsService extends SingletonSerializeAsToken {
+    static final int SAMPLE_SIZE = 500;
+    static final int INDEX_ENTRY_OVERHEAD_BYTES = 16;
+    // A state reference is stored as a 64 character transaction ID and an integer output index.
+    static final int STATE_REF_BYTES = 64 + 4;
+    private static final int[] WINDOWS_SECONDS = {60, 300, 900, 3600};
+
+    static private final Logger logger = LoggerFactory.getLogger(VaultStatsService.class);
+
+    private final AppServiceHub serviceHub;
+    private final RateWindow issued = new RateWindow();
+    private final RateWindow consumed = new RateWindow();
+    private volatile boolean loaded;
+    private Instant loadedAt;
+
+    private long unconsumedRows;
+    private long consumedRows;
+    private long serializedBytes;
+    private long sizedStates;
+    private long hospitalPatientKeyBytes;
+
+    public VaultStatsService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        serviceHub.getVaultService().getUpdates().subscribe(this::apply);
+    }
+
+    private void apply(Vault.Update<ContractState> update) {
+        final long now = Instant.now().getEpochSecond();
+        long produced = 0;
+        long spent = 0;
+        for (StateAndRef<ContractState> state : update.getProduced()) {
+            if (!(state.getState().getData() instanceof IOUState)) continue;
+            produced++;
+            if (loaded) addProduced(state.getState());
+        }
+        for (StateAndRef<ContractState> state : update.getConsumed()) {
+            if (state.getState().getData() instanceof IOUState) spent++;
+        }
+        if (produced > 0) issued.record(now, produced);
+        if (spent > 0) {
+            consumed.record(now, spent);
+            if (loaded) {
+                synchronized (this) {
+                    unconsumedRows -= spent;
+                    consumedRows += spent;
+                }
+            }
+        }
+    }
+
+    private synchronized void addProduced(TransactionState<? extends ContractState> state) {
+        serializedBytes += serializedSize(state);
+        sizedStates++;
+        final IOUState iou = (IOUState) state.getData();
+        hospitalPatientKeyBytes += utf8Length(iou.getHospital().getName().toString())
+                + utf8Length(iou.getPatient().getName().toString());
+        unconsumedRows++;
+    }
+
+    private static long serializedSize(TransactionState<? extends ContractState> state) {
+        return SerializationAPIKt.serialize(state, SerializationDefaults.INSTANCE.getSERIALIZATION_FACTORY(),
+                SerializationDefaults.INSTANCE.getSTORAGE_CONTEXT()).getSize();
+    }
+
+    private static int utf8Length(String value) {
+        return value.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Reads the row counts, and a sample of states to size, from the vault. Must be called inside a database
+     * transaction, as flows are.
+     */
+    private void loadIfNeeded() {
+        if (loaded) return;
+        synchronized (this) {
+            if (loaded) return;
+            final long started = System.nanoTime();
+            final PageSpecification one = new PageSpecification(1, 1);
+            unconsumedRows = serviceHub.getVaultService().queryBy(IOUState.class,
+                    new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED), one).getTotalStatesAvailable();
+            consumedRows = serviceHub.getVaultService().queryBy(IOUState.class,
+                    new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.CONSUMED), one).getTotalStatesAvailable();
+            final List<StateAndRef<IOUState>> sample = serviceHub.getVaultService().queryBy(IOUState.class,
+                    new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.ALL), new PageSpecification(1, SAMPLE_SIZE))
+                    .getStates();
+            if (!sample.isEmpty()) {
+                // Scale the sample up to the whole vault, so the averages start from the existing states.
+                final long rows = unconsumedRows + consumedRows;
+                long sampleBytes = 0;
+                long sampleKeyBytes = 0;
+                for (StateAndRef<IOUState> state : sample) {
+                    sampleBytes += serializedSize(state.getState());
+                    sampleKeyBytes += utf8Length(state.getState().getData().getHospital().getName().toString())
+                            + utf8Length(state.getState().getData().getPatient().getName().toString());
+                }
+                serializedBytes = sampleBytes * rows / sample.size();
+                hospitalPatientKeyBytes = sampleKeyBytes * rows / sample.size();
+                sizedStates = rows;
+            }
+            loadedAt = Instant.now();
+            loaded = true;
+            logger.info("Loaded vault statistics for {} IOU rows in {}ms.", unconsumedRows + consumedRows,
+                    (System.nanoTime() - started) / 1000000);
+        }
+    }
+
+    /**
+     * Reports the IOU row counts by status, serialized state sizes, estimated index sizes and the issuance and
+     * consumption rates over the last minute, five minutes, quarter hour and hour.
+     */
+    public Map<String, Object> stats() {
+        loadIfNeeded();
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (this) {
+            final long rows = unconsumedRows + consumedRows;
+            final Map<String, Object> rowCounts = new LinkedHashMap<>();
+            rowCounts.put("unconsumed", unconsumedRows);
+            rowCounts.put("consumed", consumedRows);
+            rowCounts.put("total", rows);
+            stats.put("rows", rowCounts);
+
+            final Map<String, Object> states = new LinkedHashMap<>();
+            states.put("averageSerializedBytes", sizedStates == 0 ? 0 : serializedBytes / sizedStates);
+            states.put("totalSerializedBytes", serializedBytes);
+            stats.put("states", states);
+
+            final Map<String, Object> indexes = new LinkedHashMap<>();
+            final long primaryKeyBytes = rows * (STATE_REF_BYTES + INDEX_ENTRY_OVERHEAD_BYTES);
+            indexes.put("vault_states_pkey", primaryKeyBytes);
+            indexes.put("iou_states_pkey", primaryKeyBytes);
+            indexes.put("iou_hospital_patient_idx",
+                    hospitalPatientKeyBytes + rows * (STATE_REF_BYTES + INDEX_ENTRY_OVERHEAD_BYTES));
+            stats.put("estimatedIndexBytes", indexes);
+            stats.put("countedSince", loadedAt.toString());
+        }
+        final long now = Instant.now().getEpochSecond();
+        stats.put("issuedPerSecond", rates(issued, now));
+        stats.put("consumedPerSecond", rates(consumed, now));
+        return stats;
+    }
+
+    private static Map<String, Object> rates(RateWindow window, long now) {
+        final Map<String, Object> rates = new LinkedHashMap<>();
+        for (int seconds : WINDOWS_SECONDS) {
+            rates.put(seconds / 60 + "m", window.rate(now, seconds));
+        }
+        return rates;
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.snapshot;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packs non-negative values of a fixed bit width into consecutive 64-bit words, lowest bits first.
+ */
+class BitPacking {
+    private BitPacking() {
+    }
+
+    static long[] pack(long[] values, int count, int bitWidth) {
+        final long[] words = new long[(int) (((long) count * bitWidth + 63) / 64)];
+        for (int i = 0; i < count && bitWidth > 0; i++) {
+            final long bit = (long) i * bitWidth;
+            final int word = (int) (bit >>> 6);
+            final int shift = (int) (bit & 63);
+            words[word] |= values[i] << shift;
+            if (shift + bitWidth > 64) words[word + 1] |= values[i] >>> (64 - shift);
+        }
+        return words;
+    }
+
+    /**
+     * Reads the [index]th value from words starting at [wordsOffset] in [buffer].
+     */
+    static long get(ByteBuffer buffer, int wordsOffset, int bitWidth, int index) {
+        if (bitWidth == 0) return 0;
+        final long bit = (long) index * bitWidth;
+        final int word = (int) (bit >>> 6);
+        final int shift = (int) (bit & 63);
+        long value = buffer.getLong(wordsOffset + word * 8) >>> shift;
+        if (shift + bitWidth > 64) value |= buffer.getLong(wordsOffset + (word + 1) * 8) << (64 - shift);
+        return bitWidth == 64 ? value : value & ((1L << bitWidth) - 1);
+    }
+}
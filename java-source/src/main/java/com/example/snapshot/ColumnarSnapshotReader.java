@@ -0,0 +1,192 @@
+package com.example.snapshot;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Reads a file written by [ColumnarSnapshotWriter].
+ *
+ * Only the footer is read up front. Column chunks are memory-mapped when asked for, one at a time, so a reader
+ * touches just the columns and row groups it uses; [rowGroups] with a range uses the footer's min/max statistics to
+ * leave out row groups that cannot match.
+ */
+public class ColumnarSnapshotReader implements Closeable {
+    private final FileChannel channel;
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, ColumnarSnapshotWriter.Type> types = new LinkedHashMap<>();
+    private final List<RowGroup> rowGroups = new ArrayList<>();
+    private final long rows;
+
+    @SuppressWarnings("unchecked")
+    public ColumnarSnapshotReader(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        final long size = channel.size();
+        final int trailer = 4 + ColumnarSnapshotWriter.MAGIC.length;
+        final byte[] magic = new byte[ColumnarSnapshotWriter.MAGIC.length];
+        ByteBuffer end = null;
+        if (size >= ColumnarSnapshotWriter.MAGIC.length + trailer) {
+            end = map(size - trailer, trailer);
+            end.position(4);
+            end.get(magic);
+        }
+        if (end == null || !Arrays.equals(magic, ColumnarSnapshotWriter.MAGIC)) {
+            channel.close();
+            throw new IOException(file + " is not a columnar snapshot.");
+        }
+        final int footerLength = end.getInt(0);
+        final ByteBuffer footerBytes = map(size - trailer - footerLength, footerLength);
+        final byte[] json = new byte[footerLength];
+        footerBytes.get(json);
+        final Map<String, Object> footer = new ObjectMapper().readValue(json, Map.class);
+
+        for (Map<String, Object> column : (List<Map<String, Object>>) footer.get("columns")) {
+            final String name = (String) column.get("name");
+            names.add(name);
+            types.put(name, ColumnarSnapshotWriter.Type.valueOf((String) column.get("type")));
+        }
+        for (Map<String, Object> rowGroup : (List<Map<String, Object>>) footer.get("rowGroups")) {
+            rowGroups.add(new RowGroup(rowGroups.size(), ((Number) rowGroup.get("rows")).intValue(),
+                    (List<Map<String, Object>>) rowGroup.get("chunks")));
+        }
+        this.rows = ((Number) footer.get("rows")).longValue();
+    }
+
+    private ByteBuffer map(long position, long length) throws IOException {
+        final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public List<String> getColumns() {
+        return Collections.unmodifiableList(names);
+    }
+
+    public ColumnarSnapshotWriter.Type getType(String column) {
+        return types.get(column);
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public List<RowGroup> rowGroups() {
+        return Collections.unmodifiableList(rowGroups);
+    }
+
+    /**
+     * The row groups in which integer [column] may hold a value between [min] and [max] inclusive.
+     */
+    public List<RowGroup> rowGroups(String column, int min, int max) {
+        final int index = indexOf(column, ColumnarSnapshotWriter.Type.INT);
+        final List<RowGroup> matching = new ArrayList<>();
+        for (RowGroup rowGroup : rowGroups) {
+            final Map<String, Object> chunk = rowGroup.chunks.get(index);
+            if (((Number) chunk.get("max")).intValue() >= min && ((Number) chunk.get("min")).intValue() <= max) {
+                matching.add(rowGroup);
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * The row groups in which string [column] may hold [value].
+     */
+    public List<RowGroup> rowGroups(String column, String value) {
+        final int index = indexOf(column, ColumnarSnapshotWriter.Type.STRING);
+        final List<RowGroup> matching = new ArrayList<>();
+        for (RowGroup rowGroup : rowGroups) {
+            final Map<String, Object> chunk = rowGroup.chunks.get(index);
+            final String min = (String) chunk.get("min");
+            final String max = (String) chunk.get("max");
+            if (min != null && value.compareTo(min) >= 0 && value.compareTo(max) <= 0) matching.add(rowGroup);
+        }
+        return matching;
+    }
+
+    private int indexOf(String column, ColumnarSnapshotWriter.Type type) {
+        final int index = names.indexOf(column);
+        if (index < 0 || types.get(column) != type) {
+            throw new IllegalArgumentException("No " + type + " column called " + column);
+        }
+        return index;
+    }
+
+    /**
+     * Decodes integer [column] of [rowGroup].
+     */
+    public int[] ints(RowGroup rowGroup, String column) throws IOException {
+        final ByteBuffer chunk = chunk(rowGroup, indexOf(column, ColumnarSnapshotWriter.Type.INT));
+        final int count = chunk.getInt(0);
+        final int min = chunk.getInt(4);
+        final int bitWidth = chunk.getInt(8);
+        final int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = (int) (min + BitPacking.get(chunk, 12, bitWidth, i));
+        }
+        return values;
+    }
+
+    /**
+     * Decodes string [column] of [rowGroup]. Rows with equal values share one String instance.
+     */
+    public String[] strings(RowGroup rowGroup, String column) throws IOException {
+        final ByteBuffer chunk = chunk(rowGroup, indexOf(column, ColumnarSnapshotWriter.Type.STRING));
+        final int count = chunk.getInt(0);
+        final String[] dictionary = new String[chunk.getInt(4)];
+        int position = 8;
+        for (int i = 0; i < dictionary.length; i++) {
+            final int length = chunk.getInt(position);
+            position += 4;
+            if (length >= 0) {
+                final byte[] bytes = new byte[length];
+                chunk.position(position);
+                chunk.get(bytes);
+                dictionary[i] = new String(bytes, StandardCharsets.UTF_8);
+                position += length;
+            }
+        }
+        final int bitWidth = chunk.getInt(position);
+        final String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = dictionary[(int) BitPacking.get(chunk, position + 4, bitWidth, i)];
+        }
+        return values;
+    }
+
+    private ByteBuffer chunk(RowGroup rowGroup, int column) throws IOException {
+        final Map<String, Object> chunk = rowGroup.chunks.get(column);
+        return map(((Number) chunk.get("offset")).longValue(), ((Number) chunk.get("length")).longValue());
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * A row group's position in the file and its per-column statistics.
+     */
+    public static class RowGroup {
+        private final int index;
+        private final int rows;
+        private final List<Map<String, Object>> chunks;
+
+        private RowGroup(int index, int rows, List<Map<String, Object>> chunks) {
+            this.index = index;
+            this.rows = rows;
+            this.chunks = chunks;
+        }
+
+        public int getIndex() { return index; }
+        public int getRows() { return rows; }
+    }
+}
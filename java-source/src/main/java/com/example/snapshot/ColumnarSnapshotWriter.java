@@ -0,0 +1,207 @@
+package com.example.snapshot;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Writes rows to a self-describing columnar snapshot file.
+ *
+ * The file is the magic `CCS1`, then row groups of [rowGroupSize] rows, then a JSON footer, its length as a 4-byte
+ * int, and the magic again. Within a row group each column is one chunk: integers are stored as offsets from the
+ * chunk minimum, bit-packed at the narrowest width that holds the range; strings are stored as a dictionary of the
+ * chunk's distinct values followed by bit-packed codes. The footer lists the columns and their types, and for every
+ * chunk its offset, length and min/max, which is what lets [ColumnarSnapshotReader] skip chunks and row groups.
+ * All numbers are little-endian.
+ */
+public class ColumnarSnapshotWriter implements Closeable {
+    static final byte[] MAGIC = "CCS1".getBytes(StandardCharsets.US_ASCII);
+    static final int DEFAULT_ROW_GROUP_SIZE = 65536;
+
+    public enum Type { INT, STRING }
+
+    private final FileChannel channel;
+    private final List<String> names;
+    private final List<Type> types;
+    private final int rowGroupSize;
+    private final Object[] buffers;
+    private final List<Map<String, Object>> rowGroups = new ArrayList<>();
+    private int buffered;
+    private long rows;
+
+    /**
+     * @param columns the column names and types, in order.
+     */
+    public ColumnarSnapshotWriter(Path file, LinkedHashMap<String, Type> columns, int rowGroupSize) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.names = new ArrayList<>(columns.keySet());
+        this.types = new ArrayList<>(columns.values());
+        this.rowGroupSize = rowGroupSize;
+        this.buffers = new Object[names.size()];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = types.get(i) == Type.INT ? new int[rowGroupSize] : new String[rowGroupSize];
+        }
+        write(ByteBuffer.wrap(MAGIC));
+    }
+
+    /**
+     * Appends a row. [values] are in column order; integers may be any [Number] and strings may be null.
+     */
+    public void addRow(Object... values) throws IOException {
+        if (values.length != names.size()) {
+            throw new IllegalArgumentException("Expected " + names.size() + " values, got " + values.length);
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (types.get(i) == Type.INT) {
+                ((int[]) buffers[i])[buffered] = values[i] == null ? 0 : ((Number) values[i]).intValue();
+            } else {
+                ((String[]) buffers[i])[buffered] = values[i] == null ? null : values[i].toString();
+            }
+        }
+        if (++buffered == rowGroupSize) flushRowGroup();
+    }
+
+    private void flushRowGroup() throws IOException {
+        if (buffered == 0) return;
+        final List<Map<String, Object>> chunks = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            final long offset = channel.position();
+            final Map<String, Object> chunk = new LinkedHashMap<>();
+            if (types.get(i) == Type.INT) {
+                writeInts((int[]) buffers[i], chunk);
+            } else {
+                writeStrings((String[]) buffers[i], chunk);
+            }
+            chunk.put("offset", offset);
+            chunk.put("length", channel.position() - offset);
+            chunks.add(chunk);
+        }
+        final Map<String, Object> rowGroup = new LinkedHashMap<>();
+        rowGroup.put("rows", buffered);
+        rowGroup.put("chunks", chunks);
+        rowGroups.add(rowGroup);
+        rows += buffered;
+        buffered = 0;
+    }
+
+    private void writeInts(int[] values, Map<String, Object> chunk) throws IOException {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < buffered; i++) {
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        final int bitWidth = bitWidth((long) max - min);
+        final long[] offsets = new long[buffered];
+        for (int i = 0; i < buffered; i++) offsets[i] = (long) values[i] - min;
+        final long[] words = BitPacking.pack(offsets, buffered, bitWidth);
+        final ByteBuffer buffer = allocate(4 + 4 + 4 + words.length * 8);
+        buffer.putInt(buffered).putInt(min).putInt(bitWidth);
+        for (long word : words) buffer.putLong(word);
+        buffer.flip();
+        write(buffer);
+        chunk.put("min", min);
+        chunk.put("max", max);
+        chunk.put("bitWidth", bitWidth);
+    }
+
+    private void writeStrings(String[] values, Map<String, Object> chunk) throws IOException {
+        final Map<String, Integer> codes = new HashMap<>();
+        final List<String> dictionary = new ArrayList<>();
+        final long[] encoded = new long[buffered];
+        String min = null;
+        String max = null;
+        for (int i = 0; i < buffered; i++) {
+            final String value = values[i];
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                codes.put(value, code);
+                dictionary.add(value);
+                if (value != null) {
+                    if (min == null || value.compareTo(min) < 0) min = value;
+                    if (max == null || value.compareTo(max) > 0) max = value;
+                }
+            }
+            encoded[i] = code;
+        }
+        int dictionaryBytes = 0;
+        final List<byte[]> entries = new ArrayList<>(dictionary.size());
+        for (String value : dictionary) {
+            final byte[] bytes = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+            entries.add(bytes);
+            dictionaryBytes += 4 + (bytes == null ? 0 : bytes.length);
+        }
+        final int bitWidth = bitWidth(dictionary.size() - 1);
+        final long[] words = BitPacking.pack(encoded, buffered, bitWidth);
+        final ByteBuffer buffer = allocate(4 + 4 + dictionaryBytes + 4 + words.length * 8);
+        buffer.putInt(buffered).putInt(dictionary.size());
+        for (byte[] bytes : entries) {
+            buffer.putInt(bytes == null ? -1 : bytes.length);
+            if (bytes != null) buffer.put(bytes);
+        }
+        buffer.putInt(bitWidth);
+        for (long word : words) buffer.putLong(word);
+        buffer.flip();
+        write(buffer);
+        chunk.put("min", min);
+        chunk.put("max", max);
+        chunk.put("distinct", dictionary.size());
+        chunk.put("bitWidth", bitWidth);
+    }
+
+    static int bitWidth(long range) {
+        return range <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(range);
+    }
+
+    private static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    public long getRows() {
+        return rows + buffered;
+    }
+
+    /**
+     * Writes the last row group and the footer.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flushRowGroup();
+            final List<Map<String, Object>> columns = new ArrayList<>();
+            for (int i = 0; i < names.size(); i++) {
+                final Map<String, Object> column = new LinkedHashMap<>();
+                column.put("name", names.get(i));
+                column.put("type", types.get(i).name());
+                columns.add(column);
+            }
+            final Map<String, Object> footer = new LinkedHashMap<>();
+            footer.put("format", "carechain-columnar");
+            footer.put("version", 1);
+            footer.put("rows", rows);
+            footer.put("columns", columns);
+            footer.put("rowGroups", rowGroups);
+            final byte[] json = new ObjectMapper().writeValueAsBytes(footer);
+            write(ByteBuffer.wrap(json));
+            write((ByteBuffer) allocate(4).putInt(json.length).flip());
+            write(ByteBuffer.wrap(MAGIC));
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+    }
+}
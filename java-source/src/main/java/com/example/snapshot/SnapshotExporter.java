@@ -0,0 +1,194 @@
+package com.example.snapshot;
+
+import com.example.client.ChangeSegmentWriter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.example.snapshot.ColumnarSnapshotWriter.Type.INT;
+import static com.example.snapshot.ColumnarSnapshotWriter.Type.STRING;
+
+/**
+ * Writes the IOUs in a node's vault to a columnar snapshot without going through the node.
+ *
+ * The source is one of:
+ * - an NDJSON dump with one IOU per line;
+ * - the change-log directory of the vault change exporter, whose segments are read in order up to its checkpoint;
+ * - a stopped node's database, as a node directory (its H2 `persistence` file is opened) or a JDBC URL.
+ * In the database case both consumed and unconsumed IOUs are exported, with their vault status.
+ */
+public class SnapshotExporter {
+    /** The snapshot columns, in file order. */
+    public static final LinkedHashMap<String, ColumnarSnapshotWriter.Type> IOU_COLUMNS = new LinkedHashMap<>();
+
+    static {
+        IOU_COLUMNS.put("stateRef", STRING);
+        IOU_COLUMNS.put("linearId", STRING);
+        IOU_COLUMNS.put("status", STRING);
+        IOU_COLUMNS.put("hospital", STRING);
+        IOU_COLUMNS.put("patient", STRING);
+        IOU_COLUMNS.put("name", STRING);
+        IOU_COLUMNS.put("age", INT);
+        IOU_COLUMNS.put("gender", STRING);
+        IOU_COLUMNS.put("height", INT);
+        IOU_COLUMNS.put("weight", INT);
+        IOU_COLUMNS.put("bloodGroup", STRING);
+        IOU_COLUMNS.put("diagnosis", STRING);
+        IOU_COLUMNS.put("medicine", STRING);
+    }
+
+    private static final String VAULT_QUERY = "SELECT v.transaction_id, v.output_index, v.state_status, i.linear_id, "
+            + "i.hospital, i.patient, i.name, i.age, i.gender, i.height, i.weight, i.bloodGroup, i.diagnosis, i.medicine "
+            + "FROM vault_states v JOIN iou_states i "
+            + "ON v.transaction_id = i.transaction_id AND v.output_index = i.output_index";
+
+    static private final Logger logger = LoggerFactory.getLogger(SnapshotExporter.class);
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Usage: SnapshotExporter <dump.ndjson | change-log directory | node directory | jdbc:url> <output file>");
+        }
+        final Path output = Paths.get(args[1]);
+        if (output.getParent() != null) Files.createDirectories(output.getParent());
+        final long started = System.nanoTime();
+        final long rows;
+        try (ColumnarSnapshotWriter writer = new ColumnarSnapshotWriter(output, IOU_COLUMNS,
+                Integer.getInteger("carechain.snapshot.rowGroupSize", ColumnarSnapshotWriter.DEFAULT_ROW_GROUP_SIZE))) {
+            if (args[0].startsWith("jdbc:")) {
+                exportDatabase(args[0], writer);
+            } else if (Files.exists(Paths.get(args[0]).resolve(ChangeSegmentWriter.CHECKPOINT_FILE))) {
+                exportChangeLog(Paths.get(args[0]), writer);
+            } else if (Files.isDirectory(Paths.get(args[0]))) {
+                // IFEXISTS stops H2 from quietly creating an empty database when the directory is not a node's.
+                exportDatabase("jdbc:h2:file:" + Paths.get(args[0]).toAbsolutePath().resolve("persistence") + ";IFEXISTS=TRUE", writer);
+            } else {
+                exportNdjson(Paths.get(args[0]), writer);
+            }
+            rows = writer.getRows();
+        }
+        logger.info("Wrote {} IOUs to {} ({} bytes) in {}ms.", rows, output, Files.size(output),
+                (System.nanoTime() - started) / 1000000);
+    }
+
+    /**
+     * Exports the IOUs in [dump]. A change log from the vault change exporter has a `produced` line per state and a
+     * `consumed` line per consumption, possibly repeated, so it is read twice: once to find the consumed states, then
+     * again to write each state once with its final status. Lines without a `kind` are written as they are.
+     */
+    public static void exportNdjson(Path dump, ColumnarSnapshotWriter writer) throws IOException {
+        export(ImmutableList.of(new Segment(dump, Long.MAX_VALUE)), writer);
+    }
+
+    /**
+     * Exports the IOUs in the change log [directory] written by [ChangeSegmentWriter]. Its segments are read in order,
+     * the last one only up to the checkpointed offset: anything after that was never synced, and the exporter writes
+     * it again when it resumes.
+     */
+    @SuppressWarnings("unchecked")
+    public static void exportChangeLog(Path directory, ColumnarSnapshotWriter writer) throws IOException {
+        final Map<String, Object> checkpoint = new ObjectMapper().readValue(
+                directory.resolve(ChangeSegmentWriter.CHECKPOINT_FILE).toFile(), Map.class);
+        final int last = ((Number) checkpoint.get("segment")).intValue();
+        final List<Segment> segments = new ArrayList<>();
+        for (int number = 0; number <= last; number++) {
+            final Path path = directory.resolve(ChangeSegmentWriter.segmentFileName(number));
+            if (!Files.exists(path)) {
+                logger.warn("Change log segment {} is missing; its events are not exported.", path);
+                continue;
+            }
+            segments.add(new Segment(path, number == last ? ((Number) checkpoint.get("offset")).longValue() : Long.MAX_VALUE));
+        }
+        export(segments, writer);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void export(List<Segment> segments, ColumnarSnapshotWriter writer) throws IOException {
+        final ObjectMapper mapper = new ObjectMapper();
+        final Set<String> consumed = new HashSet<>();
+        for (Segment segment : segments) {
+            try (BufferedReader reader = segment.open()) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.contains("\"consumed\"")) {
+                        final Map<String, Object> record = mapper.readValue(line, Map.class);
+                        if ("consumed".equals(record.get("kind"))) consumed.add((String) record.get("stateRef"));
+                    }
+                }
+            }
+        }
+        final Set<String> written = new HashSet<>();
+        for (Segment segment : segments) {
+            try (BufferedReader reader = segment.open()) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.trim().isEmpty()) continue;
+                    final Map<String, Object> record = mapper.readValue(line, Map.class);
+                    final String stateRef = (String) record.get("stateRef");
+                    if (record.containsKey("kind") && (!"produced".equals(record.get("kind")) || !written.add(stateRef))) {
+                        continue;
+                    }
+                    writer.addRow(stateRef, record.get("linearId"),
+                            consumed.contains(stateRef) ? "CONSUMED" : record.getOrDefault("status", "UNCONSUMED"),
+                            record.get("hospital"), record.get("patient"), record.get("name"), record.get("age"),
+                            record.get("gender"), record.get("height"), record.get("weight"), record.get("bloodGroup"),
+                            record.get("diagnosis"), record.get("medicine"));
+                }
+            }
+        }
+    }
+
+    /**
+     * An NDJSON file to be read up to [limit] bytes.
+     */
+    private static class Segment {
+        private final Path path;
+        private final long limit;
+
+        private Segment(Path path, long limit) {
+            this.path = path;
+            this.limit = limit;
+        }
+
+        private BufferedReader open() throws IOException {
+            return new BufferedReader(new InputStreamReader(
+                    ByteStreams.limit(Files.newInputStream(path), limit), StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Exports every IOU in the vault of the node database at [url]. The node must be stopped, as H2 locks its file.
+     */
+    public static void exportDatabase(String url, ColumnarSnapshotWriter writer) throws SQLException, IOException {
+        try (Connection connection = DriverManager.getConnection(url, System.getProperty("carechain.snapshot.dbUser", "sa"),
+                System.getProperty("carechain.snapshot.dbPassword", ""));
+             Statement statement = connection.createStatement()) {
+            statement.setFetchSize(10000);
+            try (ResultSet results = statement.executeQuery(VAULT_QUERY)) {
+                while (results.next()) {
+                    writer.addRow(results.getString(1) + "(" + results.getInt(2) + ")", results.getString(4),
+                            results.getInt(3) == 0 ? "UNCONSUMED" : "CONSUMED",
+                            results.getString(5), results.getString(6), results.getString(7), results.getInt(8),
+                            results.getString(9), results.getInt(10), results.getInt(11), results.getString(12),
+                            results.getString(13), results.getString(14));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.state;
+
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.Party;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.Objects;
+
+/**
+ * The patient details carried by an [IOUState], without the parties or the linear ID.
+ *
+ * This is what clients submit for issuance, so it is the unit that flows send and batch.
+ */
+@CordaSerializable
+public class PatientRecord {
+    private final String name;
+    private final int age;
+    private final String gender;
+    private final int height;
+    private final int weight;
+    private final String bloodGroup;
+    private final String diagnosis;
+    private final String medicine;
+
+    public PatientRecord(String name, int age, String gender, int height, int weight,
+                         String bloodGroup, String diagnosis, String medicine) {
+        this.name = name;
+        this.age = age;
+        this.gender = gender;
+        this.height = height;
+        this.weight = weight;
+        this.bloodGroup = bloodGroup;
+        this.diagnosis = diagnosis;
+        this.medicine = medicine;
+    }
+
+    public String getName() { return name; }
+    public int getAge() { return age; }
+    public String getGender() { return gender; }
+    public int getHeight() { return height; }
+    public int getWeight() { return weight; }
+    public String getBloodGroup() { return bloodGroup; }
+    public String getDiagnosis() { return diagnosis; }
+    public String getMedicine() { return medicine; }
+
+    /**
+     * Creates the state recording this patient as issued by [hospital] to [patient].
+     */
+    public IOUState toState(Party hospital, Party patient, UniqueIdentifier linearId) {
+        return new IOUState(hospital, patient, name, age, gender, height, weight, bloodGroup, diagnosis, medicine, linearId);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PatientRecord)) return false;
+        PatientRecord that = (PatientRecord) o;
+        return age == that.age && height == that.height && weight == that.weight
+                && Objects.equals(name, that.name) && Objects.equals(gender, that.gender)
+                && Objects.equals(bloodGroup, that.bloodGroup) && Objects.equals(diagnosis, that.diagnosis)
+                && Objects.equals(medicine, that.medicine);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, age, gender, height, weight, bloodGroup, diagnosis, medicine);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PatientRecord(name=%s, age=%s, gender=%s, height=%s, weight=%s, bloodGroup=%s, diagnosis=%s, medicine=%s)",
+                name, age, gender, height, weight, bloodGroup, diagnosis, medicine);
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.trace;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.corda.core.serialization.CordaSerializable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Records timing spans for a request as it passes from the webserver through the initiating flow to the counterparty.
+ *
+ * Every span carries the correlation ID of the request it belongs to, so spans written by different processes can be
+ * put back together by [TraceViewer]. Each process appends its spans to `spans-<node>.ndjson` under
+ * `carechain.trace.dir` (by default `traces`, relative to the working directory, which for a node is its own
+ * directory). Spans are written on a background thread, so recording one never blocks a flow on disk.
+ *
+ * Times are wall-clock microseconds, so they stay comparable across nodes and survive a flow being restored from a
+ * checkpoint. Clock skew between machines shows up as gaps or overlaps between the hops.
+ */
+public final class SpanLog {
+    public static final String CORRELATION_ID_HEADER = "X-Correlation-Id";
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("carechain.trace.enabled", "true"));
+    static final Path DIRECTORY = Paths.get(System.getProperty("carechain.trace.dir", "traces"));
+
+    static private final Logger logger = LoggerFactory.getLogger(SpanLog.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final Map<String, Writer> writers = new HashMap<>();
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "span-log");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private SpanLog() {
+    }
+
+    public static String newCorrelationId() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Starts timing [name] on [node] for the request [correlationId].
+     */
+    public static Span start(String correlationId, String name, String node) {
+        return new Span(correlationId, name, node, nowMicros());
+    }
+
+    static long nowMicros() {
+        final Instant now = Instant.now();
+        return now.getEpochSecond() * 1000000 + now.getNano() / 1000;
+    }
+
+    /**
+     * A span that has been started and not yet recorded. It holds only strings and a timestamp, so it can be kept in
+     * a flow across suspensions.
+     */
+    @CordaSerializable
+    public static class Span {
+        private final String correlationId;
+        private final String name;
+        private final String node;
+        private final long startMicros;
+
+        private Span(String correlationId, String name, String node, long startMicros) {
+            this.correlationId = correlationId;
+            this.name = name;
+            this.node = node;
+            this.startMicros = startMicros;
+        }
+
+        public String getCorrelationId() { return correlationId; }
+
+        /**
+         * Records the span as ending now.
+         */
+        public void end() {
+            end(null);
+        }
+
+        /**
+         * Records the span as ending now, with [detail] (a transaction ID or an error, say) attached.
+         */
+        public void end(String detail) {
+            if (!ENABLED) return;
+            final Map<String, Object> span = new LinkedHashMap<>();
+            span.put("correlationId", correlationId);
+            span.put("name", name);
+            span.put("node", node);
+            span.put("startMicros", startMicros);
+            span.put("durationMicros", nowMicros() - startMicros);
+            if (detail != null) span.put("detail", detail);
+            writer.execute(() -> append(node, span));
+        }
+    }
+
+    private static void append(String node, Map<String, Object> span) {
+        try {
+            Writer out = writers.get(node);
+            if (out == null) {
+                Files.createDirectories(DIRECTORY);
+                out = Files.newBufferedWriter(DIRECTORY.resolve(fileName(node)), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                writers.put(node, out);
+            }
+            out.write(mapper.writeValueAsString(span));
+            out.write('\n');
+            out.flush();
+        } catch (IOException e) {
+            logger.warn("Could not record span {}: {}", span, e.getMessage());
+        }
+    }
+
+    /**
+     * Waits until every span recorded so far has been written.
+     */
+    static void flush() throws InterruptedException, ExecutionException {
+        writer.submit(() -> { }).get();
+    }
+
+    static String fileName(String node) {
+        return "spans-" + node.replaceAll("[^A-Za-z0-9_.-]", "_") + ".ndjson";
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.trace;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Reads the span logs written by [SpanLog] on any number of nodes and puts the spans for each request back together.
+ *
+ * Usage: `TraceViewer [--trace <correlation id>] [--chrome <output file>] <span log file or directory>...`
+ *
+ * By default it prints the mean time spent in each span across every request, followed by a waterfall of each of the
+ * slowest requests. `--trace` prints the waterfall of one request, and `--chrome` writes every span in the trace event
+ * format that chrome://tracing and Perfetto open.
+ */
+public class TraceViewer {
+    static final int SLOWEST = 5;
+    private static final int BAR_WIDTH = 40;
+
+    private final Map<String, List<Map<String, Object>>> traces;
+
+    TraceViewer(List<Map<String, Object>> spans) {
+        this.traces = spans.stream().collect(groupingBy(span -> (String) span.get("correlationId"), TreeMap::new, toList()));
+        traces.values().forEach(trace -> trace.sort(Comparator.comparingLong(span -> micros(span, "startMicros"))));
+    }
+
+    public static void main(String[] args) throws IOException {
+        String trace = null;
+        Path chrome = null;
+        final List<Path> sources = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--trace") && i + 1 < args.length) trace = args[++i];
+            else if (args[i].equals("--chrome") && i + 1 < args.length) chrome = Paths.get(args[++i]);
+            else sources.add(Paths.get(args[i]));
+        }
+        if (sources.isEmpty()) {
+            throw new IllegalArgumentException("Usage: TraceViewer [--trace <correlation id>] [--chrome <output file>] <span log file or directory>...");
+        }
+
+        final TraceViewer viewer = new TraceViewer(read(sources));
+        if (chrome != null) {
+            viewer.exportChrome(chrome);
+            System.out.printf("Wrote %d traces to %s.%n", viewer.traces.size(), chrome);
+        } else if (trace != null) {
+            System.out.print(viewer.waterfall(trace));
+        } else {
+            System.out.print(viewer.summary());
+        }
+    }
+
+    /**
+     * Reads every span in [sources], which may be span log files or directories to search for them.
+     */
+    @SuppressWarnings("unchecked")
+    static List<Map<String, Object>> read(List<Path> sources) throws IOException {
+        final ObjectMapper mapper = new ObjectMapper();
+        final List<Map<String, Object>> spans = new ArrayList<>();
+        for (Path source : sources) {
+            final List<Path> files;
+            try (Stream<Path> walk = Files.walk(source)) {
+                files = walk.filter(path -> Files.isRegularFile(path)
+                        && path.getFileName().toString().startsWith("spans-")
+                        && path.getFileName().toString().endsWith(".ndjson"))
+                        .collect(toList());
+            }
+            for (Path file : files) {
+                for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    if (!line.trim().isEmpty()) spans.add(mapper.readValue(line, Map.class));
+                }
+            }
+        }
+        return spans;
+    }
+
+    private static long micros(Map<String, Object> span, String field) {
+        return ((Number) span.get(field)).longValue();
+    }
+
+    private static long end(Map<String, Object> span) {
+        return micros(span, "startMicros") + micros(span, "durationMicros");
+    }
+
+    /**
+     * The time from the first span of a request starting to the last one ending.
+     */
+    static long elapsedMicros(List<Map<String, Object>> trace) {
+        final long start = trace.stream().mapToLong(span -> micros(span, "startMicros")).min().orElse(0);
+        final long end = trace.stream().mapToLong(TraceViewer::end).max().orElse(0);
+        return end - start;
+    }
+
+    /**
+     * The mean duration of each span name, in milliseconds, over every request it appears in.
+     */
+    Map<String, Double> meanMillisBySpan() {
+        final Map<String, long[]> totals = new TreeMap<>();
+        traces.values().forEach(trace -> trace.forEach(span -> {
+            final long[] total = totals.computeIfAbsent((String) span.get("node") + " " + span.get("name"), name -> new long[2]);
+            total[0] += micros(span, "durationMicros");
+            total[1]++;
+        }));
+        final Map<String, Double> means = new LinkedHashMap<>();
+        totals.forEach((name, total) -> means.put(name, total[0] / 1000.0 / total[1]));
+        return means;
+    }
+
+    String summary() {
+        final StringBuilder out = new StringBuilder();
+        out.append(String.format("%d requests.%n%nMean time per span:%n", traces.size()));
+        meanMillisBySpan().forEach((name, millis) -> out.append(String.format("  %-50s %10.1fms%n", name, millis)));
+        traces.entrySet().stream()
+                .sorted(Comparator.comparingLong(entry -> -elapsedMicros(entry.getValue())))
+                .limit(SLOWEST)
+                .forEach(entry -> out.append(System.lineSeparator()).append(waterfall(entry.getKey())));
+        return out.toString();
+    }
+
+    /**
+     * Draws the spans of request [correlationId] against a common time axis.
+     */
+    String waterfall(String correlationId) {
+        final List<Map<String, Object>> trace = traces.get(correlationId);
+        if (trace == null) return "No spans for " + correlationId + System.lineSeparator();
+        final long origin = micros(trace.get(0), "startMicros");
+        final long elapsed = Math.max(1, elapsedMicros(trace));
+        final StringBuilder out = new StringBuilder(String.format("%s (%.1fms)%n", correlationId, elapsed / 1000.0));
+        for (Map<String, Object> span : trace) {
+            final long offset = micros(span, "startMicros") - origin;
+            final int from = (int) (offset * BAR_WIDTH / elapsed);
+            final int to = Math.max(from + 1, (int) ((offset + micros(span, "durationMicros")) * BAR_WIDTH / elapsed));
+            final char[] bar = new char[BAR_WIDTH];
+            Arrays.fill(bar, ' ');
+            Arrays.fill(bar, from, Math.min(to, BAR_WIDTH), '=');
+            out.append(String.format("  %-16s %-30s +%8.1fms %8.1fms |%s| %s%n", span.get("node"), span.get("name"),
+                    offset / 1000.0, micros(span, "durationMicros") / 1000.0, new String(bar),
+                    span.getOrDefault("detail", "")));
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes every span as a complete event in the Chrome trace event format, one process per node and one thread
+     * per request.
+     */
+    void exportChrome(Path output) throws IOException {
+        final Map<String, Integer> nodes = new TreeMap<>();
+        final List<Map<String, Object>> events = new ArrayList<>();
+        int thread = 0;
+        for (Map.Entry<String, List<Map<String, Object>>> trace : traces.entrySet()) {
+            thread++;
+            for (Map<String, Object> span : trace.getValue()) {
+                final Map<String, Object> event = new LinkedHashMap<>();
+                event.put("name", span.get("name"));
+                event.put("cat", "carechain");
+                event.put("ph", "X");
+                event.put("ts", span.get("startMicros"));
+                event.put("dur", span.get("durationMicros"));
+                event.put("pid", nodes.computeIfAbsent((String) span.get("node"), node -> nodes.size() + 1));
+                event.put("tid", thread);
+                final Map<String, Object> eventArgs = new LinkedHashMap<>();
+                eventArgs.put("correlationId", trace.getKey());
+                if (span.containsKey("detail")) eventArgs.put("detail", span.get("detail"));
+                event.put("args", eventArgs);
+                events.add(event);
+            }
+        }
+        nodes.forEach((node, pid) -> {
+            final Map<String, Object> metadata = new LinkedHashMap<>();
+            metadata.put("name", "process_name");
+            metadata.put("ph", "M");
+            metadata.put("pid", pid);
+            metadata.put("args", Collections.singletonMap("name", node));
+            events.add(metadata);
+        });
+        if (output.getParent() != null) Files.createDirectories(output.getParent());
+        new ObjectMapper().writeValue(output.toFile(), Collections.singletonMap("traceEvents", events));
+    }
+}
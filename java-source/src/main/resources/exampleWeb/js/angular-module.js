@@ -23,17 +23,13 @@ app.config(['$qProvider', function ($qProvider) {
     $qProvider.errorOnUnhandledRejections(false);
 }]);
 
-app.controller('DemoAppController', function($http, $location, $uibModal) {
+app.controller('DemoAppController', function($http, $location, $uibModal, PagedTable) {
     const demoApp = this;
 
     // We identify the node.
     const apiBaseURL = "/api/resources/";
     let peers = [];
 
-    $http.get(apiBaseURL + "me").then((response) => demoApp.thisNode = response.data.me);
-
-    $http.get(apiBaseURL + "peers").then((response) => peers = response.data.peers);
-
     demoApp.openModal = () => {
         const modalInstance = $uibModal.open({
             templateUrl: 'demoAppModal.html',
@@ -49,19 +45,164 @@ app.controller('DemoAppController', function($http, $location, $uibModal) {
         modalInstance.result.then(() => {}, () => {});
     };
 
-    demoApp.getIOUs = () => $http.get(apiBaseURL + "ious")
-        .then((response) => demoApp.ious = Object.keys(response.data)
-            .map((key) => response.data[key].state.data)
-            .reverse());
+    // Our name, our peers and the first page of each table come in one request.
+    const dashboard = $http.get(apiBaseURL + "dashboard", { params: { pageSize: PagedTable.PAGE_SIZE } })
+        .then((response) => response.data);
+    dashboard.then((data) => {
+        demoApp.thisNode = data.me;
+        peers = data.peers;
+    });
+
+    // The record tables only render the rows in view, and fetch the pages under them as the user scrolls.
+    demoApp.iouTable = new PagedTable(apiBaseURL + "ious/page", dashboard.then((data) => data.ious));
+    demoApp.myIouTable = new PagedTable(apiBaseURL + "my-ious/page", dashboard.then((data) => data.myIous));
+
+    // Called once we have issued a record, which moves every record down a row.
+    demoApp.refresh = () => {
+        demoApp.iouTable.refresh();
+        demoApp.myIouTable.refresh();
+    };
 
-    demoApp.getMyIOUs = () => $http.get(apiBaseURL + "my-ious")
-        .then((response) => demoApp.myious = Object.keys(response.data)
-            .map((key) => response.data[key].state.data)
-            .reverse());
+});
 
-    demoApp.getIOUs();
-    demoApp.getMyIOUs();
+// A table of records that holds only the pages it needs.
+//
+// Rows are a fixed height, so the rows in view follow from the scroll position alone. Those rows, plus a margin
+// either side, are the only ones rendered; spacers above and below keep the scroll bar the height of the whole table.
+// Pages come from the server newest first, filtered there by patient name, and the most recently used ones are kept
+// for when the user scrolls back. Typing in the filter box only queries the server once the user stops typing.
+app.factory('PagedTable', function ($http, $timeout) {
+    const ROW_HEIGHT = 37;
+    const PAGE_SIZE = 50;
+    const OVERSCAN_ROWS = 10;
+    const MAX_CACHED_PAGES = 40;
+    const FILTER_DELAY_MILLIS = 300;
+
+    // [firstPage], if given, is a promise of the unfiltered first page, which is then not fetched from [url].
+    function PagedTable(url, firstPage) {
+        this.url = url;
+        this.filter = "";
+        this.total = null;
+        this.rows = [];
+        this.top = 0;
+        this.bottom = 0;
+        this.scrollTop = 0;
+        this.height = 0;
+        // Loaded pages by filter and page number, least recently used first.
+        this.pages = new Map();
+        this.loading = new Map();
+        // Bumped by refresh(), so responses to earlier requests are ignored.
+        this.generation = 0;
+        if (firstPage !== undefined) this.load(1, firstPage);
+    }
 
+    PagedTable.prototype.key = function (page) {
+        return this.filter + "\n" + page;
+    };
+
+    // Returns a loaded page and marks it as the most recently used, or starts loading it and returns undefined.
+    PagedTable.prototype.page = function (page) {
+        const key = this.key(page);
+        const loaded = this.pages.get(key);
+        if (loaded !== undefined) {
+            this.pages.delete(key);
+            this.pages.set(key, loaded);
+            return loaded;
+        }
+        if (!this.loading.has(key)) {
+            this.load(page, $http.get(this.url, { params: { page: page, pageSize: PAGE_SIZE, filter: this.filter || undefined } })
+                .then((response) => response.data));
+        }
+        return undefined;
+    };
+
+    // Keeps the page [data] resolves to as [page] under the current filter, unless the table is refreshed first.
+    PagedTable.prototype.load = function (page, data) {
+        const key = this.key(page);
+        const generation = this.generation;
+        const request = data.then((loaded) => {
+            if (generation !== this.generation) return;
+            this.pages.set(key, loaded);
+            while (this.pages.size > MAX_CACHED_PAGES) {
+                this.pages.delete(this.pages.keys().next().value);
+            }
+            if (key === this.key(page)) this.render();
+        });
+        request.finally(() => {
+            if (this.loading.get(key) === request) this.loading.delete(key);
+        });
+        this.loading.set(key, request);
+    };
+
+    PagedTable.prototype.render = function () {
+        if (this.total === null) {
+            // We learn how many records match from the first page.
+            const first = this.page(1);
+            if (first === undefined) return;
+            this.total = first.total;
+        }
+        const from = Math.max(0, Math.floor(this.scrollTop / ROW_HEIGHT) - OVERSCAN_ROWS);
+        const to = Math.min(this.total, Math.ceil((this.scrollTop + this.height) / ROW_HEIGHT) + OVERSCAN_ROWS);
+        const rows = [];
+        for (let index = from; index < to; index++) {
+            const loaded = this.page(Math.floor(index / PAGE_SIZE) + 1);
+            rows.push({ index: index, iou: loaded && loaded.ious[index % PAGE_SIZE] });
+        }
+        this.rows = rows;
+        this.top = from * ROW_HEIGHT;
+        this.bottom = (this.total - to) * ROW_HEIGHT;
+    };
+
+    PagedTable.prototype.scrolledTo = function (scrollTop, height) {
+        this.scrollTop = scrollTop;
+        this.height = height;
+        this.render();
+    };
+
+    PagedTable.prototype.setFilter = function (filter) {
+        $timeout.cancel(this.pendingFilter);
+        this.pendingFilter = $timeout(() => {
+            this.filter = (filter || "").trim();
+            this.total = null;
+            this.scrollTop = 0;
+            this.render();
+        }, FILTER_DELAY_MILLIS);
+    };
+
+    PagedTable.prototype.refresh = function () {
+        this.generation++;
+        this.pages.clear();
+        this.loading.clear();
+        this.total = null;
+        this.render();
+    };
+
+    // The newest records, regardless of the filter.
+    PagedTable.prototype.recent = function () {
+        const first = this.pages.get("\n1");
+        return first === undefined ? [] : first.ious;
+    };
+
+    PagedTable.PAGE_SIZE = PAGE_SIZE;
+
+    return PagedTable;
+});
+
+// Tells a PagedTable where the element it is rendered in is scrolled to, and how much of it is in view.
+app.directive('virtualScroll', function () {
+    return {
+        restrict: 'A',
+        link: (scope, element, attrs) => {
+            const table = scope.$eval(attrs.virtualScroll);
+            const container = element[0];
+            const update = () => table.scrolledTo(container.scrollTop, container.clientHeight);
+            element.on('scroll', () => scope.$applyAsync(update));
+            // The height changes when the table is shown or the window resized.
+            scope.$watch(() => container.clientHeight, update);
+            // A new filter starts again from the top.
+            scope.$watch(() => table.filter, () => container.scrollTop = 0);
+        }
+    };
 });
 
 app.controller('ModalInstanceCtrl', function ($http, $location, $uibModalInstance, $uibModal, demoApp, apiBaseURL, peers) {
@@ -88,8 +229,7 @@ app.controller('ModalInstanceCtrl', function ($http, $location, $uibModalInstanc
             $http.put(createIOUEndpoint).then(
                 (result) => {
                     modalInstance.displayMessage(result);
-                    demoApp.getIOUs();
-                    demoApp.getMyIOUs();
+                    demoApp.refresh();
                 },
                 (result) => {
                     modalInstance.displayMessage(result);
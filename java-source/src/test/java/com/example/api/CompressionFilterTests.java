@@ -0,0 +1,27 @@
+package com.example.api;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CompressionFilterTests {
+    @Test
+    public void prefersGzipOverDeflate() {
+        assertEquals("gzip", CompressionFilter.preferredEncoding("deflate, gzip;q=0.8"));
+        assertEquals("gzip", CompressionFilter.preferredEncoding("*"));
+    }
+
+    @Test
+    public void fallsBackToDeflate() {
+        assertEquals("deflate", CompressionFilter.preferredEncoding("deflate, br"));
+        assertEquals("deflate", CompressionFilter.preferredEncoding("gzip;q=0, deflate"));
+    }
+
+    @Test
+    public void sendsIdentityWhenNothingUsableIsAccepted() {
+        assertNull(CompressionFilter.preferredEncoding(null));
+        assertNull(CompressionFilter.preferredEncoding("br, identity"));
+        assertNull(CompressionFilter.preferredEncoding("gzip;q=0.0"));
+    }
+}
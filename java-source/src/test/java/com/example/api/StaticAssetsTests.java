@@ -0,0 +1,72 @@
+package com.example.api;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.ws.rs.core.*;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StaticAssetsTests {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private StaticAssets assets;
+
+    @Before
+    public void setup() throws Exception {
+        final File js = folder.newFolder("js");
+        Files.write(new File(js, "app.js").toPath(), "console.log('app');".getBytes(StandardCharsets.UTF_8));
+        assets = new StaticAssets(ImmutableMap.of("example", folder.getRoot().toURI().toString()));
+    }
+
+    /**
+     * A request carrying [ifNoneMatch], or no validator if it is null.
+     */
+    private static Request request(EntityTag ifNoneMatch) {
+        return new Request() {
+            @Override public String getMethod() { return "GET"; }
+            @Override public Variant selectVariant(List<Variant> variants) { return null; }
+            @Override public Response.ResponseBuilder evaluatePreconditions(EntityTag tag) {
+                return tag.equals(ifNoneMatch) ? Response.notModified(tag) : null;
+            }
+            @Override public Response.ResponseBuilder evaluatePreconditions(Date lastModified) { return null; }
+            @Override public Response.ResponseBuilder evaluatePreconditions(Date lastModified, EntityTag tag) {
+                return evaluatePreconditions(tag);
+            }
+            @Override public Response.ResponseBuilder evaluatePreconditions() { return null; }
+        };
+    }
+
+    private Response get(String acceptEncoding, EntityTag ifNoneMatch) {
+        return assets.getAsset("example", "js/app.js", acceptEncoding, request(ifNoneMatch));
+    }
+
+    @Test
+    public void assetsAreAlwaysRevalidated() {
+        final CacheControl cacheControl = (CacheControl) get(null, null).getMetadata().getFirst(HttpHeaders.CACHE_CONTROL);
+        assertTrue(cacheControl.isNoCache());
+        assertEquals(-1, cacheControl.getMaxAge());
+    }
+
+    @Test
+    public void eachEncodingHasItsOwnEntityTag() {
+        final EntityTag identity = get(null, null).getEntityTag();
+        final EntityTag gzipped = get("gzip", null).getEntityTag();
+        assertNotEquals(identity, gzipped);
+
+        assertEquals(304, get("gzip", gzipped).getStatus());
+        assertEquals(304, get(null, identity).getStatus());
+        // A client holding one representation is sent the other in full.
+        assertEquals(200, get(null, gzipped).getStatus());
+        assertEquals(200, get("gzip", identity).getStatus());
+    }
+}
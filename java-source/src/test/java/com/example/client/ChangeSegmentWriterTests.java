@@ -0,0 +1,93 @@
+package com.example.client;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ChangeSegmentWriterTests {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<Map<String, Object>> events(int from, int to) {
+        final List<Map<String, Object>> events = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            events.add(ImmutableMap.of("key", "produced:" + i, "kind", "produced"));
+        }
+        return events;
+    }
+
+    private static List<String> lines(ChangeSegmentWriter writer, int segment) throws Exception {
+        return Files.readAllLines(writer.segmentPath(segment), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void restartResumesFromTheCheckpoint() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final Instant watermark = Instant.parse("2018-06-01T12:00:00Z");
+
+        final ChangeSegmentWriter first = new ChangeSegmentWriter(directory, 1 << 20);
+        assertNull(first.getWatermark());
+        first.write(events(0, 10));
+        first.sync(watermark);
+        // Written but never synced, as if the process died here.
+        first.write(events(10, 15));
+
+        final ChangeSegmentWriter second = new ChangeSegmentWriter(directory, 1 << 20);
+        assertEquals(watermark, second.getWatermark());
+        assertEquals(10, second.getSyncedEvents());
+        assertEquals(10, lines(second, 0).size());
+
+        second.write(events(10, 12));
+        second.close();
+        final List<String> lines = lines(second, 0);
+        assertEquals(12, lines.size());
+        assertTrue(lines.get(11).contains("produced:11"));
+    }
+
+    @Test
+    public void segmentsRollOverWithoutSplittingEvents() throws Exception {
+        final ChangeSegmentWriter writer = new ChangeSegmentWriter(folder.getRoot().toPath(), 200);
+        for (int i = 0; i < 10; i++) {
+            writer.write(events(i * 3, i * 3 + 3));
+        }
+        writer.close();
+
+        int total = 0;
+        for (int segment = 0; Files.exists(writer.segmentPath(segment)); segment++) {
+            for (String line : lines(writer, segment)) {
+                assertTrue(line.startsWith("{") && line.endsWith("}"));
+                total++;
+            }
+        }
+        assertEquals(30, total);
+        assertTrue(Files.exists(writer.segmentPath(1)));
+        assertEquals(30, writer.getSyncedEvents());
+    }
+
+    @Test
+    public void segmentsWrittenAfterTheCheckpointAreDiscarded() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final ChangeSegmentWriter first = new ChangeSegmentWriter(directory, 200);
+        first.write(events(0, 3));
+        first.sync(null);
+        for (int i = 1; i < 5; i++) {
+            first.write(events(i * 3, i * 3 + 3));
+        }
+        assertTrue(Files.exists(first.segmentPath(2)));
+
+        final ChangeSegmentWriter second = new ChangeSegmentWriter(directory, 200);
+        assertFalse(Files.exists(second.segmentPath(1)));
+        assertEquals(3, lines(second, 0).size());
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.client;
+
+import com.example.state.IOUState;
+import com.google.common.collect.ImmutableMap;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.Crypto;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.example.contract.IssueContract.IOU_CONTRACT_ID;
+import static org.junit.Assert.*;
+
+public class FederatedQueryClientTests {
+    static {
+        System.setProperty("carechain.federated.nodeTimeoutMillis", "300");
+        System.setProperty("carechain.federated.pageSize", "3");
+    }
+
+    private static final Instant EPOCH = Instant.parse("2018-06-01T00:00:00Z");
+    private static final Party HOSPITAL = party("O=Hospital,L=London,C=GB");
+    private static final Party PATIENT = party("O=Patient,L=Paris,C=FR");
+    private static final Party NOTARY = party("O=Notary,L=Rome,C=IT");
+    private static final QueryCriteria ALL = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.ALL);
+
+    private FederatedQueryClient client;
+
+    private static Party party(String name) {
+        return new Party(CordaX500Name.parse(name), Crypto.generateKeyPair().getPublic());
+    }
+
+    private static StateAndRef<IOUState> state(int i) {
+        final IOUState iou = new IOUState(HOSPITAL, PATIENT, "Patient " + i, 30, "Female", 170, 60,
+                "A(positive)", "Flu", "Rest", new UniqueIdentifier());
+        return new StateAndRef<>(new TransactionState<>(iou, IOU_CONTRACT_ID, NOTARY),
+                new StateRef(SecureHash.sha256("tx" + i), 0));
+    }
+
+    /**
+     * A node that holds [states], states[i] having been recorded [i] seconds after the epoch plus [skewSeconds].
+     */
+    private static CordaRPCOps node(List<StateAndRef<IOUState>> states, int skewSeconds, long delayMillis) {
+        return (CordaRPCOps) Proxy.newProxyInstance(CordaRPCOps.class.getClassLoader(), new Class<?>[]{CordaRPCOps.class},
+                (proxy, method, args) -> {
+                    if (!method.getName().equals("vaultQueryBy")) throw new UnsupportedOperationException(method.getName());
+                    Thread.sleep(delayMillis);
+                    final PageSpecification paging = (PageSpecification) args[1];
+                    final int from = (paging.getPageNumber() - 1) * paging.getPageSize();
+                    final List<StateAndRef<IOUState>> page = states.subList(Math.min(from, states.size()),
+                            Math.min(from + paging.getPageSize(), states.size()));
+                    final List<Vault.StateMetadata> metadata = page.stream().map(state -> new Vault.StateMetadata(
+                            state.getRef(), IOUState.class.getName(), recordedAt(state, skewSeconds), null,
+                            Vault.StateStatus.UNCONSUMED, NOTARY, null, null)).collect(Collectors.toList());
+                    return new Vault.Page<>(page, metadata, states.size(), Vault.StateStatus.UNCONSUMED, Collections.emptyList());
+                });
+    }
+
+    private static Instant recordedAt(StateAndRef<IOUState> state, int skewSeconds) {
+        final int i = Integer.parseInt(state.getState().getData().getName().substring("Patient ".length()));
+        return EPOCH.plusSeconds(i * 10 + skewSeconds);
+    }
+
+    private static List<String> names(List<FederatedQueryClient.Row> rows) {
+        return rows.stream().map(row -> row.getState().getState().getData().getName()).collect(Collectors.toList());
+    }
+
+    @After
+    public void tearDown() {
+        if (client != null) client.close();
+    }
+
+    @Test
+    public void resultsAreMergedInOrderWithoutDuplicates() {
+        final List<StateAndRef<IOUState>> all = new ArrayList<>();
+        for (int i = 0; i < 10; i++) all.add(state(i));
+        // The hospital holds the even records and 5; the patient holds the odd records and 4, recorded a second later.
+        final List<StateAndRef<IOUState>> hospital = new ArrayList<>();
+        final List<StateAndRef<IOUState>> patient = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            if (i % 2 == 0 || i == 5) hospital.add(all.get(i));
+            if (i % 2 == 1 || i == 4) patient.add(all.get(i));
+        }
+        client = new FederatedQueryClient(ImmutableMap.of("hospital", node(hospital, 0, 0), "patient", node(patient, 1, 0)));
+
+        final FederatedQueryClient.Query query = client.query(ALL, 100);
+        final List<FederatedQueryClient.Row> rows = query.stream().collect(Collectors.toList());
+        assertEquals(Arrays.asList("Patient 0", "Patient 1", "Patient 2", "Patient 3", "Patient 4", "Patient 5",
+                "Patient 6", "Patient 7", "Patient 8", "Patient 9"), names(rows));
+        assertEquals("hospital", rows.get(5).getNode());
+        assertTrue(query.getSkippedNodes().isEmpty());
+    }
+
+    @Test
+    public void theLimitAppliesToTheMergedResult() {
+        final List<StateAndRef<IOUState>> first = new ArrayList<>();
+        final List<StateAndRef<IOUState>> second = new ArrayList<>();
+        for (int i = 0; i < 20; i++) (i < 10 ? first : second).add(state(i));
+        client = new FederatedQueryClient(ImmutableMap.of("a", node(first, 0, 0), "b", node(second, 0, 0)));
+
+        final List<FederatedQueryClient.Row> rows = client.query(ALL, 12).stream().collect(Collectors.toList());
+        assertEquals(12, rows.size());
+        assertEquals("Patient 11", names(rows).get(11));
+    }
+
+    @Test
+    public void aSlowNodeIsDroppedWithoutHoldingUpTheOthers() {
+        final List<StateAndRef<IOUState>> fast = new ArrayList<>();
+        for (int i = 0; i < 5; i++) fast.add(state(i));
+        client = new FederatedQueryClient(ImmutableMap.of("fast", node(fast, 0, 0), "slow", node(fast, 0, 5000)));
+
+        final long started = System.nanoTime();
+        final FederatedQueryClient.Query query = client.query(ALL, 100);
+        final List<FederatedQueryClient.Row> rows = query.stream().collect(Collectors.toList());
+        final long elapsedMillis = (System.nanoTime() - started) / 1000000;
+
+        assertEquals(5, rows.size());
+        assertTrue(query.getSkippedNodes().containsKey("slow"));
+        assertTrue("Took " + elapsedMillis + "ms", elapsedMillis < 2000);
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.client;
+
+import net.corda.client.rpc.CordaRPCConnection;
+import net.corda.client.rpc.RPCConnection;
+import net.corda.client.rpc.RPCException;
+import net.corda.core.flows.FlowException;
+import net.corda.core.messaging.CordaRPCOps;
+import org.apache.activemq.artemis.api.core.ActiveMQNotConnectedException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.net.ConnectException;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class RpcConnectionPoolTests {
+    private RpcConnectionPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null) pool.close();
+    }
+
+    /**
+     * A connection whose proxy answers registeredFlows() with its own name, and fails every call with a connection
+     * error once [drop] has been called.
+     */
+    private static class FakeConnection implements RPCConnection<CordaRPCOps> {
+        private final String name;
+        private volatile boolean dropped;
+        private volatile boolean forceClosed;
+        private volatile boolean closed;
+
+        private FakeConnection(String name) {
+            this.name = name;
+        }
+
+        private void drop() {
+            dropped = true;
+        }
+
+        @Override
+        public CordaRPCOps getProxy() {
+            return (CordaRPCOps) Proxy.newProxyInstance(CordaRPCOps.class.getClassLoader(),
+                    new Class<?>[]{CordaRPCOps.class}, (target, method, args) -> {
+                        if (dropped) throw new RPCException("Connection failure detected.");
+                        switch (method.getName()) {
+                            case "registeredFlows": return Collections.singletonList(name);
+                            case "setFlowsDrainingModeEnabled": return null;
+                            default: throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+
+        @Override public int getServerProtocolVersion() { return 1; }
+        @Override public void notifyServerAndClose() { closed = true; }
+        @Override public void forceClose() { forceClosed = true; }
+        @Override public void close() { closed = true; }
+    }
+
+    /**
+     * Opens a new [FakeConnection] on each call, named by the order they were opened in.
+     */
+    private static class FakeConnector implements Supplier<CordaRPCConnection> {
+        private final List<FakeConnection> opened = new CopyOnWriteArrayList<>();
+        private final AtomicInteger attempts = new AtomicInteger();
+        private final AtomicInteger refusals = new AtomicInteger();
+
+        @Override
+        public CordaRPCConnection get() {
+            attempts.incrementAndGet();
+            if (refusals.getAndDecrement() > 0) throw new RPCException("Cannot connect to server(s).");
+            refusals.set(0);
+            final FakeConnection connection = new FakeConnection("connection-" + opened.size());
+            opened.add(connection);
+            return new CordaRPCConnection(connection);
+        }
+    }
+
+    private static String servedBy(RpcConnectionPool pool) {
+        return pool.getProxy().registeredFlows().get(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> connections(RpcConnectionPool pool) {
+        return (List<Map<String, Object>>) pool.metrics().get("connections");
+    }
+
+    private static void waitFor(Supplier<Boolean> condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.get()) {
+            assertTrue("Timed out waiting for the pool.", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void connectionFailuresAreRecognisedThroughWrappers() {
+        assertTrue(RpcConnectionPool.isConnectionFailure(new RPCException("Connection failure detected.")));
+        assertTrue(RpcConnectionPool.isConnectionFailure(new RuntimeException(new ActiveMQNotConnectedException())));
+        assertTrue(RpcConnectionPool.isConnectionFailure(new IllegalStateException(new ConnectException("refused"))));
+    }
+
+    @Test
+    public void applicationErrorsDoNotFailTheConnection() {
+        assertFalse(RpcConnectionPool.isConnectionFailure(new FlowException("Record 0: bad blood group")));
+        assertFalse(RpcConnectionPool.isConnectionFailure(new IllegalArgumentException("Unknown party")));
+    }
+
+    @Test
+    public void callsAreSpreadOverEveryConnection() {
+        final FakeConnector connector = new FakeConnector();
+        pool = new RpcConnectionPool(connector, 3, 1000);
+        final Set<String> served = new HashSet<>();
+        for (int i = 0; i < 3; i++) served.add(servedBy(pool));
+        assertEquals(new HashSet<>(Arrays.asList("connection-0", "connection-1", "connection-2")), served);
+    }
+
+    @Test
+    public void callsFailOnceNoConnectionComesUpInTime() {
+        final FakeConnector connector = new FakeConnector();
+        connector.refusals.set(Integer.MAX_VALUE);
+        pool = new RpcConnectionPool(connector, 2, 100);
+        try {
+            servedBy(pool);
+            fail("Expected the pool to be exhausted.");
+        } catch (RPCException e) {
+            assertEquals("No RPC connection is available.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void callsWaitForARefusedConnectionToBeReopened() {
+        final FakeConnector connector = new FakeConnector();
+        connector.refusals.set(1);
+        pool = new RpcConnectionPool(connector, 1, 10000);
+        // The first attempt was refused, so this waits for the retry after the minimum backoff.
+        assertEquals("connection-0", servedBy(pool));
+        assertEquals(2, connector.attempts.get());
+    }
+
+    @Test
+    public void aDroppedConnectionIsEvictedAndReopened() throws InterruptedException {
+        final FakeConnector connector = new FakeConnector();
+        pool = new RpcConnectionPool(connector, 2, 10000);
+        final AtomicInteger failovers = new AtomicInteger();
+        pool.addFailoverListener(failovers::incrementAndGet);
+        final FakeConnection first = connector.opened.get(0);
+        first.drop();
+
+        // The first call goes to the first connection. It is read-only, so it is retried on the second.
+        assertEquals("connection-1", servedBy(pool));
+        assertEquals(1, failovers.get());
+        waitFor(() -> (Boolean) connections(pool).get(0).get("up"));
+        assertTrue(first.forceClosed);
+        assertEquals(1L, connections(pool).get(0).get("disconnects"));
+
+        // The reopened connection takes its turn again.
+        final Set<String> served = new HashSet<>();
+        for (int i = 0; i < 2; i++) served.add(servedBy(pool));
+        assertEquals(new HashSet<>(Arrays.asList("connection-1", "connection-2")), served);
+    }
+
+    @Test
+    public void callsThatMayHaveActedAreNotRetried() throws InterruptedException {
+        final FakeConnector connector = new FakeConnector();
+        pool = new RpcConnectionPool(connector, 2, 10000);
+        connector.opened.get(0).drop();
+        try {
+            pool.getProxy().setFlowsDrainingModeEnabled(true);
+            fail("Expected the connection failure to be passed on.");
+        } catch (RPCException e) {
+            assertEquals("Connection failure detected.", e.getMessage());
+        }
+        // The failed connection is still evicted and reopened, and later calls go ahead.
+        waitFor(() -> connector.opened.size() == 3);
+        assertTrue(connector.opened.get(0).forceClosed);
+        pool.getProxy().setFlowsDrainingModeEnabled(true);
+    }
+
+    @Test
+    public void closeClosesEveryConnectionAndRefusesCalls() {
+        final FakeConnector connector = new FakeConnector();
+        pool = new RpcConnectionPool(connector, 3, 10000);
+        pool.close();
+        assertEquals(3, connector.opened.size());
+        connector.opened.forEach(connection -> assertTrue(connection.closed));
+        connections(pool).forEach(connection -> assertEquals(false, connection.get("up")));
+        try {
+            servedBy(pool);
+            fail("Expected the closed pool to refuse the call.");
+        } catch (RPCException e) {
+            assertEquals("The RPC connection pool is closed.", e.getMessage());
+        }
+    }
+}
@@ -18,11 +18,16 @@ public class IOUContractTests {
 //    static private int iouValue = 1;
     static private String iouName = "F";
 
+    private static IOUState iou(String name, TestIdentity hospital, TestIdentity patient) {
+        return new IOUState(hospital.getParty(), patient.getParty(), name, 30, "Female", 170, 60, "A(positive)",
+                "Flu", "Rest", new UniqueIdentifier());
+    }
+
     @Test
     public void transactionMustIncludeCreateCommand() {
         ledger(ledgerServices, (ledger -> {
             ledger.transaction(tx -> {
-                tx.output(IOU_CONTRACT_ID, new IOUState(iouName, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
+                tx.output(IOU_CONTRACT_ID, iou(iouName, miniCorp, megaCorp));
                 tx.fails();
                 tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IssueContract.Commands.Create());
                 tx.verifies();
@@ -36,8 +41,8 @@ public class IOUContractTests {
     public void transactionMustHaveNoInputs() {
         ledger(ledgerServices, (ledger -> {
             ledger.transaction(tx -> {
-                tx.input(IOU_CONTRACT_ID, new IOUState(iouName, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
-                tx.output(IOU_CONTRACT_ID, new IOUState(iouName, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
+                tx.input(IOU_CONTRACT_ID, iou(iouName, miniCorp, megaCorp));
+                tx.output(IOU_CONTRACT_ID, iou(iouName, miniCorp, megaCorp));
                 tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IssueContract.Commands.Create());
                 tx.failsWith("No inputs should be consumed when issuing an IOU.");
                 return null;
@@ -50,8 +55,8 @@ public class IOUContractTests {
     public void transactionMustHaveOneOutput() {
         ledger(ledgerServices, (ledger -> {
             ledger.transaction(tx -> {
-                tx.output(IOU_CONTRACT_ID, new IOUState(iouName, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
-                tx.output(IOU_CONTRACT_ID, new IOUState(iouName, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
+                tx.output(IOU_CONTRACT_ID, iou(iouName, miniCorp, megaCorp));
+                tx.output(IOU_CONTRACT_ID, iou(iouName, miniCorp, megaCorp));
                 tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IssueContract.Commands.Create());
                 tx.failsWith("Only one output state should be created.");
                 return null;
@@ -64,7 +69,7 @@ public class IOUContractTests {
     public void hospitalMustSignTransaction() {
         ledger(ledgerServices, (ledger -> {
             ledger.transaction(tx -> {
-                tx.output(IOU_CONTRACT_ID, new IOUState(iouName, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
+                tx.output(IOU_CONTRACT_ID, iou(iouName, miniCorp, megaCorp));
                 tx.command(miniCorp.getPublicKey(), new IssueContract.Commands.Create());
                 tx.failsWith("All of the participants must be signers.");
                 return null;
@@ -77,7 +82,7 @@ public class IOUContractTests {
     public void patientMustSignTransaction() {
         ledger(ledgerServices, (ledger -> {
             ledger.transaction(tx -> {
-                tx.output(IOU_CONTRACT_ID, new IOUState(iouName, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
+                tx.output(IOU_CONTRACT_ID, iou(iouName, miniCorp, megaCorp));
                 tx.command(megaCorp.getPublicKey(), new IssueContract.Commands.Create());
                 tx.failsWith("All of the participants must be signers.");
                 return null;
@@ -90,7 +95,7 @@ public class IOUContractTests {
     public void hospitalIsNotPatient() {
         ledger(ledgerServices, (ledger -> {
             ledger.transaction(tx -> {
-                tx.output(IOU_CONTRACT_ID, new IOUState(iouName, megaCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
+                tx.output(IOU_CONTRACT_ID, iou(iouName, megaCorp, megaCorp));
                 tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IssueContract.Commands.Create());
                 tx.failsWith("The hospital and the patient cannot be the same entity.");
                 return null;
@@ -104,9 +109,9 @@ public class IOUContractTests {
     public void cannotCreateNullValueIOUs() {
         ledger(ledgerServices, (ledger -> {
             ledger.transaction(tx -> {
-                tx.output(IOU_CONTRACT_ID, new IOUState(null, miniCorp.getParty(), megaCorp.getParty(), new UniqueIdentifier()));
+                tx.output(IOU_CONTRACT_ID, iou(null, miniCorp, megaCorp));
                 tx.command(ImmutableList.of(megaCorp.getPublicKey(), miniCorp.getPublicKey()), new IssueContract.Commands.Create());
-                tx.failsWith("The IOU's value must be not be null");
+                tx.failsWith("The IOU's name must not be null.");
                 return null;
             });
             return null;
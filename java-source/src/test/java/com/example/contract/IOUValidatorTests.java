@@ -0,0 +1,46 @@
+package com.example.contract;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IOUValidatorTests {
+    private final IOUValidator validator = IOUValidator.DEFAULT;
+
+    @Test
+    public void acceptsAValidRecord() {
+        assertTrue(validator.validate("Jane", 30, "Female", 170, 60, "AB(negative)", "Flu", "Rest").isEmpty());
+    }
+
+    @Test
+    public void reportsEveryBrokenRule() {
+        List<String> violations = validator.validate(null, 151, "Unknown", 0, 60, "C(positive)", "Flu", null);
+        assertEquals(6, violations.size());
+        assertTrue(violations.contains("The IOU's name must not be null."));
+        assertTrue(violations.contains("The IOU's age must be between 1 and 150."));
+    }
+
+    @Test
+    public void propertiesOverrideOnlyTheRulesTheySet() {
+        Properties properties = new Properties();
+        properties.setProperty("age.max", "120");
+        properties.setProperty("genders", "Male, Female");
+        IOUValidator configured = IOUValidator.fromProperties(properties);
+
+        assertEquals(1, configured.validate("Jane", 121, "Female", 170, 60, "A(positive)", "Flu", "Rest").size());
+        assertEquals(1, configured.validate("Jane", 30, "Other", 170, 60, "A(positive)", "Flu", "Rest").size());
+        assertTrue(configured.validate("Jane", 30, "Male", 299, 60, "A(positive)", "Flu", "Rest").isEmpty());
+    }
+
+    @Test
+    public void customRuleSetsCanBeBuiltDirectly() {
+        IOUValidator strict = new IOUValidator(18, 65, 100, 250, 30, 300,
+                ImmutableSet.of("Other"), ImmutableSet.of("O(negative)"), 16);
+        assertEquals(1, strict.validate("A name that is far too long", 30, "Other", 170, 60, "O(negative)", "Flu", "Rest").size());
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.flow;
 
+import com.example.service.FinalitySpanService;
 import com.example.state.IOUState;
 import com.google.common.collect.ImmutableList;
 import net.corda.core.concurrent.CordaFuture;
@@ -7,6 +8,7 @@ import net.corda.core.contracts.ContractState;
 import net.corda.core.contracts.StateAndRef;
 import net.corda.core.contracts.TransactionState;
 import net.corda.core.contracts.TransactionVerificationException;
+import net.corda.core.flows.FlowException;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.testing.node.MockNetwork;
 import net.corda.testing.node.StartedMockNode;
@@ -28,7 +30,7 @@ public class IOUFlowTests {
 
     @Before
     public void setup() {
-        network = new MockNetwork(ImmutableList.of("com.example.contract", "com.example.schema"));
+        network = new MockNetwork(ImmutableList.of("com.example.contract", "com.example.schema", "com.example.service"));
         a = network.createPartyNode(null);
         b = network.createPartyNode(null);
         // For real nodes this happens automatically, but we have to manually register the flow for tests.
@@ -46,21 +48,26 @@ public class IOUFlowTests {
     @Rule
     public final ExpectedException exception = ExpectedException.none();
 
+    private IssueFlow.Initiator initiator(String iouName) {
+        return new IssueFlow.Initiator(iouName, 30, "Female", 170, 60, "A(positive)", "Flu", "Rest",
+                b.getInfo().getLegalIdentities().get(0));
+    }
+
     @Test
     public void flowRejectsInvalidIOUs() throws Exception {
         // The IOUContract specifies that IOUs cannot have null values.
-        IssueFlow.Initiator flow = new IssueFlow.Initiator(null, b.getInfo().getLegalIdentities().get(0));
+        IssueFlow.Initiator flow = initiator(null);
         CordaFuture<SignedTransaction> future = a.startFlow(flow);
         network.runNetwork();
 
-        // The IOUContract specifies that IOUs cannot have null values.
-        exception.expectCause(instanceOf(TransactionVerificationException.class));
+        // IOUs with null values are rejected by the initiator before a transaction is built.
+        exception.expectCause(instanceOf(FlowException.class));
         future.get();
     }
 
     @Test
     public void signedTransactionReturnedByTheFlowIsSignedByTheInitiator() throws Exception {
-        IssueFlow.Initiator flow = new IssueFlow.Initiator("F", b.getInfo().getLegalIdentities().get(0));
+        IssueFlow.Initiator flow = initiator("F");
         CordaFuture<SignedTransaction> future = a.startFlow(flow);
         network.runNetwork();
 
@@ -70,7 +77,7 @@ public class IOUFlowTests {
 
     @Test
     public void signedTransactionReturnedByTheFlowIsSignedByTheAcceptor() throws Exception {
-        IssueFlow.Initiator flow = new IssueFlow.Initiator("F", b.getInfo().getLegalIdentities().get(0));
+        IssueFlow.Initiator flow = initiator("F");
         CordaFuture<SignedTransaction> future = a.startFlow(flow);
         network.runNetwork();
 
@@ -80,7 +87,7 @@ public class IOUFlowTests {
 
     @Test
     public void flowRecordsATransactionInBothPartiesTransactionStorages() throws Exception {
-        IssueFlow.Initiator flow = new IssueFlow.Initiator("F", b.getInfo().getLegalIdentities().get(0));
+        IssueFlow.Initiator flow = initiator("F");
         CordaFuture<SignedTransaction> future = a.startFlow(flow);
         network.runNetwork();
         SignedTransaction signedTx = future.get();
@@ -89,13 +96,15 @@ public class IOUFlowTests {
         for (StartedMockNode node : ImmutableList.of(a, b)) {
             assertEquals(signedTx, node.getServices().getValidatedTransactions().getTransaction(signedTx.getId()));
         }
+        // The acceptor's wait for finality ended when the transaction reached b.
+        assertEquals(0, b.getServices().cordaService(FinalitySpanService.class).getWaiting());
     }
 
     @Test
     public void recordedTransactionHasNoInputsAndASingleOutputTheInputIOU() throws Exception {
         //Integer iouValue = 1;
         String iouName = "F";
-        IssueFlow.Initiator flow = new IssueFlow.Initiator(iouName, b.getInfo().getLegalIdentities().get(0));
+        IssueFlow.Initiator flow = initiator(iouName);
         CordaFuture<SignedTransaction> future = a.startFlow(flow);
         network.runNetwork();
         SignedTransaction signedTx = future.get();
@@ -117,7 +126,7 @@ public class IOUFlowTests {
     public void flowRecordsTheCorrectIOUInBothPartiesVaults() throws Exception {
         //Integer iouValue = 1;
         String iouName = "F";
-        IssueFlow.Initiator flow = new IssueFlow.Initiator(iouName, b.getInfo().getLegalIdentities().get(0));
+        IssueFlow.Initiator flow = initiator(iouName);
         CordaFuture<SignedTransaction> future = a.startFlow(flow);
         network.runNetwork();
         future.get();
@@ -0,0 +1,66 @@
+package com.example.flow;
+
+import com.example.service.CheckpointStatsService;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.identity.Party;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Issues a run of records with checkpoint measuring switched on, and checks that the checkpoint at each of the
+ * initiator's suspension points was measured.
+ */
+public class IssueFlowCheckpointTests {
+    private static final int RUNS = 20;
+
+    private MockNetwork network;
+    private StartedMockNode a;
+    private Party patient;
+
+    @Before
+    public void setup() {
+        network = new MockNetwork(ImmutableList.of("com.example.contract", "com.example.schema", "com.example.service"));
+        a = network.createPartyNode(null);
+        StartedMockNode b = network.createPartyNode(null);
+        for (StartedMockNode node : ImmutableList.of(a, b)) {
+            node.registerInitiatedFlow(IssueFlow.Acceptor.class);
+        }
+        network.runNetwork();
+        patient = b.getInfo().getLegalIdentities().get(0);
+        a.getServices().cordaService(CheckpointStatsService.class).setEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void checkpointsAreMeasuredAtEachSuspensionPoint() throws Exception {
+        for (int i = 0; i < RUNS; i++) {
+            a.startFlow(new IssueFlow.Initiator(
+                    "Checkpoint patient " + i, 30, "Female", 170, 60, "A(positive)", "Flu", "Rest", patient));
+            network.runNetwork();
+        }
+        final CordaFuture<Map<String, Object>> future = a.startFlow(new CheckpointStatsFlow());
+        network.runNetwork();
+        final Map<String, Object> points = (Map<String, Object>) future.get().get("points");
+
+        for (String point : ImmutableList.of("session-init", "signatures-collected", "finalised")) {
+            final Map<String, Object> sizes = (Map<String, Object>) points.get(IssueFlow.Initiator.class.getName() + " " + point);
+            assertEquals((long) RUNS, sizes.get("checkpoints"));
+            assertTrue((Long) sizes.get("meanBytes") > 0);
+            assertTrue((Long) sizes.get("maxWriteMicros") >= (Long) sizes.get("meanWriteMicros"));
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.flow;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.flows.FlowException;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that invalid records are rejected by the initiator before the counterparty is contacted.
+ */
+public class IssueFlowValidationTests {
+    private MockNetwork network;
+    private StartedMockNode a;
+    private StartedMockNode b;
+    private Party patient;
+    private int issued;
+    private int acceptorsStarted;
+
+    @Before
+    public void setup() {
+        network = new MockNetwork(ImmutableList.of("com.example.contract", "com.example.schema", "com.example.service"));
+        a = network.createPartyNode(null);
+        b = network.createPartyNode(null);
+        a.registerInitiatedFlow(IssueFlow.Acceptor.class);
+        // Every session opened with b starts an Acceptor there.
+        b.registerInitiatedFlow(IssueFlow.Acceptor.class).subscribe(acceptor -> acceptorsStarted++);
+        network.runNetwork();
+        patient = b.getInfo().getLegalIdentities().get(0);
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    private CordaFuture<SignedTransaction> issue(String bloodGroup) {
+        // Each issuance needs a distinct patient, or the second would be rejected as a duplicate.
+        return issue("Jane " + issued++, bloodGroup);
+    }
+
+    private CordaFuture<SignedTransaction> issue(String name, String bloodGroup) {
+        CordaFuture<SignedTransaction> future = a.startFlow(new IssueFlow.Initiator(
+                name, 30, "Female", 170, 60, bloodGroup, "Flu", "Rest", patient));
+        network.runNetwork();
+        return future;
+    }
+
+    @Test
+    public void invalidBloodGroupIsRejectedWithoutContactingTheCounterparty() throws Exception {
+        try {
+            issue("C(positive)").get();
+            fail("The flow should have been rejected.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FlowException);
+            assertTrue(e.getCause().getMessage().contains("bloodGroup"));
+        }
+        assertEquals(0, acceptorsStarted);
+        b.transaction(() -> {
+            assertTrue(b.getServices().getValidatedTransactions().track().getSnapshot().isEmpty());
+            assertTrue(b.getServices().getVaultService().queryBy(com.example.state.IOUState.class).getStates().isEmpty());
+            return null;
+        });
+    }
+
+    @Test
+    public void issuingTheSamePatientTwiceIsRejected() throws Exception {
+        issue("Mary Major", "B(negative)").get();
+        try {
+            issue("  mary   MAJOR ", "B(negative)").get();
+            fail("The duplicate should have been rejected.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FlowException);
+            assertTrue(e.getCause().getMessage().contains("already been issued"));
+        }
+        // A different blood group is a different patient.
+        issue("Mary Major", "B(positive)").get();
+    }
+
+    @Test
+    public void issuingTheSamePatientTwiceAtOnceIsRejected() throws Exception {
+        // Both flows are checked before either has committed its IOU, so only the reservation can stop the second.
+        final CordaFuture<SignedTransaction> first = a.startFlow(new IssueFlow.Initiator(
+                "John Doe", 40, "Male", 180, 80, "O(negative)", "Flu", "Rest", patient));
+        final CordaFuture<SignedTransaction> second = a.startFlow(new IssueFlow.Initiator(
+                "john doe", 40, "Male", 180, 80, "O(negative)", "Cold", "Rest", patient));
+        network.runNetwork();
+        first.get();
+        try {
+            second.get();
+            fail("The concurrent duplicate should have been rejected.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("already been issued"));
+        }
+    }
+
+    @Test
+    public void onlyValidRecordsOpenASessionWithTheCounterparty() throws Exception {
+        try {
+            issue("C(positive)").get();
+            fail("The flow should have been rejected.");
+        } catch (ExecutionException expected) {
+        }
+        assertEquals(0, acceptorsStarted);
+
+        issue("A(positive)").get();
+        assertEquals(1, acceptorsStarted);
+        b.transaction(() -> {
+            assertEquals(1, b.getServices().getValidatedTransactions().track().getSnapshot().size());
+            return null;
+        });
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.flow;
+
+import com.example.query.IOUProjection;
+import com.example.seed.PatientRecordGenerator;
+import com.example.state.IOUState;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.flows.FlowException;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+
+public class ProjectionQueryFlowTests {
+    private static final long SEED = 11;
+    private static final int RECORDS = 120;
+
+    static {
+        // Must be set before SeedVaultFlow is loaded.
+        System.setProperty("carechain.seed.enabled", "true");
+    }
+
+    private MockNetwork network;
+    private StartedMockNode a;
+    private String hospital;
+
+    @Before
+    public void setup() throws Exception {
+        network = new MockNetwork(ImmutableList.of("com.example.contract", "com.example.schema", "com.example.service"));
+        a = network.createPartyNode(null);
+        final StartedMockNode b = network.createPartyNode(null);
+        network.runNetwork();
+        hospital = a.getInfo().getLegalIdentities().get(0).getName().toString();
+        final Party patient = b.getInfo().getLegalIdentities().get(0);
+        final CordaFuture<Integer> seeded = a.startFlow(new SeedVaultFlow(patient, SEED, 0, RECORDS));
+        network.runNetwork();
+        seeded.get();
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    private IOUProjection query(List<String> columns, String hospital, String nameFilter, int page, int pageSize) throws Exception {
+        final CordaFuture<IOUProjection> future = a.startFlow(new ProjectionQueryFlow(columns, Vault.StateStatus.UNCONSUMED,
+                hospital, nameFilter, page, pageSize));
+        network.runNetwork();
+        return future.get();
+    }
+
+    @Test
+    public void pagesHoldOnlyTheRequestedColumnsAndCoverTheVaultOnce() throws Exception {
+        final Set<Object> linearIds = new HashSet<>();
+        for (int page = 1; page <= 3; page++) {
+            final IOUProjection projection = query(ImmutableList.of("linearId", "name", "age"), hospital, null, page, 50);
+            assertEquals(RECORDS, projection.getTotal());
+            assertEquals(page < 3 ? 50 : RECORDS - 100, projection.getRows().size());
+            for (List<Object> row : projection.getRows()) {
+                assertEquals(3, row.size());
+                assertTrue(row.get(1) instanceof String);
+                assertTrue(row.get(2) instanceof Integer);
+                linearIds.add(row.get(0));
+            }
+        }
+        assertEquals(RECORDS, linearIds.size());
+        assertTrue(linearIds.contains(new PatientRecordGenerator(SEED).linearId(0).getId().toString()));
+    }
+
+    @Test
+    public void rowsMatchTheStatesTheyWereReadFrom() throws Exception {
+        final List<StateAndRef<IOUState>> states = a.transaction(() -> a.getServices().getVaultService().queryBy(IOUState.class,
+                new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED), new PageSpecification(1, RECORDS)).getStates());
+        final IOUState state = states.get(0).getState().getData();
+        final IOUProjection projection = query(ImmutableList.of("linearId", "patient", "diagnosis", "weight"), null,
+                state.getName(), 1, RECORDS);
+        boolean found = false;
+        for (Map<String, Object> row : projection.toMaps()) {
+            if (row.get("linearId").equals(state.getLinearId().getId().toString())) {
+                assertEquals(state.getPatient().getName().toString(), row.get("patient"));
+                assertEquals(state.getDiagnosis(), row.get("diagnosis"));
+                assertEquals(state.getWeight(), row.get("weight"));
+                found = true;
+            }
+        }
+        assertTrue(found);
+    }
+
+    @Test
+    public void filtersAreAppliedByTheDatabase() throws Exception {
+        assertEquals(0, query(ImmutableList.of("name"), "O=Nobody, L=London, C=GB", null, 1, 10).getTotal());
+        final IOUProjection filtered = query(ImmutableList.of("name"), hospital, "#1", 1, RECORDS);
+        assertTrue(filtered.getTotal() > 0 && filtered.getTotal() < RECORDS);
+        for (List<Object> row : filtered.getRows()) assertTrue(((String) row.get(0)).contains("#1"));
+        // Wildcards in the filter match only themselves, and no generated name contains them.
+        assertEquals(0, query(ImmutableList.of("name"), hospital, "_", 1, 10).getTotal());
+        assertEquals(0, query(ImmutableList.of("name"), hospital, "%", 1, 10).getTotal());
+    }
+
+    @Test
+    public void unknownColumnsAreRejected() throws Exception {
+        try {
+            query(ImmutableList.of("name", "checkpoint_value"), null, null, 1, 10);
+            fail("The query should have been rejected.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FlowException);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.flow;
+
+import com.example.seed.PatientRecordGenerator;
+import com.example.state.IOUState;
+import com.example.state.PatientRecord;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.contract.IssueContract.MAX_BATCH_SIZE;
+import static org.junit.Assert.assertEquals;
+
+public class SeedVaultFlowTests {
+    private static final long SEED = 7;
+
+    static {
+        // Must be set before SeedVaultFlow is loaded.
+        System.setProperty("carechain.seed.enabled", "true");
+    }
+
+    private MockNetwork network;
+    private StartedMockNode a;
+    private StartedMockNode b;
+    private Party patient;
+
+    @Before
+    public void setup() {
+        network = new MockNetwork(ImmutableList.of("com.example.contract", "com.example.schema", "com.example.service"));
+        a = network.createPartyNode(null);
+        b = network.createPartyNode(null);
+        for (StartedMockNode node : ImmutableList.of(a, b)) {
+            node.registerInitiatedFlow(BatchIssueFlow.Acceptor.class);
+        }
+        network.runNetwork();
+        patient = b.getInfo().getLegalIdentities().get(0);
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    private long count(StartedMockNode node) {
+        return node.transaction(() -> node.getServices().getVaultService().queryBy(IOUState.class,
+                new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED), new PageSpecification(1, 1))
+                .getTotalStatesAvailable());
+    }
+
+    private int transactions(StartedMockNode node) {
+        return node.transaction(() -> node.getServices().getValidatedTransactions().track().getSnapshot().size());
+    }
+
+    @Test
+    public void directSeedingWritesOnlyTheHospitalsVault() throws Exception {
+        final CordaFuture<Integer> future = a.startFlow(new SeedVaultFlow(patient, SEED, 0, 1200));
+        network.runNetwork();
+        assertEquals(1200, (int) future.get());
+
+        assertEquals(1200, count(a));
+        assertEquals(0, count(b));
+        // The records are written in full batches, and nothing is sent to the patient.
+        assertEquals((1200 + MAX_BATCH_SIZE - 1) / MAX_BATCH_SIZE, transactions(a));
+        assertEquals(0, transactions(b));
+        // Any seeded record can be found again from its index alone.
+        final PatientRecordGenerator generator = new PatientRecordGenerator(SEED);
+        final List<StateAndRef<IOUState>> found = a.transaction(() -> a.getServices().getVaultService().queryBy(IOUState.class,
+                new QueryCriteria.LinearStateQueryCriteria(null, ImmutableList.of(generator.linearId(731).getId()),
+                        null, Vault.StateStatus.UNCONSUMED)).getStates());
+        assertEquals(1, found.size());
+        assertEquals(generator.record(731).getName(), found.get(0).getState().getData().getName());
+    }
+
+    @Test
+    public void generatedRecordsCanBeIssuedThroughTheBatchFlow() throws Exception {
+        final PatientRecordGenerator generator = new PatientRecordGenerator(SEED);
+        final List<PatientRecord> records = new ArrayList<>();
+        for (int i = 0; i < 200; i++) records.add(generator.record(i));
+        final CordaFuture<SignedTransaction> future = a.startFlow(new BatchIssueFlow.Initiator(records, patient));
+        network.runNetwork();
+        future.get();
+
+        assertEquals(200, count(a));
+        assertEquals(200, count(b));
+    }
+}
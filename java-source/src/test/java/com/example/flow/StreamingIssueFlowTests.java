@@ -0,0 +1,215 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.service.IssuanceQueueService;
+import com.example.state.IOUState;
+import com.example.state.PatientRecord;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that queued records are all issued over one stream in as few transactions as the batch size allows, and
+ * that a refused batch is reported without holding up the records queued behind it.
+ */
+public class StreamingIssueFlowTests {
+    private static final int RECORDS = 200;
+
+    private MockNetwork network;
+    private StartedMockNode a;
+    private StartedMockNode b;
+    private Party patient;
+
+    @Before
+    public void setup() {
+        network = new MockNetwork(ImmutableList.of(
+                "com.example.contract", "com.example.schema", "com.example.flow", "com.example.service"));
+        a = network.createPartyNode(null);
+        b = network.createPartyNode(null);
+        network.runNetwork();
+        patient = b.getInfo().getLegalIdentities().get(0);
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    private static PatientRecord record(int i) {
+        return new PatientRecord("Patient " + i, 30, "Female", 170, 60, "A(positive)", "Flu", "Rest");
+    }
+
+    private int issuedTo(StartedMockNode node) {
+        return node.transaction(() -> (int) node.getServices().getVaultService().queryBy(IOUState.class,
+                new QueryCriteria.VaultQueryCriteria(), new PageSpecification(1, 1)).getTotalStatesAvailable());
+    }
+
+    /**
+     * Runs the network until every queued record has been streamed and the streams have closed. Streams are started
+     * from the queue service's own thread, so one may not have started yet when [enqueue] returns.
+     */
+    private void streamAll() throws InterruptedException {
+        final IssuanceQueueService queue = a.getServices().cordaService(IssuanceQueueService.class);
+        final long deadline = System.currentTimeMillis() + 60000;
+        do {
+            network.runNetwork();
+            if (queue.getQueued() == 0 && queue.getStreams() == 0) return;
+            Thread.sleep(10);
+        } while (System.currentTimeMillis() < deadline);
+        fail(queue.getQueued() + " records were still queued.");
+    }
+
+    private List<UniqueIdentifier> enqueue(int from, int to) throws Exception {
+        final List<PatientRecord> records = new ArrayList<>();
+        for (int i = from; i < to; i++) records.add(record(i));
+        final CordaFuture<List<UniqueIdentifier>> future = a.startFlow(new StreamingIssueFlow.Enqueue(records, patient));
+        network.runNetwork();
+        return future.get();
+    }
+
+    @Test
+    public void everyQueuedRecordIsIssuedUnderItsLinearId() throws Exception {
+        final List<UniqueIdentifier> linearIds = new ArrayList<>(enqueue(0, RECORDS / 2));
+        linearIds.addAll(enqueue(RECORDS / 2, RECORDS));
+        streamAll();
+
+        final IssuanceQueueService queue = a.getServices().cordaService(IssuanceQueueService.class);
+        assertEquals(0, queue.getQueued());
+        assertEquals(RECORDS, queue.getIssuedRecords());
+        assertTrue(queue.getIssuedBatches() < RECORDS);
+        assertEquals(RECORDS, issuedTo(b));
+        b.transaction(() -> {
+            final QueryCriteria byIds = new QueryCriteria.LinearStateQueryCriteria(
+                    null, linearIds.stream().map(UniqueIdentifier::getId).collect(Collectors.toList()), null,
+                    Vault.StateStatus.UNCONSUMED);
+            assertEquals(RECORDS, b.getServices().getVaultService().queryBy(IOUState.class, byIds,
+                    new PageSpecification(1, RECORDS)).getStates().size());
+            return null;
+        });
+    }
+
+    @Test
+    public void aQueuedRecordIsStreamedToThePatient() throws Exception {
+        final UniqueIdentifier linearId = enqueue(0, 1).get(0);
+        streamAll();
+
+        assertEquals(1, a.getServices().cordaService(IssuanceQueueService.class).getIssuedRecords());
+        for (StartedMockNode node : ImmutableList.of(a, b)) {
+            node.transaction(() -> {
+                final QueryCriteria byId = new QueryCriteria.LinearStateQueryCriteria(
+                        null, ImmutableList.of(linearId.getId()), null, Vault.StateStatus.UNCONSUMED);
+                assertEquals(1, node.getServices().getVaultService().queryBy(IOUState.class, byId).getStates().size());
+                return null;
+            });
+        }
+    }
+
+    @Test
+    public void invalidRecordsAreNotQueued() throws Exception {
+        final CordaFuture<List<UniqueIdentifier>> future = a.startFlow(new StreamingIssueFlow.Enqueue(ImmutableList.of(
+                new PatientRecord("Jane", 30, "Female", 170, 60, "C(positive)", "Flu", "Rest")), patient));
+        network.runNetwork();
+        try {
+            future.get();
+            fail("The flow should have been rejected.");
+        } catch (Exception e) {
+            assertEquals(0, a.getServices().cordaService(IssuanceQueueService.class).getQueued());
+        }
+    }
+
+    @Test
+    public void queuedRecordsShareTransactions() throws Exception {
+        enqueue(0, RECORDS);
+        streamAll();
+
+        // One IssueFlow per record would leave RECORDS transactions on b.
+        final int batches = (RECORDS + IssuanceQueueService.MAX_BATCH - 1) / IssuanceQueueService.MAX_BATCH;
+        assertEquals(RECORDS, issuedTo(b));
+        assertEquals(batches, a.getServices().cordaService(IssuanceQueueService.class).getIssuedBatches());
+        assertEquals(batches, (int) b.transaction(() ->
+                b.getServices().getValidatedTransactions().track().getSnapshot().size()));
+    }
+
+    @Test
+    public void aRefusedBatchIsReportedAndTheRecordsBehindItAreStillIssued() throws Exception {
+        // A network of its own, so that b answers streams with RefuseFirstBatch instead of the real Responder.
+        network.stopNodes();
+        network = new MockNetwork(ImmutableList.of("com.example.contract", "com.example.schema", "com.example.service"));
+        a = network.createPartyNode(null);
+        b = network.createPartyNode(null);
+        b.registerInitiatedFlow(RefuseFirstBatch.class);
+        network.runNetwork();
+        patient = b.getInfo().getLegalIdentities().get(0);
+        RefuseFirstBatch.started = 0;
+
+        final int queued = IssuanceQueueService.MAX_BATCH + RECORDS / 4;
+        final List<UniqueIdentifier> linearIds = enqueue(0, queued);
+        streamAll();
+
+        final CordaFuture<Map<UniqueIdentifier, String>> failures = a.startFlow(new StreamingIssueFlow.Failures(linearIds));
+        network.runNetwork();
+        final Map<UniqueIdentifier, String> failed = failures.get();
+        assertEquals(IssuanceQueueService.MAX_BATCH, failed.size());
+        assertTrue(failed.keySet().containsAll(linearIds.subList(0, IssuanceQueueService.MAX_BATCH)));
+        assertTrue(failed.values().iterator().next().contains("Not today"));
+        assertEquals(queued - IssuanceQueueService.MAX_BATCH, issuedTo(b));
+        assertEquals(0, a.getServices().cordaService(IssuanceQueueService.class).getQueued());
+    }
+
+    /**
+     * Refuses the first batch of the first stream, then signs like [StreamingIssueFlow.Responder].
+     */
+    @InitiatedBy(StreamingIssueFlow.Initiator.class)
+    public static class RefuseFirstBatch extends FlowLogic<Integer> {
+        static int started;
+
+        private final FlowSession otherPartyFlow;
+
+        public RefuseFirstBatch(FlowSession otherPartyFlow) {
+            this.otherPartyFlow = otherPartyFlow;
+        }
+
+        @Suspendable
+        @Override
+        public Integer call() throws FlowException {
+            final boolean refuse = started++ == 0;
+            int signed = 0;
+            while (otherPartyFlow.receive(Boolean.class).unwrap(more -> more)) {
+                if (refuse) throw new FlowException("Not today.");
+                subFlow(new CheckedSignTransactionFlow(otherPartyFlow));
+                signed++;
+            }
+            return signed;
+        }
+    }
+
+    @Test
+    public void recordsAlreadyIssuedAreNotQueuedAgain() throws Exception {
+        enqueue(0, 1);
+        streamAll();
+        try {
+            enqueue(0, 1);
+            fail("The duplicate should have been rejected.");
+        } catch (Exception e) {
+            assertTrue(e.getCause().getMessage().contains("already been issued"));
+        }
+        assertEquals(1, issuedTo(b));
+    }
+}
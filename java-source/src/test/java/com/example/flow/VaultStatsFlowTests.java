@@ -0,0 +1,63 @@
+package com.example.flow;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.identity.Party;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VaultStatsFlowTests {
+    private MockNetwork network;
+    private StartedMockNode a;
+    private Party patient;
+
+    @Before
+    public void setup() {
+        network = new MockNetwork(ImmutableList.of("com.example.contract", "com.example.schema", "com.example.service"));
+        a = network.createPartyNode(null);
+        final StartedMockNode b = network.createPartyNode(null);
+        for (StartedMockNode node : ImmutableList.of(a, b)) {
+            node.registerInitiatedFlow(IssueFlow.Acceptor.class);
+        }
+        network.runNetwork();
+        patient = b.getInfo().getLegalIdentities().get(0);
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    private void issue(String name) {
+        a.startFlow(new IssueFlow.Initiator(name, 30, "Female", 170, 60, "A(positive)", "Flu", "Rest", patient));
+        network.runNetwork();
+    }
+
+    private Map<String, Object> stats() throws Exception {
+        final CordaFuture<Map<String, Object>> future = a.startFlow(new VaultStatsFlow());
+        network.runNetwork();
+        return future.get();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void vaultStatsFollowIssuanceAfterTheFirstLoad() throws Exception {
+        issue("F");
+        assertEquals(1L, ((Map<String, Object>) stats().get("rows")).get("unconsumed"));
+
+        // Counted from the vault update rather than read again from the vault.
+        issue("G");
+        final Map<String, Object> stats = stats();
+        assertEquals(2L, ((Map<String, Object>) stats.get("rows")).get("total"));
+        assertTrue((Long) ((Map<String, Object>) stats.get("states")).get("averageSerializedBytes") > 0);
+        assertEquals(2.0 / 60, ((Map<String, Object>) stats.get("issuedPerSecond")).get("1m"));
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.query;
+
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Random;
+
+import static com.example.query.ColumnarIOUStore.Column.*;
+import static org.junit.Assert.*;
+
+public class ColumnarIOUStoreTests {
+    private static final String[] GENDERS = {"Male", "Female", "Other"};
+    private static final String[] BLOOD_GROUPS = {"A(positive)", "A(negative)", "B(positive)", "B(negative)",
+            "AB(positive)", "AB(negative)", "O(positive)", "O(negative)"};
+    private static final SecureHash TX = SecureHash.sha256("tx");
+
+    private static StateRef ref(int i) {
+        return new StateRef(TX, i);
+    }
+
+    @Test
+    public void histogramsAndPercentilesRespectTheFilter() {
+        final ColumnarIOUStore store = new ColumnarIOUStore();
+        for (int i = 0; i < 100; i++) {
+            store.add(ref(i), i + 1, i % 2 == 0 ? "Female" : "Male", 150 + i, 50, "O(positive)");
+        }
+
+        final long[] all = store.histogram(AGE, 10, ColumnarIOUStore.Filter.ALL);
+        assertEquals(11, all.length);
+        assertEquals(9, all[0]);
+        assertEquals(10, all[5]);
+        assertEquals(1, all[10]);
+
+        final long[] women = store.histogram(AGE, 10, ColumnarIOUStore.Filter.by("Female", null));
+        long total = 0;
+        for (long count : women) total += count;
+        assertEquals(50, total);
+
+        assertArrayEquals(new int[]{50, 90, 100}, store.percentiles(AGE, new double[]{50, 90, 100}, ColumnarIOUStore.Filter.ALL));
+        assertArrayEquals(new int[]{249}, store.percentiles(HEIGHT, new double[]{100}, ColumnarIOUStore.Filter.by("Male", null)));
+        assertEquals(0, store.histogram(AGE, 10, ColumnarIOUStore.Filter.by("Unknown", null)).length);
+        assertEquals(0, store.percentiles(AGE, new double[]{50}, ColumnarIOUStore.Filter.by(null, "AB(negative)")).length);
+    }
+
+    @Test
+    public void removingARowKeepsTheOthers() {
+        final ColumnarIOUStore store = new ColumnarIOUStore();
+        store.add(ref(0), 10, "Male", 100, 30, "A(positive)");
+        store.add(ref(1), 20, "Female", 120, 40, "B(positive)");
+        store.add(ref(2), 30, "Other", 140, 50, "O(negative)");
+        store.add(ref(2), 30, "Other", 140, 50, "O(negative)");
+        assertEquals(3, store.size());
+
+        store.remove(ref(0));
+        store.remove(ref(0));
+        assertEquals(2, store.size());
+        final Map<String, Map<String, Object>> groups = store.byBloodGroup(ColumnarIOUStore.Filter.ALL);
+        assertEquals(2, groups.size());
+        assertFalse(groups.containsKey("A(positive)"));
+        assertEquals(30.0, groups.get("O(negative)").get("meanAge"));
+
+        store.remove(ref(2));
+        assertEquals(20.0, store.byBloodGroup(ColumnarIOUStore.Filter.ALL).get("B(positive)").get("meanAge"));
+    }
+
+    @Test
+    public void parallelScansMatchASequentialCountOverAMillionRows() {
+        final int rows = 1000000;
+        final ColumnarIOUStore store = new ColumnarIOUStore();
+        final int[] ages = new int[rows];
+        final int[] groups = new int[rows];
+        final Random random = new Random(42);
+        for (int i = 0; i < rows; i++) {
+            ages[i] = 1 + random.nextInt(100);
+            groups[i] = random.nextInt(BLOOD_GROUPS.length);
+            store.add(ref(i), ages[i], GENDERS[i % 3], 100 + random.nextInt(100), 40 + random.nextInt(80), BLOOD_GROUPS[groups[i]]);
+        }
+        final long[] expected = new long[11];
+        for (int i = 0; i < rows; i++) {
+            if (groups[i] == 0) expected[ages[i] / 10]++;
+        }
+
+        final long[] histogram = store.histogram(AGE, 10, ColumnarIOUStore.Filter.by(null, BLOOD_GROUPS[0]));
+        assertArrayEquals(expected, histogram);
+
+        long total = 0;
+        for (Map<String, Object> group : store.byBloodGroup(ColumnarIOUStore.Filter.ALL).values()) {
+            total += (Long) group.get("count");
+        }
+        assertEquals(rows, total);
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.query;
+
+import com.example.state.IOUState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.Crypto;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static com.example.contract.IssueContract.IOU_CONTRACT_ID;
+import static org.junit.Assert.assertEquals;
+
+public class ConsumedStateArchiveTests {
+    static private final Party hospital = new Party(new CordaX500Name("Hospital", "London", "GB"), Crypto.generateKeyPair().getPublic());
+    static private final Party patient = new Party(new CordaX500Name("Patient", "London", "GB"), Crypto.generateKeyPair().getPublic());
+    static private final Party notary = new Party(new CordaX500Name("Notary", "London", "GB"), Crypto.generateKeyPair().getPublic());
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static StateAndRef<IOUState> consumed(UniqueIdentifier linearId, String diagnosis) {
+        IOUState iou = new IOUState(hospital, patient, "Jane", 30, "Female", 170, 60, "A(positive)", diagnosis, "Rest", linearId);
+        return new StateAndRef<>(new TransactionState<>(iou, IOU_CONTRACT_ID, notary), new StateRef(SecureHash.randomSHA256(), 0));
+    }
+
+    @Test
+    public void historyIsReadBackAcrossBlocksAndRestarts() throws Exception {
+        UniqueIdentifier linearId = new UniqueIdentifier();
+        try (ConsumedStateArchive archive = new ConsumedStateArchive(folder.getRoot().toPath())) {
+            archive.append(consumed(linearId, "Flu"), Instant.now());
+            archive.append(consumed(new UniqueIdentifier(), "Other"), Instant.now());
+            archive.flush();
+            archive.append(consumed(linearId, "Cold"), Instant.now());
+        }
+
+        try (ConsumedStateArchive archive = new ConsumedStateArchive(folder.getRoot().toPath())) {
+            List<Map<String, Object>> history = archive.lookup(linearId.getId());
+            assertEquals(2, history.size());
+            assertEquals("Flu", history.get(0).get("diagnosis"));
+            assertEquals("Cold", history.get(1).get("diagnosis"));
+            assertEquals(3, archive.size());
+        }
+    }
+
+    @Test
+    public void statesAreOnlyArchivedOnce() throws Exception {
+        UniqueIdentifier linearId = new UniqueIdentifier();
+        StateAndRef<IOUState> state = consumed(linearId, "Flu");
+        try (ConsumedStateArchive archive = new ConsumedStateArchive(folder.getRoot().toPath())) {
+            archive.append(state, Instant.now());
+            archive.flush();
+            archive.append(state, Instant.now());
+            assertEquals(1, archive.lookup(linearId.getId()).size());
+        }
+    }
+
+    @Test
+    public void statesArchivedBeforeARestartAreNotArchivedAgain() throws Exception {
+        UniqueIdentifier linearId = new UniqueIdentifier();
+        StateAndRef<IOUState> state = consumed(linearId, "Flu");
+        try (ConsumedStateArchive archive = new ConsumedStateArchive(folder.getRoot().toPath())) {
+            archive.append(state, Instant.now());
+        }
+
+        try (ConsumedStateArchive archive = new ConsumedStateArchive(folder.getRoot().toPath())) {
+            archive.append(state, Instant.now());
+            archive.append(consumed(linearId, "Cold"), Instant.now());
+            assertEquals(2, archive.size());
+            assertEquals(2, archive.lookup(linearId.getId()).size());
+        }
+    }
+}
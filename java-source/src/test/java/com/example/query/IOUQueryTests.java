@@ -0,0 +1,69 @@
+package com.example.query;
+
+import com.example.state.IOUState;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.Crypto;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class IOUQueryTests {
+    static private final Party hospitalA = new Party(new CordaX500Name("HospitalA", "London", "GB"), Crypto.generateKeyPair().getPublic());
+    static private final Party hospitalB = new Party(new CordaX500Name("HospitalB", "London", "GB"), Crypto.generateKeyPair().getPublic());
+    static private final Party patient = new Party(new CordaX500Name("Patient", "London", "GB"), Crypto.generateKeyPair().getPublic());
+
+    private static IOUState issuedBy(Party hospital) {
+        return new IOUState(hospital, patient, "Jane", 30, "Female", 170, 60, "A(positive)", "Flu", "Rest", new UniqueIdentifier());
+    }
+
+    @Test
+    public void queriesWithTheSameFiltersAreEqual() {
+        assertEquals(IOUQuery.byHospital(Vault.StateStatus.ALL, "O=HospitalA, L=London, C=GB"),
+                IOUQuery.byHospital(Vault.StateStatus.ALL, "O=HospitalA, L=London, C=GB"));
+        assertNotEquals(IOUQuery.all(Vault.StateStatus.ALL), IOUQuery.all(Vault.StateStatus.ALL).withPage(2, 50));
+    }
+
+    @Test
+    public void hospitalFilterOnlyMatchesThatHospital() {
+        IOUQuery query = IOUQuery.byHospital(Vault.StateStatus.ALL, hospitalA.getName().toString());
+        assertTrue(query.couldMatch(issuedBy(hospitalA), false));
+        assertFalse(query.couldMatch(issuedBy(hospitalB), false));
+        assertTrue(IOUQuery.all(Vault.StateStatus.ALL).couldMatch(issuedBy(hospitalB), false));
+    }
+
+    @Test
+    public void nameFilterOnlyMatchesNamesContainingIt() {
+        IOUQuery query = IOUQuery.all(Vault.StateStatus.UNCONSUMED).withNameContaining("an");
+        assertTrue(query.couldMatch(issuedBy(hospitalA), false));
+        assertFalse(IOUQuery.all(Vault.StateStatus.UNCONSUMED).withNameContaining("Mary").couldMatch(issuedBy(hospitalA), false));
+        // Wildcards in the filter are matched literally.
+        assertFalse(IOUQuery.all(Vault.StateStatus.UNCONSUMED).withNameContaining("J_ne").couldMatch(issuedBy(hospitalA), false));
+        assertEquals(IOUQuery.all(Vault.StateStatus.UNCONSUMED), IOUQuery.all(Vault.StateStatus.UNCONSUMED).withNameContaining(""));
+    }
+
+    @Test
+    public void likePatternsEscapeWildcardsAndBackslashes() {
+        assertEquals("%an%", IOUQuery.likeContaining("an"));
+        assertEquals("%50\\%\\_a\\\\b%", IOUQuery.likeContaining("50%_a\\b"));
+    }
+
+    @Test
+    public void onlyNewestFirstQueriesAreSorted() {
+        IOUQuery query = IOUQuery.all(Vault.StateStatus.UNCONSUMED).withPage(2, 50);
+        assertNull(query.toSort());
+        assertNotNull(query.newestFirst().toSort());
+        assertNotEquals(query, query.newestFirst());
+        assertEquals(query.newestFirst(), query.newestFirst().withPage(2, 50));
+    }
+
+    @Test
+    public void newStatesCannotChangeConsumedView() {
+        IOUQuery consumed = IOUQuery.all(Vault.StateStatus.CONSUMED);
+        assertFalse(consumed.couldMatch(issuedBy(hospitalA), false));
+        assertTrue(consumed.couldMatch(issuedBy(hospitalA), true));
+        assertTrue(IOUQuery.all(Vault.StateStatus.UNCONSUMED).couldMatch(issuedBy(hospitalA), true));
+    }
+}
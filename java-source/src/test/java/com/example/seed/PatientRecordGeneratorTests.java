@@ -0,0 +1,55 @@
+package com.example.seed;
+
+import com.example.contract.IOUValidator;
+import com.example.state.PatientRecord;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class PatientRecordGeneratorTests {
+    private static final int RECORDS = 100000;
+
+    @Test
+    public void recordsDependOnlyOnTheSeedAndIndex() {
+        final PatientRecordGenerator generator = new PatientRecordGenerator(7);
+        final PatientRecordGenerator again = new PatientRecordGenerator(7);
+        for (long index : new long[]{0, 1, 999999, 42}) {
+            assertEquals(generator.record(index), again.record(index));
+            assertEquals(generator.linearId(index), again.linearId(index));
+            assertEquals(generator.privacySalt(index), again.privacySalt(index));
+        }
+        assertNotEquals(generator.record(3), new PatientRecordGenerator(8).record(3));
+        assertNotEquals(generator.linearId(3), generator.linearId(4));
+    }
+
+    @Test
+    public void recordsAreValidAndRealisticallyDistributed() {
+        final PatientRecordGenerator generator = new PatientRecordGenerator(1);
+        final Map<String, Integer> bloodGroups = new HashMap<>();
+        final Set<String> names = new HashSet<>();
+        long adultMaleHeight = 0;
+        int adultMales = 0;
+        int elderly = 0;
+        for (int i = 0; i < RECORDS; i++) {
+            final PatientRecord record = generator.record(i);
+            assertEquals(record.toString(), 0, IOUValidator.DEFAULT.validate(record).size());
+            bloodGroups.merge(record.getBloodGroup(), 1, Integer::sum);
+            names.add(record.getName());
+            if (record.getGender().equals("Male") && record.getAge() >= 18 && record.getAge() < 60) {
+                adultMaleHeight += record.getHeight();
+                adultMales++;
+            }
+            if (record.getAge() >= 60) elderly++;
+        }
+        assertEquals(RECORDS, names.size());
+        assertEquals(0.374, bloodGroups.get("O(positive)") / (double) RECORDS, 0.01);
+        assertEquals(0.006, bloodGroups.get("AB(negative)") / (double) RECORDS, 0.002);
+        assertEquals(176, adultMaleHeight / (double) adultMales, 1);
+        assertEquals(0.38, elderly / (double) RECORDS, 0.02);
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.service;
+
+import com.example.schema.IOUSchemaV1;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class DuplicatePatientServiceTests {
+    private static final String HOSPITAL = "O=PartyA,L=London,C=GB";
+    private static final String PATIENT = "O=PartyB,L=New York,C=US";
+
+    @Test
+    public void keysIgnoreCaseAndWhitespace() {
+        assertEquals(DuplicatePatientService.key(HOSPITAL, PATIENT, "Mary Major", "Female", "AB(positive)"),
+                DuplicatePatientService.key(HOSPITAL, PATIENT, "  mary\tMAJOR ", "female", "AB (positive)"));
+    }
+
+    @Test
+    public void keysSeparateHospitalsPatientsAndIdentifiers() {
+        final String key = DuplicatePatientService.key(HOSPITAL, PATIENT, "Mary Major", "Female", "AB(positive)");
+        assertNotEquals(key, DuplicatePatientService.key(PATIENT, HOSPITAL, "Mary Major", "Female", "AB(positive)"));
+        assertNotEquals(key, DuplicatePatientService.key(HOSPITAL, PATIENT, "Mary Majors", "Female", "AB(positive)"));
+        assertNotEquals(key, DuplicatePatientService.key(HOSPITAL, PATIENT, "Mary Major", "Other", "AB(positive)"));
+        assertNotEquals(key, DuplicatePatientService.key(HOSPITAL, PATIENT, "Mary Major", "Female", "AB(negative)"));
+    }
+
+    @Test
+    public void storedIOUsCarryTheKeyTheyAreLookedUpBy() {
+        final IOUSchemaV1.PersistentIOU stored = new IOUSchemaV1.PersistentIOU(HOSPITAL, PATIENT, "  mary\tMAJOR ", 30,
+                "female", 170, 60, "AB (positive)", "Flu", "Rest", UUID.randomUUID());
+        assertEquals(IOUSchemaV1.patientKey("Mary Major", "Female", "AB(positive)"), stored.getPatientKey());
+        assertEquals(DuplicatePatientService.key(HOSPITAL, PATIENT, "Mary Major", "Female", "AB(positive)"),
+                HOSPITAL + '\n' + PATIENT + '\n' + stored.getPatientKey());
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RateWindowTests {
+    private static final long NOW = 1_500_000_000L;
+
+    @Test
+    public void countsOnlyTheEventsInsideTheWindow() {
+        final RateWindow window = new RateWindow();
+        window.record(NOW - 120, 10);
+        window.record(NOW - 30, 4);
+        window.record(NOW - 30, 2);
+        window.record(NOW, 1);
+
+        assertEquals(1, window.count(NOW, 1));
+        assertEquals(7, window.count(NOW, 60));
+        assertEquals(17, window.count(NOW, 300));
+        assertEquals(17.0 / 300, window.rate(NOW, 300), 1e-9);
+    }
+
+    @Test
+    public void bucketsAreReusedAfterAnHour() {
+        final RateWindow window = new RateWindow();
+        window.record(NOW, 5);
+        // Lands in the same bucket an hour later, which must not inherit the old count.
+        window.record(NOW + RateWindow.SECONDS, 3);
+
+        assertEquals(3, window.count(NOW + RateWindow.SECONDS, RateWindow.SECONDS));
+        assertEquals(0, window.count(NOW + 2 * RateWindow.SECONDS, 60));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void windowsLongerThanTheHistoryAreRejected() {
+        new RateWindow().count(NOW, RateWindow.SECONDS + 1);
+    }
+}
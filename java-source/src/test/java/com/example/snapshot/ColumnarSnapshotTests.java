@@ -0,0 +1,163 @@
+package com.example.snapshot;
+
+import com.example.client.ChangeSegmentWriter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static com.example.snapshot.ColumnarSnapshotWriter.Type.INT;
+import static com.example.snapshot.ColumnarSnapshotWriter.Type.STRING;
+import static org.junit.Assert.*;
+
+public class ColumnarSnapshotTests {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static LinkedHashMap<String, ColumnarSnapshotWriter.Type> columns() {
+        final LinkedHashMap<String, ColumnarSnapshotWriter.Type> columns = new LinkedHashMap<>();
+        columns.put("id", INT);
+        columns.put("value", INT);
+        columns.put("group", STRING);
+        return columns;
+    }
+
+    @Test
+    public void valuesSurviveARoundTrip() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("round-trip.ccs");
+        final Random random = new Random(42);
+        final int rows = 2500;
+        final int[] values = new int[rows];
+        final String[] groups = new String[rows];
+        try (ColumnarSnapshotWriter writer = new ColumnarSnapshotWriter(file, columns(), 1000)) {
+            for (int i = 0; i < rows; i++) {
+                // Covers every bit width, including negative values and the full int range.
+                values[i] = i % 7 == 0 ? random.nextInt() : random.nextInt(1 << (i % 31)) - 100;
+                groups[i] = i % 11 == 0 ? null : "group-" + random.nextInt(20);
+                writer.addRow(i, values[i], groups[i]);
+            }
+        }
+
+        try (ColumnarSnapshotReader reader = new ColumnarSnapshotReader(file)) {
+            assertEquals(Arrays.asList("id", "value", "group"), reader.getColumns());
+            assertEquals(STRING, reader.getType("group"));
+            assertEquals(rows, reader.getRows());
+            assertEquals(3, reader.rowGroups().size());
+            int row = 0;
+            for (ColumnarSnapshotReader.RowGroup rowGroup : reader.rowGroups()) {
+                final int[] ids = reader.ints(rowGroup, "id");
+                final int[] readValues = reader.ints(rowGroup, "value");
+                final String[] readGroups = reader.strings(rowGroup, "group");
+                for (int i = 0; i < rowGroup.getRows(); i++, row++) {
+                    assertEquals(row, ids[i]);
+                    assertEquals(values[row], readValues[i]);
+                    assertEquals(groups[row], readGroups[i]);
+                }
+            }
+            assertEquals(rows, row);
+        }
+    }
+
+    @Test
+    public void rowGroupsAreSkippedUsingTheirStatistics() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("stats.ccs");
+        try (ColumnarSnapshotWriter writer = new ColumnarSnapshotWriter(file, columns(), 100)) {
+            for (int i = 0; i < 1000; i++) {
+                writer.addRow(i, i / 100, i < 500 ? "low" : "high");
+            }
+        }
+
+        try (ColumnarSnapshotReader reader = new ColumnarSnapshotReader(file)) {
+            final List<ColumnarSnapshotReader.RowGroup> matching = reader.rowGroups("id", 250, 349);
+            assertEquals(2, matching.size());
+            assertEquals(2, matching.get(0).getIndex());
+            assertEquals(3, matching.get(1).getIndex());
+            assertEquals(5, reader.rowGroups("group", "high").size());
+            assertTrue(reader.rowGroups("group", "medium").isEmpty());
+            // A constant column packs to no bits at all.
+            assertEquals(7, reader.ints(reader.rowGroups().get(7), "value")[99]);
+        }
+    }
+
+    @Test
+    public void changeLogsAreFoldedIntoOneRowPerState() throws Exception {
+        final Path dump = folder.getRoot().toPath().resolve("changes.ndjson");
+        final List<String> lines = new ArrayList<>();
+        lines.add(event("produced", "A(0)", 30));
+        lines.add(event("produced", "B(0)", 40));
+        // At-least-once delivery may repeat an event.
+        lines.add(event("produced", "A(0)", 30));
+        lines.add(event("consumed", "A(0)", 30));
+        lines.add("");
+        Files.write(dump, lines, StandardCharsets.UTF_8);
+
+        final Path file = folder.getRoot().toPath().resolve("ious.ccs");
+        try (ColumnarSnapshotWriter writer = new ColumnarSnapshotWriter(file, SnapshotExporter.IOU_COLUMNS, 1000)) {
+            SnapshotExporter.exportNdjson(dump, writer);
+        }
+
+        try (ColumnarSnapshotReader reader = new ColumnarSnapshotReader(file)) {
+            assertEquals(2, reader.getRows());
+            final ColumnarSnapshotReader.RowGroup rowGroup = reader.rowGroups().get(0);
+            assertArrayEquals(new String[]{"A(0)", "B(0)"}, reader.strings(rowGroup, "stateRef"));
+            assertArrayEquals(new String[]{"CONSUMED", "UNCONSUMED"}, reader.strings(rowGroup, "status"));
+            assertArrayEquals(new int[]{30, 40}, reader.ints(rowGroup, "age"));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void changeLogDirectoriesAreReadInOrderUpToTheirCheckpoint() throws Exception {
+        final Path directory = folder.getRoot().toPath().resolve("cdc");
+        final ObjectMapper mapper = new ObjectMapper();
+        final List<Map<String, Object>> events = new ArrayList<>();
+        for (String json : Arrays.asList(event("produced", "A(0)", 30), event("produced", "B(0)", 40),
+                event("consumed", "A(0)", 30), event("produced", "C(0)", 50))) {
+            events.add(mapper.readValue(json, Map.class));
+        }
+        // Segments small enough that every event rolls over to a new one.
+        try (ChangeSegmentWriter segments = new ChangeSegmentWriter(directory, 16)) {
+            for (Map<String, Object> event : events) {
+                segments.write(Collections.singletonList(event));
+            }
+            segments.sync(null);
+        }
+        // An event written after the checkpoint, as if the exporter had died before syncing it.
+        final Path last = directory.resolve(ChangeSegmentWriter.segmentFileName(events.size() - 1));
+        Files.write(last, (event("produced", "D(0)", 60) + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        final Path file = folder.getRoot().toPath().resolve("ious.ccs");
+        try (ColumnarSnapshotWriter writer = new ColumnarSnapshotWriter(file, SnapshotExporter.IOU_COLUMNS, 1000)) {
+            SnapshotExporter.exportChangeLog(directory, writer);
+        }
+
+        try (ColumnarSnapshotReader reader = new ColumnarSnapshotReader(file)) {
+            assertEquals(3, reader.getRows());
+            final ColumnarSnapshotReader.RowGroup rowGroup = reader.rowGroups().get(0);
+            assertArrayEquals(new String[]{"A(0)", "B(0)", "C(0)"}, reader.strings(rowGroup, "stateRef"));
+            assertArrayEquals(new String[]{"CONSUMED", "UNCONSUMED", "UNCONSUMED"}, reader.strings(rowGroup, "status"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreRejected() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("not-a-snapshot.ccs");
+        Files.write(file, "{}".getBytes(StandardCharsets.UTF_8));
+        new ColumnarSnapshotReader(file).close();
+    }
+
+    private static String event(String kind, String stateRef, int age) {
+        return String.format("{\"key\":\"%s:%s\",\"kind\":\"%s\",\"stateRef\":\"%s\",\"linearId\":\"%s\","
+                        + "\"hospital\":\"O=PartyA, L=London, C=GB\",\"patient\":\"O=PartyB, L=New York, C=US\","
+                        + "\"name\":\"Jane\",\"age\":%d,\"gender\":\"Female\",\"height\":170,\"weight\":60,"
+                        + "\"bloodGroup\":\"O(positive)\",\"diagnosis\":\"Flu\",\"medicine\":\"Rest\"}",
+                kind, stateRef, kind, stateRef, UUID.nameUUIDFromBytes(stateRef.getBytes()), age);
+    }
+}
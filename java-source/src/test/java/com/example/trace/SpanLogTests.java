@@ -0,0 +1,62 @@
+package com.example.trace;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SpanLogTests {
+    private static final Path DIRECTORY;
+
+    static {
+        try {
+            DIRECTORY = Files.createTempDirectory("spans");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // Must be set before SpanLog is loaded.
+        System.setProperty("carechain.trace.dir", DIRECTORY.toString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void spansFromSeveralNodesArePutBackTogether() throws Exception {
+        final String first = SpanLog.newCorrelationId();
+        final String second = SpanLog.newCorrelationId();
+        final SpanLog.Span api = SpanLog.start(first, "api.create-iou", "web-PartyA");
+        final SpanLog.Span initiator = SpanLog.start(first, "initiator", "PartyA");
+        final SpanLog.Span acceptor = SpanLog.start(first, "acceptor", "PartyB");
+        Thread.sleep(5);
+        acceptor.end("tx");
+        initiator.end();
+        api.end();
+        SpanLog.start(second, "initiator", "PartyA").end("invalid");
+        SpanLog.flush();
+
+        assertTrue(Files.exists(DIRECTORY.resolve("spans-PartyB.ndjson")));
+        final TraceViewer viewer = new TraceViewer(TraceViewer.read(Collections.singletonList(DIRECTORY)));
+        final List<String> waterfall = Arrays.asList(viewer.waterfall(first).split(System.lineSeparator()));
+        assertEquals(4, waterfall.size());
+        assertTrue(waterfall.get(0).startsWith(first));
+        assertTrue(waterfall.get(1).contains("api.create-iou"));
+        assertTrue(waterfall.get(3).contains("PartyB") && waterfall.get(3).endsWith("tx"));
+        assertTrue(viewer.meanMillisBySpan().get("PartyB acceptor") >= 5);
+        assertTrue(viewer.summary().startsWith("2 requests."));
+
+        final Path chrome = DIRECTORY.resolve("trace.json");
+        viewer.exportChrome(chrome);
+        final List<Map<String, Object>> events =
+                (List<Map<String, Object>>) new ObjectMapper().readValue(chrome.toFile(), Map.class).get("traceEvents");
+        // Four spans and a name for each of the three processes.
+        assertEquals(7, events.size());
+    }
+}